@@ -0,0 +1,410 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.ecjtools;
+
+import java.util.ArrayList;
+
+import ec.BreedingSource;
+import ec.Individual;
+import ec.Problem;
+import ec.multiobjective.MultiObjectiveFitness;
+import ec.multiobjective.nsga2.NSGA2MultiObjectiveFitness;
+import ec.simple.SimpleEvolutionState;
+import ec.simple.SimpleProblemForm;
+
+/**
+ * Asynchronous steady-state evolution. After the initial population has been
+ * evaluated, <tt>evalthreads</tt> workers are started. Each worker repeatedly
+ * breeds a single child from the current population, evaluates it and inserts
+ * it back into the population, so no worker waits for the slowest evaluation of
+ * a generation.
+ *
+ * <p>
+ *
+ * The children of multi-objective fitnesses replace the individual with the
+ * lowest crowding distance in the worst Pareto front of the subpopulation plus
+ * the child (the child itself is discarded if it is such individual). If the
+ * fitnesses are NSGA-II fitnesses, their ranks and sparsities are updated after
+ * each insertion, so that selection methods remain valid. The children of other
+ * fitnesses replace the worst individual if they are not worse than it.
+ *
+ * <p>
+ *
+ * In order to keep the statistics meaningful, a generation is counted each
+ * time as many children as individuals in the population have been inserted.
+ * At that moment, the insertions are paused and the evaluation statistics are
+ * called, so statistics such as
+ * {@link ristretto.ecjtools.MultiObjectiveStatistics} see a consistent
+ * population. The evaluations in progress when the run finishes are completed
+ * and inserted before the final statistics.
+ *
+ * <p>
+ *
+ * The problem must implement SimpleProblemForm, as
+ * {@link ristretto.problem.fs.subset.supervised.FSSubsetSupervisedProblem} and
+ * {@link ristretto.problem.fs.subset.unsupervised.FSSubsetUnsupervisedProblem}
+ * do. Breeding is done with the breeding pipeline of each species, and
+ * checkpoints are not written while the workers are running. It is enabled
+ * with:
+ *
+ * <p>
+ * <tt>state = ristretto.ecjtools.AsyncSteadyStateEvolutionState</tt>
+ *
+ * @author Jesús González
+ */
+public class AsyncSteadyStateEvolutionState extends SimpleEvolutionState {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Prefix of the names of the worker threads, followed by their index */
+	public static final String WORKER_NAME = "Ristretto async worker ";
+
+	/** Lock protecting the population */
+	private final Object lock = new Object();
+
+	/** Worker threads */
+	private Thread[] workers;
+
+	/** Whether the workers should stop breeding */
+	private boolean stopped;
+
+	/** Number of children inserted so far */
+	private long insertions;
+
+	/** Number of insertions that complete the current generation */
+	private long generationTarget;
+
+	/** Subpopulation of the next child */
+	private int nextSubpop;
+
+	/** First error raised by a worker */
+	private Throwable failure;
+
+	/**
+	 * Perform a generation. The first call evaluates the initial population and
+	 * starts the workers. Later calls wait until a generation worth of children
+	 * has been inserted.
+	 *
+	 * @return R_SUCCESS, R_FAILURE or R_NOTDONE
+	 */
+	public int evolve() {
+		if (workers == null) {
+			output.message("Generation " + generation);
+
+			statistics.preEvaluationStatistics(this);
+			evaluator.evaluatePopulation(this);
+			for (int s = 0; s < population.subpops.length; s++)
+				updateNSGA2Fitnesses(population.subpops[s].individuals);
+			statistics.postEvaluationStatistics(this);
+
+			if (!(evaluator.p_problem instanceof SimpleProblemForm))
+				output.fatal("The problem should implement SimpleProblemForm to be evaluated asynchronously.");
+
+			if (!finished())
+				startWorkers();
+		} else {
+			output.message("Generation " + generation);
+
+			statistics.preEvaluationStatistics(this);
+			synchronized (lock) {
+				generationTarget += populationSize();
+				while (insertions < generationTarget && failure == null) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				checkFailure();
+
+				// the workers can not insert children meanwhile
+				statistics.postEvaluationStatistics(this);
+			}
+		}
+
+		if (finished()) {
+			stopWorkers();
+			return (evaluator.runComplete(this) != null && quitOnRunComplete) ? R_SUCCESS : R_FAILURE;
+		}
+
+		generation++;
+		return R_NOTDONE;
+	}
+
+	/**
+	 * Return true if the run should finish after the current generation
+	 */
+	private boolean finished() {
+		// the workers may be inserting children
+		synchronized (lock) {
+			return (evaluator.runComplete(this) != null && quitOnRunComplete) || generation == numGenerations - 1;
+		}
+	}
+
+	/**
+	 * Return the number of individuals of the whole population
+	 */
+	private int populationSize() {
+		int size = 0;
+		for (int s = 0; s < population.subpops.length; s++)
+			size += population.subpops[s].individuals.length;
+		return size;
+	}
+
+	/**
+	 * Start the workers
+	 */
+	private void startWorkers() {
+		workers = new Thread[evalthreads];
+		for (int t = 0; t < evalthreads; t++) {
+			workers[t] = new Thread(new Worker(t), WORKER_NAME + t);
+			workers[t].start();
+		}
+	}
+
+	/**
+	 * Stop the workers. Their current evaluations are completed and inserted
+	 */
+	private void stopWorkers() {
+		// the run may finish before starting them
+		if (workers == null)
+			return;
+
+		synchronized (lock) {
+			stopped = true;
+		}
+
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		synchronized (lock) {
+			checkFailure();
+		}
+	}
+
+	/**
+	 * Abort the run if any worker has failed
+	 */
+	private void checkFailure() {
+		if (failure != null)
+			output.fatal("An asynchronous evaluation failed: " + failure);
+	}
+
+	/**
+	 * Insert a child into its subpopulation. Must be called holding the lock
+	 *
+	 * @param subpop The subpopulation
+	 * @param child  The evaluated child
+	 */
+	private void insert(int subpop, Individual child) {
+		Individual[] inds = population.subpops[subpop].individuals;
+		int n = inds.length;
+
+		if (child.fitness instanceof MultiObjectiveFitness) {
+			Individual[] all = new Individual[n + 1];
+			System.arraycopy(inds, 0, all, 0, n);
+			all[n] = child;
+
+			MultiObjectiveFitness typical = (MultiObjectiveFitness) child.fitness;
+			int nObjectives = typical.getNumObjectives();
+			double[] keys = NonDominatedSorting.objectiveMatrix(all);
+			int[] ranks = NonDominatedSorting.rank(keys, nObjectives);
+
+			// members of the worst front
+			int worst = NonDominatedSorting.numFronts(ranks) - 1;
+			int[] members = new int[n + 1];
+			int size = 0;
+			for (int i = 0; i <= n; i++)
+				if (ranks[i] == worst)
+					members[size++] = i;
+
+			double[] ranges = new double[nObjectives];
+			for (int o = 0; o < nObjectives; o++)
+				ranges[o] = typical.maxObjective[o] - typical.minObjective[o];
+			double[] crowding = NonDominatedSorting.crowdingDistances(members, size, keys, nObjectives, ranges);
+
+			// the most crowded individual of the worst front is removed
+			int victim = 0;
+			for (int j = 1; j < size; j++)
+				if (crowding[j] < crowding[victim])
+					victim = j;
+
+			if (members[victim] != n) {
+				int replaced = members[victim];
+				int victimRank = child.fitness instanceof NSGA2MultiObjectiveFitness
+						? ((NSGA2MultiObjectiveFitness) inds[replaced].fitness).rank
+						: -1;
+				inds[replaced] = child;
+				ranks[replaced] = ranks[n];
+				if (victimRank >= 0)
+					// not ranked yet, so its front is always updated
+					((NSGA2MultiObjectiveFitness) child.fitness).rank = -1;
+				updateNSGA2Fitnesses(inds, ranks, victimRank);
+			}
+		} else {
+			int worst = 0;
+			for (int i = 1; i < n; i++)
+				if (inds[worst].fitness.betterThan(inds[i].fitness))
+					worst = i;
+
+			if (!inds[worst].fitness.betterThan(child.fitness))
+				inds[worst] = child;
+		}
+	}
+
+	/**
+	 * Update the ranks and sparsities of a group of individuals with NSGA-II
+	 * fitnesses. Other fitnesses are left untouched
+	 *
+	 * @param inds The individuals
+	 */
+	@SuppressWarnings("rawtypes")
+	private void updateNSGA2Fitnesses(Individual[] inds) {
+		if (inds.length == 0 || !(inds[0].fitness instanceof NSGA2MultiObjectiveFitness))
+			return;
+
+		ArrayList ranks = FastNSGA2Evaluator.assignRanks(inds);
+		for (int r = 0; r < ranks.size(); r++) {
+			ArrayList front = (ArrayList) ranks.get(r);
+			FastNSGA2Evaluator.assignSparsities((Individual[]) front.toArray(new Individual[front.size()]));
+		}
+	}
+
+	/**
+	 * Update the ranks and sparsities of a subpopulation with NSGA-II fitnesses
+	 * after replacing an individual, reusing the ranks computed to choose the
+	 * victim. These ranks remain valid after removing the victim, since it
+	 * belongs to the worst front, thus only the sparsities of the fronts whose
+	 * members have changed are computed again
+	 *
+	 * @param inds       The individuals
+	 * @param ranks      The new rank of each individual
+	 * @param victimRank The former rank of the replaced individual (-1 if the
+	 *                   fitnesses are not NSGA-II fitnesses)
+	 */
+	private void updateNSGA2Fitnesses(Individual[] inds, int[] ranks, int victimRank) {
+		if (victimRank < 0)
+			return;
+
+		int n = inds.length;
+		int nFronts = 0;
+		for (int i = 0; i < n; i++)
+			nFronts = Math.max(nFronts, ranks[i] + 1);
+
+		boolean[] changed = new boolean[nFronts];
+		if (victimRank < nFronts)
+			changed[victimRank] = true;
+		int[] sizes = new int[nFronts];
+		for (int i = 0; i < n; i++) {
+			NSGA2MultiObjectiveFitness fitness = (NSGA2MultiObjectiveFitness) inds[i].fitness;
+			if (fitness.rank != ranks[i]) {
+				changed[ranks[i]] = true;
+				if (fitness.rank >= 0 && fitness.rank < nFronts)
+					changed[fitness.rank] = true;
+				fitness.rank = ranks[i];
+			}
+			sizes[ranks[i]]++;
+		}
+
+		for (int r = 0; r < nFronts; r++) {
+			if (!changed[r])
+				continue;
+			Individual[] front = new Individual[sizes[r]];
+			for (int i = 0, j = 0; i < n; i++)
+				if (ranks[i] == r)
+					front[j++] = inds[i];
+			FastNSGA2Evaluator.assignSparsities(front);
+		}
+	}
+
+	/**
+	 * Worker breeding, evaluating and inserting children one by one
+	 */
+	private class Worker implements Runnable {
+
+		/** Thread number */
+		private final int thread;
+
+		/**
+		 * Create a worker
+		 *
+		 * @param thread Thread number
+		 */
+		Worker(int thread) {
+			this.thread = thread;
+		}
+
+		/**
+		 * Main loop of the worker
+		 */
+		public void run() {
+			AsyncSteadyStateEvolutionState state = AsyncSteadyStateEvolutionState.this;
+
+			try {
+				Problem problem = (Problem) evaluator.p_problem.clone();
+				BreedingSource[] pipes = new BreedingSource[population.subpops.length];
+				for (int s = 0; s < pipes.length; s++)
+					pipes[s] = (BreedingSource) population.subpops[s].species.pipe_prototype.clone();
+				Individual[] child = new Individual[1];
+
+				problem.prepareToEvaluate(state, thread);
+				while (true) {
+					int subpop;
+					synchronized (lock) {
+						if (stopped || failure != null)
+							break;
+
+						subpop = nextSubpop;
+						nextSubpop = (nextSubpop + 1) % pipes.length;
+
+						pipes[subpop].prepareToProduce(state, subpop, thread);
+						pipes[subpop].produce(1, 1, 0, subpop, child, state, thread);
+						pipes[subpop].finishProducing(state, subpop, thread);
+					}
+
+					((SimpleProblemForm) problem).evaluate(state, child[0], subpop, thread);
+
+					synchronized (lock) {
+						insert(subpop, child[0]);
+						insertions++;
+						lock.notifyAll();
+					}
+				}
+				problem.finishEvaluating(state, thread);
+			} catch (Throwable e) {
+				synchronized (lock) {
+					if (failure == null)
+						failure = e;
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+}
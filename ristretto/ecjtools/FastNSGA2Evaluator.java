@@ -0,0 +1,128 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.ecjtools;
+
+import java.util.ArrayList;
+
+import ec.Individual;
+import ec.Subpopulation;
+import ec.multiobjective.nsga2.NSGA2Evaluator;
+import ec.multiobjective.nsga2.NSGA2MultiObjectiveFitness;
+
+/**
+ * NSGA-II evaluator that ranks the population with
+ * {@link ristretto.ecjtools.NonDominatedSorting} instead of ECJ's
+ * partitionIntoRanks, and computes the sparsities over the same primitive
+ * objective matrix. It can replace ECJ's NSGA2Evaluator in any NSGA-II run,
+ * along with ECJ's NSGA2Breeder:
+ *
+ * <p>
+ * <tt>eval = ristretto.ecjtools.FastNSGA2Evaluator</tt>
+ *
+ * <p>
+ * It accepts the same parameters as ECJ's NSGA2Evaluator.
+ *
+ * @author Jesús González
+ */
+public class FastNSGA2Evaluator extends NSGA2Evaluator {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Divide the subpopulation into ranks based on the Pareto Front. The
+	 * individuals are also assigned their rank.
+	 *
+	 * @param subpop The subpopulation
+	 * @return A list with the individuals of each rank
+	 */
+	@SuppressWarnings("rawtypes")
+	public ArrayList assignFrontRanks(Subpopulation subpop) {
+		return assignRanks(subpop.individuals);
+	}
+
+	/**
+	 * Divide a group of individuals into ranks based on the Pareto Front. The
+	 * individuals are also assigned their rank.
+	 *
+	 * @param inds The individuals
+	 * @return A list with the individuals of each rank
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static ArrayList assignRanks(Individual[] inds) {
+		ArrayList frontsByRank = new ArrayList();
+		if (inds.length == 0)
+			return frontsByRank;
+
+		int nObjectives = ((NSGA2MultiObjectiveFitness) inds[0].fitness).getNumObjectives();
+		int[] ranks = NonDominatedSorting.rank(NonDominatedSorting.objectiveMatrix(inds), nObjectives);
+
+		int nFronts = NonDominatedSorting.numFronts(ranks);
+		for (int r = 0; r < nFronts; r++)
+			frontsByRank.add(new ArrayList());
+
+		for (int i = 0; i < inds.length; i++) {
+			((NSGA2MultiObjectiveFitness) inds[i].fitness).rank = ranks[i];
+			((ArrayList) frontsByRank.get(ranks[i])).add(inds[i]);
+		}
+
+		return frontsByRank;
+	}
+
+	/**
+	 * Compute and assign the sparsity (crowding distance) of each individual of
+	 * a front
+	 *
+	 * @param front The individuals of the front
+	 */
+	public void assignSparsity(Individual[] front) {
+		assignSparsities(front);
+	}
+
+	/**
+	 * Compute and assign the sparsity (crowding distance) of each individual of
+	 * a front
+	 *
+	 * @param front The individuals of the front
+	 */
+	public static void assignSparsities(Individual[] front) {
+		int n = front.length;
+		if (n == 0)
+			return;
+
+		NSGA2MultiObjectiveFitness typical = (NSGA2MultiObjectiveFitness) front[0].fitness;
+		int nObjectives = typical.getNumObjectives();
+		double[] ranges = new double[nObjectives];
+		for (int o = 0; o < nObjectives; o++)
+			ranges[o] = typical.maxObjective[o] - typical.minObjective[o];
+
+		int[] members = new int[n];
+		for (int i = 0; i < n; i++)
+			members[i] = i;
+
+		double[] sparsity = NonDominatedSorting.crowdingDistances(members, n,
+				NonDominatedSorting.objectiveMatrix(front), nObjectives, ranges);
+		for (int i = 0; i < n; i++)
+			((NSGA2MultiObjectiveFitness) front[i].fitness).sparsity = sparsity[i];
+	}
+}
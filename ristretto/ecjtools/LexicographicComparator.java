@@ -0,0 +1,138 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.ecjtools;
+
+import ec.Individual;
+
+/**
+ * Precompiled lexicographic comparator for a whole group of individuals with
+ * {@link ristretto.ecjtools.LexicographicFitness} fitnesses.
+ *
+ * <p>
+ *
+ * The objectives of all the individuals are copied into a single primitive
+ * array, laid out individual after individual. The values are sign-normalized,
+ * that is, maximized objectives are negated, thus lower values are always
+ * better and the comparisons do not have to check the optimization direction
+ * of each objective. The maximization flags of all the fitnesses are checked
+ * only once, when the individuals are loaded.
+ *
+ * <p>
+ *
+ * The comparisons follow the same threshold-aware rule used in
+ * {@link ristretto.ecjtools.LexicographicFitness#betterThan(ec.Fitness)}.
+ * Since the threshold makes the relation non-transitive, they are intended for
+ * pairwise comparisons, such as the ones of a tournament, not for sorting.
+ *
+ * @author Jesús González
+ */
+public class LexicographicComparator {
+
+	/** Number of objectives */
+	private final int nObjectives;
+
+	/** Sign applied to each objective: -1 if maximized, 1 otherwise */
+	private final double[] signs;
+
+	/** Maximization flags of the fitnesses being compared */
+	private final boolean[] maximize;
+
+	/** Similarity threshold */
+	private final double threshold;
+
+	/** Sign-normalized objectives of the loaded individuals */
+	private double[] keys = new double[0];
+
+	/** Number of loaded individuals */
+	private int size;
+
+	/**
+	 * Create a comparator for the fitnesses compatible with the given prototype
+	 *
+	 * @param prototype The prototype fitness
+	 */
+	public LexicographicComparator(LexicographicFitness prototype) {
+		nObjectives = prototype.getNumObjectives();
+		maximize = prototype.maximize;
+		threshold = prototype.getThreshold();
+		signs = new double[nObjectives];
+		for (int x = 0; x < nObjectives; x++)
+			signs[x] = maximize[x] ? -1.0 : 1.0;
+	}
+
+	/**
+	 * Load the objectives of a group of individuals. The key array is reused
+	 * between calls, so no allocation is done if the group does not grow
+	 *
+	 * @param inds The individuals
+	 */
+	public void load(Individual[] inds) {
+		size = inds.length;
+		if (keys.length < size * nObjectives)
+			keys = new double[size * nObjectives];
+
+		for (int i = 0, k = 0; i < size; i++) {
+			LexicographicFitness fit = (LexicographicFitness) inds[i].fitness;
+			fit.checkCompatible(nObjectives, maximize);
+			double[] objectives = fit.getObjectives();
+			for (int x = 0; x < nObjectives; x++)
+				keys[k++] = objectives[x] * signs[x];
+		}
+	}
+
+	/** Return the number of loaded individuals */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return a negative value if the i-th loaded individual is better than the
+	 * j-th one, a positive value if it is worse, and 0 if they are equivalent
+	 *
+	 * @param i Index of an individual
+	 * @param j Index of another individual
+	 */
+	public int compare(int i, int j) {
+		int a = i * nObjectives;
+		int b = j * nObjectives;
+		for (int x = 0; x < nObjectives; x++, a++, b++) {
+			double diff = keys[b] - keys[a];
+			if (diff > threshold)
+				return -1;
+			else if (-diff > threshold)
+				return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Return true if the i-th loaded individual is better than the j-th one
+	 *
+	 * @param i Index of an individual
+	 * @param j Index of another individual
+	 */
+	public boolean betterThan(int i, int j) {
+		return compare(i, j) < 0;
+	}
+}
@@ -37,9 +37,12 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import ec.EvolutionState;
 import ec.Fitness;
+import ec.Individual;
 import ec.util.Code;
 import ec.util.DecodeReturn;
 import ec.util.Parameter;
@@ -179,6 +182,9 @@ public class LexicographicFitness extends Fitness {
 	/** Maximization. Shared. */
 	public boolean[] maximize;
 
+	/** Sign of each objective: -1 if maximized, 1 otherwise. Shared. */
+	private double[] signs;
+
 	/** The various objective values. */
 	protected double[] objectives; // values range from 0 (worst) to 1 INCLUSIVE
 
@@ -191,6 +197,23 @@ public class LexicographicFitness extends Fitness {
 	/** Similarity threshold to compare two objectives */
 	private double threshold;
 
+	/**
+	 * Objectives of the best trial recorded so far. The array is never modified
+	 * once recorded, thus it can be safely shared among threads.
+	 */
+	private volatile double[] bestTrial;
+
+	/** Number of trials recorded so far */
+	private volatile int nTrials;
+
+	/** Atomic updater for the best trial */
+	private static final AtomicReferenceFieldUpdater<LexicographicFitness, double[]> BEST_TRIAL_UPDATER = AtomicReferenceFieldUpdater
+			.newUpdater(LexicographicFitness.class, double[].class, "bestTrial");
+
+	/** Atomic updater for the number of trials */
+	private static final AtomicIntegerFieldUpdater<LexicographicFitness> N_TRIALS_UPDATER = AtomicIntegerFieldUpdater
+			.newUpdater(LexicographicFitness.class, "nTrials");
+
 	/**
 	 * Return true if the given objective is being maximized.
 	 * 
@@ -308,6 +331,7 @@ public class LexicographicFitness extends Fitness {
 		maxObjective = new double[numFitnesses];
 		minObjective = new double[numFitnesses];
 		maximize = new boolean[numFitnesses];
+		signs = new double[numFitnesses];
 
 		for (int i = 0; i < numFitnesses; i++) {
 			// load default globals
@@ -325,6 +349,8 @@ public class LexicographicFitness extends Fitness {
 			maximize[i] = state.parameters.getBoolean(base.push(P_MAXIMIZE).push("" + i),
 					def.push(P_MAXIMIZE).push("" + i), maximize[i]);
 
+			signs[i] = maximize[i] ? -1.0 : 1.0;
+
 			// test for validity
 			if (minObjective[i] >= maxObjective[i])
 				state.output
@@ -348,20 +374,11 @@ public class LexicographicFitness extends Fitness {
 	 */
 	public boolean equivalentTo(Fitness other) {
 		LexicographicFitness theOther = (LexicographicFitness) other;
+		checkCompatible(theOther.objectives.length, theOther.maximize);
 
-		if (objectives.length != theOther.objectives.length)
-			throw new RuntimeException(
-					"Attempt made to compare two prioritized compund fitnesses; but they have different numbers of objectives.");
-
-		for (int x = 0; x < objectives.length; x++) {
-			if (maximize[x] != theOther.maximize[x]) // uh oh
-				throw new RuntimeException(
-						"Attempt made to compare two prioritized compund fitnesses; but for objective #" + x
-								+ ", one expects higher values to be better and the other expectes lower values to be better.");
-
+		for (int x = 0; x < objectives.length; x++)
 			if (objectives[x] - theOther.objectives[x] > this.threshold)
 				return false;
-		}
 
 		return true;
 	}
@@ -374,31 +391,42 @@ public class LexicographicFitness extends Fitness {
 	 */
 	public boolean betterThan(Fitness other) {
 		LexicographicFitness theOther = (LexicographicFitness) other;
+		checkCompatible(theOther.objectives.length, theOther.maximize);
+
+		for (int x = 0; x < objectives.length; x++) {
+			// sign-normalized difference, positive if I'm better
+			double diff = (theOther.objectives[x] - objectives[x]) * signs[x];
+			if (diff > this.threshold)
+				return true;
+			else if (-diff > this.threshold)
+				return false;
+		}
+
+		return false;
+	}
 
-		if (objectives.length != theOther.objectives.length)
+	/**
+	 * Check that another fitness with the given number of objectives and
+	 * maximization flags can be compared with this one. Since the maximization
+	 * flags are shared by all the clones of the prototype, the flags are only
+	 * checked one by one if they are stored in different arrays.
+	 * 
+	 * @param numObjectives Number of objectives of the other fitness
+	 * @param otherMaximize Maximization flags of the other fitness
+	 */
+	void checkCompatible(int numObjectives, boolean[] otherMaximize) {
+		if (objectives.length != numObjectives)
 			throw new RuntimeException(
 					"Attempt made to compare two prioritized compund fitnesses; but they have different numbers of objectives.");
 
-		for (int x = 0; x < objectives.length; x++) {
-			if (maximize[x] != theOther.maximize[x]) // uh oh
+		if (maximize == otherMaximize)
+			return;
+
+		for (int x = 0; x < objectives.length; x++)
+			if (maximize[x] != otherMaximize[x]) // uh oh
 				throw new RuntimeException(
 						"Attempt made to compare two prioritized compund fitnesses; but for objective #" + x
 								+ ", one expects higher values to be better and the other expectes lower values to be better.");
-
-			if (maximize[x]) {
-				if (objectives[x] - theOther.objectives[x] > this.threshold)
-					return true;
-				else if (theOther.objectives[x] - objectives[x] > this.threshold)
-					return false;
-			} else {
-				if (theOther.objectives[x] - objectives[x] > this.threshold)
-					return true;
-				else if (objectives[x] - theOther.objectives[x] > this.threshold)
-					return false;
-			}
-		}
-
-		return false;
 	}
 
 	/**
@@ -428,12 +456,14 @@ public class LexicographicFitness extends Fitness {
 	}
 
 	/**
-	 * Read a fitness from a numbered reader
+	 * Read a fitness from a numbered reader. Only the objectives are read, thus the
+	 * recorded trials are forgotten
 	 * @param state The evolution state
 	 * @param reader The reader
 	 * @throws IOException If the fitness can not be read
 	 */
 	public void readFitness(final EvolutionState state, final LineNumberReader reader) throws IOException {
+		resetTrials();
 		DecodeReturn d = Code.checkPreamble(FITNESS_PREAMBLE + LEXICOGRAPHIC_PREAMBLE, state, reader);
 		for (int x = 0; x < objectives.length; x++) {
 			Code.decode(d);
@@ -455,6 +485,14 @@ public class LexicographicFitness extends Fitness {
 		for (int x = 0; x < objectives.length; x++)
 			dataOutput.writeDouble(objectives[x]);
 		writeTrials(state, dataOutput);
+
+		// the best trial recorded so far
+		double[] best = bestTrial;
+		dataOutput.writeBoolean(best != null);
+		if (best != null)
+			for (int x = 0; x < best.length; x++)
+				dataOutput.writeDouble(best[x]);
+		dataOutput.writeInt(nTrials);
 	}
 
 	/**
@@ -470,6 +508,67 @@ public class LexicographicFitness extends Fitness {
 		for (int x = 0; x < objectives.length; x++)
 			objectives[x] = dataInput.readDouble();
 		readTrials(state, dataInput);
+
+		// the best trial recorded so far
+		double[] best = null;
+		if (dataInput.readBoolean()) {
+			best = new double[len];
+			for (int x = 0; x < len; x++)
+				best[x] = dataInput.readDouble();
+		}
+		bestTrial = best;
+		nTrials = dataInput.readInt();
+	}
+
+	/**
+	 * Set this fitness to the best of the given fitnesses, including its recorded
+	 * trials and its context
+	 * @param state     The evolution state
+	 * @param fitnesses The fitnesses
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void setToBestOf(final EvolutionState state, Fitness[] fitnesses) {
+		LexicographicFitness best = (LexicographicFitness) fitnesses[0];
+		for (int i = 1; i < fitnesses.length; i++)
+			if (fitnesses[i].betterThan(best))
+				best = (LexicographicFitness) fitnesses[i];
+
+		System.arraycopy(best.objectives, 0, objectives, 0, objectives.length);
+		bestTrial = best.bestTrial;
+		nTrials = best.nTrials;
+		trials = best.trials == null ? null : new ArrayList(best.trials);
+		context = best.getContext();
+	}
+
+	/**
+	 * Merge the trials of another fitness into this one. The best trials of both
+	 * fitnesses are compared, and the context of the best one is kept
+	 * @param state The evolution state
+	 * @param other The other fitness
+	 */
+	public void merge(final EvolutionState state, Fitness other) {
+		super.merge(state, other);
+		if (!(other instanceof LexicographicFitness))
+			return;
+
+		LexicographicFitness theOther = (LexicographicFitness) other;
+		N_TRIALS_UPDATER.addAndGet(this, theOther.nTrials);
+
+		double[] otherBest = theOther.bestTrial;
+		if (otherBest == null)
+			return;
+
+		double[] best;
+		do {
+			best = bestTrial;
+			if (best != null && !trialBetterThan(otherBest, best))
+				return;
+		} while (!BEST_TRIAL_UPDATER.compareAndSet(this, best, otherBest));
+
+		synchronized (this) {
+			if (bestTrial == otherBest)
+				context = theOther.getContext();
+		}
 	}
 
 	/**
@@ -480,17 +579,162 @@ public class LexicographicFitness extends Fitness {
 		threshold = th;
 	}
 
+	/**
+	 * Return the threshold used when comparing a couple of objective values
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Forget all the trials recorded so far
+	 */
+	public void resetTrials() {
+		bestTrial = null;
+		nTrials = 0;
+	}
+
+	/**
+	 * Record a new trial. Only the best trial is kept, so no fitness is allocated
+	 * per trial. This method can be called concurrently from several evaluation
+	 * threads, since the best trial is updated with a compare-and-set loop.
+	 * 
+	 * <p>
+	 * 
+	 * Invalid objective values are replaced by the worst value for that objective,
+	 * as in
+	 * {@link ristretto.ecjtools.LexicographicFitness#setObjectives(EvolutionState, double[])}.
+	 * The array passed is kept by the fitness, so it should not be modified after
+	 * this call.
+	 * 
+	 * @param state The evolution state
+	 * @param trial Objective values obtained in the trial
+	 * @return true if the trial has become the best trial
+	 */
+	public boolean recordTrial(final EvolutionState state, double[] trial) {
+		return recordTrial(state, trial, null, 0);
+	}
+
+	/**
+	 * Record a new trial and, if it becomes the best trial, set the context that
+	 * produced it. See
+	 * {@link ristretto.ecjtools.LexicographicFitness#recordTrial(EvolutionState, double[])}.
+	 * 
+	 * @param state   The evolution state
+	 * @param trial   Objective values obtained in the trial
+	 * @param context The individuals evaluated together in the trial (null if the
+	 *                context should not be set)
+	 * @param index   Index of the individual owning this fitness in context
+	 * @return true if the trial has become the best trial
+	 */
+	public boolean recordTrial(final EvolutionState state, double[] trial, Individual[] context, int index) {
+		if (trial == null || trial.length != objectives.length)
+			state.output.fatal("Trial objective array length does not match current length.");
+
+		trial = validTrial(state, trial);
+		N_TRIALS_UPDATER.incrementAndGet(this);
+
+		double[] best;
+		do {
+			best = bestTrial;
+			if (best != null && !trialBetterThan(trial, best))
+				return false;
+		} while (!BEST_TRIAL_UPDATER.compareAndSet(this, best, trial));
+
+		if (context != null) {
+			synchronized (this) {
+				// another thread could have recorded a better trial meanwhile
+				if (bestTrial == trial)
+					setContext(context, index);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Return the objectives of the best trial recorded so far, or null if no trial
+	 * has been recorded. Note that this is the *actual array*, so it should not be
+	 * modified.
+	 */
+	public double[] getBestTrial() {
+		return bestTrial;
+	}
+
+	/** Return the number of trials recorded so far */
+	public int getNumTrials() {
+		return nTrials;
+	}
+
+	/**
+	 * Return the trial with its invalid values replaced by the worst value for
+	 * their objective. The original array is returned if all its values are valid
+	 * 
+	 * @param state The evolution state
+	 * @param trial Objective values obtained in the trial
+	 */
+	private double[] validTrial(final EvolutionState state, double[] trial) {
+		double[] valid = trial;
+		for (int i = 0; i < trial.length; i++) {
+			double _f = trial[i];
+			if (_f >= Double.POSITIVE_INFINITY || _f <= Double.NEGATIVE_INFINITY || Double.isNaN(_f)) {
+				state.output
+						.warning("Bad objective #" + i + ": " + _f + ", setting to worst value for that objective.");
+				if (valid == trial)
+					valid = trial.clone();
+				valid[i] = maximize[i] ? minObjective[i] : maxObjective[i];
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Compare lexicographically a couple of trials with the same rule used in
+	 * {@link ristretto.ecjtools.LexicographicFitness#betterThan(Fitness)}
+	 * 
+	 * @param trial The trial
+	 * @param other The other trial
+	 * @return true if trial is better than other
+	 */
+	private boolean trialBetterThan(double[] trial, double[] other) {
+		for (int x = 0; x < trial.length; x++) {
+			double diff = (other[x] - trial[x]) * signs[x];
+			if (diff > this.threshold)
+				return true;
+			else if (-diff > this.threshold)
+				return false;
+		}
+
+		return false;
+	}
+
 	/**
 	 * Given another Fitness, returns true if the trial which produced my current
 	 * context is "better" in fitness than the trial which produced his current
 	 * context, and thus should be retained in lieu of his. This method by default
 	 * assumes that trials are Doubles, and that higher Doubles are better. If you
 	 * are using distributed evaluation and coevolution and your trials are
-	 * otherwise, you need to override this method.
+	 * otherwise, you need to override this method. If the trials have been
+	 * recorded with
+	 * {@link ristretto.ecjtools.LexicographicFitness#recordTrial(EvolutionState, double[])},
+	 * their best trials are compared instead.
 	 * @param other The other fitness
 	 */
 	@SuppressWarnings("unchecked")
 	public boolean contextIsBetterThan(Fitness other) {
+		if (other instanceof LexicographicFitness) {
+			double[] otherBest = ((LexicographicFitness) other).bestTrial;
+			double[] best = bestTrial;
+			if (best != null || otherBest != null) {
+				if (otherBest == null)
+					return true; // I win
+				else if (best == null)
+					return false; // he wins
+
+				return trialBetterThan(best, otherBest);
+			}
+		}
+
 		if (other.trials == null || other.trials.size() == 0)
 			return true; // I win
 		else if (trials == null || trials.size() == 0)
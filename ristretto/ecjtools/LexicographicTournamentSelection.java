@@ -0,0 +1,105 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.ecjtools;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.select.TournamentSelection;
+
+/**
+ * Tournament selection for individuals with
+ * {@link ristretto.ecjtools.LexicographicFitness} fitnesses. The objectives of
+ * the subpopulation are loaded into a
+ * {@link ristretto.ecjtools.LexicographicComparator} once per generation, before
+ * producing, so the tournaments compare sign-normalized primitive values
+ * instead of calling
+ * {@link ristretto.ecjtools.LexicographicFitness#betterThan(ec.Fitness)}.
+ *
+ * <p>
+ *
+ * It accepts the same parameters as ECJ's TournamentSelection.
+ *
+ * @author Jesús González
+ */
+public class LexicographicTournamentSelection extends TournamentSelection {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Comparator loaded with the current subpopulation */
+	private LexicographicComparator comparator;
+
+	/**
+	 * Load the objectives of the subpopulation before producing
+	 *
+	 * @param state         The evolution state
+	 * @param subpopulation The subpopulation
+	 * @param thread        The thread
+	 */
+	public void prepareToProduce(final EvolutionState state, final int subpopulation, final int thread) {
+		super.prepareToProduce(state, subpopulation, thread);
+
+		Individual[] inds = state.population.subpops[subpopulation].individuals;
+		if (comparator == null)
+			comparator = new LexicographicComparator((LexicographicFitness) inds[0].fitness);
+		comparator.load(inds);
+	}
+
+	/**
+	 * Produce the index of the individual winning a tournament
+	 *
+	 * @param subpopulation The subpopulation
+	 * @param state         The evolution state
+	 * @param thread        The thread
+	 */
+	public int produce(final int subpopulation, final EvolutionState state, final int thread) {
+		int best = getRandomIndividual(0, subpopulation, state, thread);
+
+		int s = getTournamentSizeToUse(state.random[thread]);
+
+		if (pickWorst) {
+			for (int x = 1; x < s; x++) {
+				int j = getRandomIndividual(x, subpopulation, state, thread);
+				if (!comparator.betterThan(j, best)) // j is at least as bad as best
+					best = j;
+			}
+		} else {
+			for (int x = 1; x < s; x++) {
+				int j = getRandomIndividual(x, subpopulation, state, thread);
+				if (comparator.betterThan(j, best)) // j is better than best
+					best = j;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Clone the selection method. The clone loads its own comparator
+	 */
+	public Object clone() {
+		LexicographicTournamentSelection s = (LexicographicTournamentSelection) super.clone();
+		s.comparator = null;
+		return s;
+	}
+}
@@ -34,7 +34,6 @@ package ristretto.ecjtools;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 
 import ec.EvolutionState;
 import ec.Individual;
@@ -42,8 +41,6 @@ import ec.multiobjective.MultiObjectiveFitness;
 import ec.simple.SimpleStatistics;
 import ec.util.Output;
 import ec.util.Parameter;
-import ec.util.QuickSort;
-import ec.util.SortComparator;
 
 /**
  * MultiObjective Statistics. It has been adapted from the original ECJ's
@@ -138,47 +135,45 @@ public class MultiObjectiveStatistics extends SimpleStatistics {
 	 *               individual was not found, or state.R_SUCCESS, indicating that
 	 *               an ideal individual was found.
 	 */
-	@SuppressWarnings("rawtypes")
 	public void finalStatistics(final EvolutionState state, final int result) {
 		bypassFinalStatistics(state, result); // just call super.super.finalStatistics(...)
 
 		if (doFinal)
 			state.output.println("\n\n\n PARETO FRONTS", statisticslog);
 		for (int s = 0; s < state.population.subpops.length; s++) {
-			MultiObjectiveFitness typicalFitness = (MultiObjectiveFitness) (state.population.subpops[s].individuals[0].fitness);
+			Individual[] inds = state.population.subpops[s].individuals;
+			MultiObjectiveFitness typicalFitness = (MultiObjectiveFitness) (inds[0].fitness);
 			if (doFinal)
 				state.output.println("\n\nPareto Front of Subpopulation " + s, statisticslog);
 
 			// build front
-			@SuppressWarnings("static-access")
-			ArrayList front = typicalFitness.partitionIntoParetoFront(state.population.subpops[s].individuals, null,
-					null);
+			int nObjectives = typicalFitness.getNumObjectives();
+			double[] keys = NonDominatedSorting.objectiveMatrix(inds);
+			int[] ranks = NonDominatedSorting.rank(keys, nObjectives);
+			int[] front = new int[inds.length];
+			int frontSize = 0;
+			for (int i = 0; i < inds.length; i++)
+				if (ranks[i] == 0)
+					front[frontSize++] = i;
 
 			// sort by objective[0]
-			Object[] sortedFront = front.toArray();
-			QuickSort.qsort(sortedFront, new SortComparator() {
-				public boolean lt(Object a, Object b) {
-					return (((MultiObjectiveFitness) (((Individual) a).fitness))
-							.getObjective(0) < (((MultiObjectiveFitness) ((Individual) b).fitness)).getObjective(0));
-				}
-
-				public boolean gt(Object a, Object b) {
-					return (((MultiObjectiveFitness) (((Individual) a).fitness))
-							.getObjective(0) > ((MultiObjectiveFitness) (((Individual) b).fitness)).getObjective(0));
-				}
-			});
+			NonDominatedSorting.sort(front, 0, frontSize, keys, nObjectives, 0);
+			Individual[] sortedFront = new Individual[frontSize];
+			for (int i = 0; i < frontSize; i++)
+				// keys are sign-normalized, so a maximized objective is sorted backwards
+				sortedFront[i] = inds[front[typicalFitness.isMaximizing(0) ? frontSize - 1 - i : i]];
 
 			// print out front to statistics log
 			if (doFinal)
 				for (int i = 0; i < sortedFront.length; i++)
-					((Individual) (sortedFront[i])).printIndividualForHumans(state, statisticslog);
+					sortedFront[i].printIndividualForHumans(state, statisticslog);
 
 			// write short version of front out to disk
 			if (!silentFront) {
 				if (state.population.subpops.length > 1)
 					state.output.println("Subpopulation " + s, frontLog);
 				for (int i = 0; i < sortedFront.length; i++) {
-					Individual ind = (Individual) (sortedFront[i]);
+					Individual ind = sortedFront[i];
 					MultiObjectiveFitness mof = (MultiObjectiveFitness) (ind.fitness);
 					double[] objectives = mof.getObjectives();
 
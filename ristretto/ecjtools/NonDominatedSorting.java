@@ -0,0 +1,309 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.ecjtools;
+
+import ec.Individual;
+import ec.multiobjective.MultiObjectiveFitness;
+
+/**
+ * Non-dominated sorting of individuals with multi-objective fitnesses over a
+ * primitive objective matrix.
+ *
+ * <p>
+ *
+ * The objectives of the individuals are copied into a single array, laid out
+ * individual after individual, and sign-normalized, that is, maximized
+ * objectives are negated, thus lower values are always better.
+ *
+ * <p>
+ *
+ * The individuals are sorted lexicographically by their objectives and then
+ * inserted one by one in the first front that does not dominate them, found by
+ * binary search over the fronts (Efficient Non-dominated Sort with Binary
+ * Search, ENS-BS). For two objectives, only the last individual inserted in a
+ * front has to be checked, thus the whole sorting takes O(N log N). For more
+ * objectives, the individuals of the front are checked in reverse order of
+ * insertion.
+ *
+ * @author Jesús González
+ */
+public class NonDominatedSorting {
+
+	/**
+	 * Build the sign-normalized objective matrix of a group of individuals
+	 *
+	 * @param inds The individuals
+	 * @return An array with the objectives of each individual, one individual
+	 *         after another
+	 */
+	public static double[] objectiveMatrix(Individual[] inds) {
+		if (inds.length == 0)
+			return new double[0];
+
+		MultiObjectiveFitness typical = (MultiObjectiveFitness) inds[0].fitness;
+		int nObjectives = typical.getNumObjectives();
+		double[] signs = new double[nObjectives];
+		for (int x = 0; x < nObjectives; x++)
+			signs[x] = typical.isMaximizing(x) ? -1.0 : 1.0;
+
+		double[] keys = new double[inds.length * nObjectives];
+		for (int i = 0, k = 0; i < inds.length; i++) {
+			double[] objectives = ((MultiObjectiveFitness) inds[i].fitness).getObjectives();
+			for (int x = 0; x < nObjectives; x++)
+				keys[k++] = objectives[x] * signs[x];
+		}
+		return keys;
+	}
+
+	/**
+	 * Assign a Pareto rank to each individual. Rank 0 corresponds to the
+	 * non-dominated individuals
+	 *
+	 * @param keys        The sign-normalized objective matrix
+	 * @param nObjectives Number of objectives
+	 * @return The rank of each individual
+	 */
+	public static int[] rank(double[] keys, int nObjectives) {
+		int n = keys.length / nObjectives;
+		int[] ranks = new int[n];
+		if (n == 0)
+			return ranks;
+
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		sort(order, 0, n, keys, nObjectives, 0);
+
+		// Members of each front, in insertion order
+		int[][] fronts = new int[n][];
+		int[] frontSizes = new int[n];
+		int nFronts = 0;
+
+		for (int i = 0; i < n; i++) {
+			int p = order[i];
+
+			// binary search of the first front not dominating p
+			int lo = 0, hi = nFronts;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (frontDominates(fronts[mid], frontSizes[mid], p, keys, nObjectives))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+
+			if (lo == nFronts) {
+				fronts[nFronts] = new int[4];
+				nFronts++;
+			} else if (frontSizes[lo] == fronts[lo].length) {
+				int[] grown = new int[fronts[lo].length * 2];
+				System.arraycopy(fronts[lo], 0, grown, 0, frontSizes[lo]);
+				fronts[lo] = grown;
+			}
+			fronts[lo][frontSizes[lo]++] = p;
+			ranks[p] = lo;
+		}
+
+		return ranks;
+	}
+
+	/**
+	 * Return the number of fronts given the rank of each individual
+	 *
+	 * @param ranks The ranks
+	 */
+	public static int numFronts(int[] ranks) {
+		int max = -1;
+		for (int r : ranks)
+			if (r > max)
+				max = r;
+		return max + 1;
+	}
+
+	/**
+	 * Compute the crowding distance (NSGA-II sparsity) of the members of a front.
+	 * The individuals at the boundaries of any objective get an infinite distance
+	 *
+	 * @param members     Indices of the members of the front
+	 * @param size        Number of members of the front
+	 * @param keys        The sign-normalized objective matrix
+	 * @param nObjectives Number of objectives
+	 * @param ranges      Range (max - min) of each objective, used to normalize
+	 *                    the distances
+	 * @return The crowding distance of each member, in the same order as members
+	 */
+	public static double[] crowdingDistances(int[] members, int size, double[] keys, int nObjectives,
+			double[] ranges) {
+		double[] distances = new double[size];
+		if (size == 0)
+			return distances;
+
+		// objectives of the front and positions within it, sorted by each objective
+		int[] order = new int[size];
+		int[] buffer = new int[size];
+		double[] front = new double[size * nObjectives];
+		for (int i = 0; i < size; i++)
+			System.arraycopy(keys, members[i] * nObjectives, front, i * nObjectives, nObjectives);
+
+		for (int o = 0; o < nObjectives; o++) {
+			for (int i = 0; i < size; i++)
+				order[i] = i;
+			mergeSort(order, buffer, 0, size, front, nObjectives, o);
+
+			// boundaries are always kept
+			distances[order[0]] = Double.POSITIVE_INFINITY;
+			distances[order[size - 1]] = Double.POSITIVE_INFINITY;
+
+			for (int j = 1; j < size - 1; j++)
+				distances[order[j]] += (front[order[j + 1] * nObjectives + o] - front[order[j - 1] * nObjectives + o])
+						/ ranges[o];
+		}
+
+		return distances;
+	}
+
+	/**
+	 * Sort a range of indices by the values of a given objective. Ties are broken
+	 * lexicographically
+	 *
+	 * @param order       The indices
+	 * @param from        First index of the range
+	 * @param to          Last index of the range (exclusive)
+	 * @param keys        The sign-normalized objective matrix
+	 * @param nObjectives Number of objectives
+	 * @param objective   The objective
+	 */
+	public static void sort(int[] order, int from, int to, double[] keys, int nObjectives, int objective) {
+		int[] buffer = new int[order.length];
+		mergeSort(order, buffer, from, to, keys, nObjectives, objective);
+	}
+
+	/**
+	 * Return true if any individual in a front dominates p
+	 *
+	 * @param front       The members of the front
+	 * @param size        Number of members of the front
+	 * @param p           The individual
+	 * @param keys        The sign-normalized objective matrix
+	 * @param nObjectives Number of objectives
+	 */
+	private static boolean frontDominates(int[] front, int size, int p, double[] keys, int nObjectives) {
+		if (nObjectives == 2) {
+			// The last member has the lowest second objective of the front
+			int q = front[size - 1];
+			return dominates(q, p, keys, nObjectives);
+		}
+
+		for (int i = size - 1; i >= 0; i--)
+			if (dominates(front[i], p, keys, nObjectives))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Return true if q Pareto-dominates p, i.e. q is not worse than p in any
+	 * objective and it is better in at least one
+	 *
+	 * @param q           An individual
+	 * @param p           Another individual
+	 * @param keys        The sign-normalized objective matrix
+	 * @param nObjectives Number of objectives
+	 */
+	private static boolean dominates(int q, int p, double[] keys, int nObjectives) {
+		int a = q * nObjectives;
+		int b = p * nObjectives;
+		boolean better = false;
+		for (int x = 0; x < nObjectives; x++, a++, b++) {
+			if (keys[a] > keys[b])
+				return false;
+			if (keys[a] < keys[b])
+				better = true;
+		}
+		return better;
+	}
+
+	/**
+	 * Compare two individuals by an objective, breaking ties lexicographically
+	 *
+	 * @param i           An individual
+	 * @param j           Another individual
+	 * @param keys        The sign-normalized objective matrix
+	 * @param nObjectives Number of objectives
+	 * @param objective   The main objective
+	 */
+	private static int compare(int i, int j, double[] keys, int nObjectives, int objective) {
+		int a = i * nObjectives;
+		int b = j * nObjectives;
+		int c = Double.compare(keys[a + objective], keys[b + objective]);
+		for (int x = 0; c == 0 && x < nObjectives; x++)
+			c = Double.compare(keys[a + x], keys[b + x]);
+		return c;
+	}
+
+	/**
+	 * Stable merge sort of a range of indices
+	 *
+	 * @param order       The indices
+	 * @param buffer      Scratch buffer
+	 * @param from        First index of the range
+	 * @param to          Last index of the range (exclusive)
+	 * @param keys        The sign-normalized objective matrix
+	 * @param nObjectives Number of objectives
+	 * @param objective   The main objective
+	 */
+	private static void mergeSort(int[] order, int[] buffer, int from, int to, double[] keys, int nObjectives,
+			int objective) {
+		if (to - from < 8) {
+			// insertion sort for small ranges
+			for (int i = from + 1; i < to; i++) {
+				int current = order[i];
+				int j = i - 1;
+				while (j >= from && compare(current, order[j], keys, nObjectives, objective) < 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = current;
+			}
+			return;
+		}
+
+		int mid = (from + to) >>> 1;
+		mergeSort(order, buffer, from, mid, keys, nObjectives, objective);
+		mergeSort(order, buffer, mid, to, keys, nObjectives, objective);
+
+		// already in order
+		if (compare(order[mid], order[mid - 1], keys, nObjectives, objective) >= 0)
+			return;
+
+		System.arraycopy(order, from, buffer, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to)
+			order[k++] = compare(buffer[j], buffer[i], keys, nObjectives, objective) < 0 ? buffer[j++]
+					: buffer[i++];
+		while (i < mid)
+			order[k++] = buffer[i++];
+		while (j < to)
+			order[k++] = buffer[j++];
+	}
+}
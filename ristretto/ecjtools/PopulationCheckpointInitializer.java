@@ -0,0 +1,100 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.ecjtools;
+
+import java.io.File;
+import java.io.IOException;
+
+import ec.EvolutionState;
+import ec.Population;
+import ec.simple.SimpleInitializer;
+import ec.util.Parameter;
+
+/**
+ * Initializer that resumes a run from a population checkpoint written by
+ * {@link ristretto.ecjtools.PopulationCheckpointStatistics}. The population is
+ * set up from the parameters, as usual, and then its individuals and the
+ * current generation are replaced by those stored in the checkpoint. The
+ * evaluated individuals keep their fitness, thus they are not evaluated again.
+ * If no checkpoint is given, it behaves as ECJ's SimpleInitializer:
+ *
+ * <p>
+ * <tt>init = ristretto.ecjtools.PopulationCheckpointInitializer<br>
+ * init.checkpoint = population.ckpt</tt>
+ *
+ * <p>
+ * <b>Parameters</b><br>
+ * <table>
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>checkpoint</tt><br>
+ * <font size=-1>String (a filename)</font></td>
+ * <td valign=top>(The checkpoint file, if any)</td>
+ * </tr>
+ * </table>
+ *
+ * @author Jesús González
+ */
+public class PopulationCheckpointInitializer extends SimpleInitializer {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Parameter for the checkpoint file */
+	public static final String P_CHECKPOINT = "checkpoint";
+
+	/** The checkpoint file */
+	public File checkpoint;
+
+	/**
+	 * Set up the initializer by reading it from the parameters stored in state,
+	 * built off of the parameter base base.
+	 * 
+	 * @param state The evolution state
+	 * @param base  The parameter base
+	 */
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+		checkpoint = state.parameters.getFile(base.push(P_CHECKPOINT), null);
+	}
+
+	/**
+	 * Create the initial population, either randomly or from the checkpoint
+	 * 
+	 * @param state  The evolution state
+	 * @param thread The thread number
+	 * @return The initial population
+	 */
+	public Population initialPopulation(final EvolutionState state, int thread) {
+		if (checkpoint == null)
+			return super.initialPopulation(state, thread);
+
+		state.population = setupPopulation(state, thread);
+		try {
+			state.generation = PopulationCheckpointStatistics.read(state, checkpoint);
+		} catch (IOException e) {
+			state.output.fatal("The population checkpoint " + checkpoint + " could not be read: " + e);
+		}
+		state.output.message("Resuming from generation " + state.generation);
+		return state.population;
+	}
+}
@@ -0,0 +1,318 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.ecjtools;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import ec.EvolutionState;
+import ec.Fitness;
+import ec.Individual;
+import ec.Species;
+import ec.Statistics;
+import ec.util.Parameter;
+
+/**
+ * Statistics that checkpoint the population in a compact binary format,
+ * instead of ECJ's Java serialization of the whole evolution state.
+ *
+ * <p>
+ *
+ * Only the generation and the individuals are written. Each individual is
+ * written with its own writeIndividual method, that is, its evaluated flag, its
+ * fitness and its genome. For
+ * {@link ristretto.problem.fs.subset.FSSubsetIndividual}s, the genome is packed
+ * as variable-length gaps between consecutive features.
+ *
+ * <p>
+ *
+ * The population is encoded into memory at the end of each
+ * <i>base</i>.<tt>modulo</tt> generations, once it is consistent, and the
+ * resulting bytes are written to the checkpoint file by a background thread,
+ * thus evolution does not wait for the disk. The file is first written to a
+ * temporary file and then renamed, so an interrupted write never destroys the
+ * previous checkpoint. For generational states the snapshot is taken after
+ * breeding, as ECJ does, and for
+ * {@link ristretto.ecjtools.AsyncSteadyStateEvolutionState} it is taken after
+ * the evaluation statistics of each generation. In both cases the snapshot
+ * holds the population at the beginning of the next generation.
+ *
+ * <p>
+ *
+ * The run can be resumed from the checkpoint with
+ * {@link ristretto.ecjtools.PopulationCheckpointInitializer}. The random number
+ * generators are not saved, thus a resumed run does not replicate the original
+ * one. These statistics are usually added as a child of the main statistics:
+ *
+ * <p>
+ * <tt>stat.num-children = 1<br>
+ * stat.child.0 = ristretto.ecjtools.PopulationCheckpointStatistics<br>
+ * stat.child.0.file = $population.ckpt</tt>
+ *
+ * <p>
+ * <b>Parameters</b><br>
+ * <table>
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>file</tt><br>
+ * <font size=-1>String (a filename)</font></td>
+ * <td valign=top>(The checkpoint file)</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>modulo</tt><br>
+ * <font size=-1>int &gt;= 1 (default 1)</font></td>
+ * <td valign=top>(Number of generations between checkpoints)</td>
+ * </tr>
+ * </table>
+ *
+ * @author Jesús González
+ */
+public class PopulationCheckpointStatistics extends Statistics {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Parameter for the checkpoint file */
+	public static final String P_FILE = "file";
+
+	/** Parameter for the number of generations between checkpoints */
+	public static final String P_MODULO = "modulo";
+
+	/** Magic number at the beginning of the checkpoint files */
+	public static final int MAGIC = 0x52434b50; // "RCKP"
+
+	/** Version of the checkpoint format */
+	public static final int VERSION = 1;
+
+	/** The checkpoint file */
+	public File file;
+
+	/** Number of generations between checkpoints */
+	public int modulo;
+
+	/** Thread writing the last checkpoint */
+	private transient Thread writer;
+
+	/** Error raised while writing the last checkpoint */
+	private transient volatile IOException writeError;
+
+	/**
+	 * Set up the statistics by reading it from the parameters stored in state,
+	 * built off of the parameter base base.
+	 * 
+	 * @param state The evolution state
+	 * @param base  The parameter base
+	 */
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+
+		file = state.parameters.getFile(base.push(P_FILE), null);
+		if (file == null)
+			state.output.fatal("No population checkpoint file specified.", base.push(P_FILE));
+
+		modulo = state.parameters.getIntWithDefault(base.push(P_MODULO), null, 1);
+		if (modulo < 1)
+			state.output.fatal("The number of generations between checkpoints must be >= 1.", base.push(P_MODULO));
+	}
+
+	/**
+	 * Checkpoint the population of the asynchronous states
+	 * 
+	 * @param state The evolution state
+	 */
+	public void postEvaluationStatistics(final EvolutionState state) {
+		super.postEvaluationStatistics(state);
+		if (state instanceof AsyncSteadyStateEvolutionState)
+			checkpoint(state);
+	}
+
+	/**
+	 * Checkpoint the population of the generational states
+	 * 
+	 * @param state The evolution state
+	 */
+	public void postPostBreedingExchangeStatistics(final EvolutionState state) {
+		super.postPostBreedingExchangeStatistics(state);
+		if (!(state instanceof AsyncSteadyStateEvolutionState))
+			checkpoint(state);
+	}
+
+	/**
+	 * Wait for the last checkpoint to be written
+	 * 
+	 * @param state  The evolution state
+	 * @param result The result of the run
+	 */
+	public void finalStatistics(final EvolutionState state, final int result) {
+		super.finalStatistics(state, result);
+		waitForWriter(state);
+	}
+
+	/**
+	 * Encode the population and write it in background, if the next generation
+	 * is a checkpoint generation
+	 * 
+	 * @param state The evolution state
+	 */
+	private void checkpoint(final EvolutionState state) {
+		final int generation = state.generation + 1;
+		if (generation % modulo != 0)
+			return;
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(state, generation, new DataOutputStream(bytes));
+		} catch (IOException e) {
+			state.output.fatal("The population could not be encoded: " + e);
+		}
+
+		// only one checkpoint is written at a time
+		waitForWriter(state);
+		writer = new Thread("Ristretto checkpoint writer") {
+			public void run() {
+				try {
+					File temp = new File(file.getPath() + ".tmp");
+					OutputStream out = new FileOutputStream(temp);
+					try {
+						bytes.writeTo(out);
+					} finally {
+						out.close();
+					}
+					Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} catch (IOException e) {
+					writeError = e;
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Wait until the last checkpoint has been written
+	 * 
+	 * @param state The evolution state
+	 */
+	private void waitForWriter(final EvolutionState state) {
+		if (writer == null)
+			return;
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+
+		if (writeError != null)
+			state.output.warning("The population checkpoint " + file + " could not be written: " + writeError);
+		writeError = null;
+	}
+
+	/**
+	 * Write the population of a state
+	 * 
+	 * @param state      The evolution state
+	 * @param generation The generation stored in the checkpoint
+	 * @param out        The output
+	 * @throws IOException If the population can not be written
+	 */
+	public static void write(final EvolutionState state, int generation, DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(generation);
+		out.writeInt(state.population.subpops.length);
+		for (int s = 0; s < state.population.subpops.length; s++) {
+			Individual[] inds = state.population.subpops[s].individuals;
+			out.writeInt(inds.length);
+			for (Individual ind : inds)
+				ind.writeIndividual(state, out);
+		}
+	}
+
+	/**
+	 * Read a checkpoint into the population of a state. The population must have
+	 * been already set up with the same subpopulations and species used to write
+	 * the checkpoint
+	 * 
+	 * @param state The evolution state
+	 * @param in    The input
+	 * @return The generation stored in the checkpoint
+	 * @throws IOException If the checkpoint can not be read
+	 */
+	public static int read(final EvolutionState state, DataInput in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a population checkpoint");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported population checkpoint version " + version);
+
+		int generation = in.readInt();
+		int nSubpops = in.readInt();
+		if (nSubpops != state.population.subpops.length)
+			throw new IOException("The checkpoint has " + nSubpops + " subpopulations, but "
+					+ state.population.subpops.length + " are expected");
+
+		for (int s = 0; s < nSubpops; s++) {
+			Species species = state.population.subpops[s].species;
+			Individual[] inds = new Individual[in.readInt()];
+			for (int i = 0; i < inds.length; i++) {
+				inds[i] = (Individual) species.i_prototype.clone();
+				inds[i].fitness = (Fitness) species.f_prototype.clone();
+				inds[i].species = species;
+				inds[i].readIndividual(state, in);
+			}
+			state.population.subpops[s].individuals = inds;
+		}
+
+		return generation;
+	}
+
+	/**
+	 * Read a checkpoint file into the population of a state
+	 * 
+	 * @param state The evolution state
+	 * @param file  The checkpoint file
+	 * @return The generation stored in the checkpoint
+	 * @throws IOException If the checkpoint can not be read
+	 */
+	public static int read(final EvolutionState state, File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			return read(state, in);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,440 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.ecjtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.Statistics;
+import ec.util.Parameter;
+
+/**
+ * Statistics that record the throughput and the utilization of the run, one
+ * line per generation, in order to size the number of evaluation and breeding
+ * threads and the resources requested to the cluster. Each line is written
+ * after the evaluation of a generation and contains the following columns,
+ * separated by tabs:
+ *
+ * <ul>
+ * <li><tt>gen</tt>: The generation</li>
+ * <li><tt>breedMs</tt>, <tt>evalMs</tt>: Wall time of the breeding (of the
+ * previous generation) and of the evaluation, in milliseconds</li>
+ * <li><tt>evals</tt>, <tt>evalsPerS</tt>: Number of evaluated individuals and
+ * evaluations per second of evaluation wall time</li>
+ * <li><tt>evalBusyMs.</tt><i>i</i>, <tt>evalIdleMs.</tt><i>i</i>: CPU time
+ * consumed by the <i>i</i>-th evaluation thread during the evaluation, and the
+ * rest of the evaluation wall time, one pair of columns for each of the
+ * <tt>evalthreads</tt> threads</li>
+ * <li><tt>evalOtherMs</tt>: CPU time consumed during the evaluation by the rest
+ * of the Java threads of the JVM (the main thread while it waits for the
+ * evaluation threads, the JIT compiler, ...). The time of the garbage
+ * collections is given apart by <tt>gcMs</tt></li>
+ * <li><tt>breedBusyMs.</tt><i>i</i>, <tt>breedIdleMs.</tt><i>i</i>,
+ * <tt>breedOtherMs</tt>: The same for the breeding and the
+ * <tt>breedthreads</tt> threads</li>
+ * <li><tt>allocMB</tt>, <tt>allocMBPerS</tt>: Heap allocated by the threads
+ * since the previous line, and the allocation rate</li>
+ * <li><tt>gcCount</tt>, <tt>gcMs</tt>: Number and accumulated time of the
+ * garbage collections since the previous line</li>
+ * <li><tt>meanSize</tt>: Mean size of the individuals of the population, the
+ * mean number of selected features for feature selection problems</li>
+ * </ul>
+ *
+ * <p>
+ *
+ * The CPU time and the allocated bytes are sampled from the live threads, thus
+ * threads that start and finish between two samples are not accounted. ECJ
+ * reuses its evaluation and breeding threads, so they are. The evaluation and
+ * breeding threads are recognized by the names given by ECJ, followed by their
+ * index. If there is only one of them, ECJ uses the main thread instead. The
+ * allocations are only available in JVMs providing
+ * <tt>com.sun.management.ThreadMXBean</tt> (otherwise they are written as -1).
+ * For {@link ristretto.ecjtools.AsyncSteadyStateEvolutionState}, breeding and
+ * evaluation overlap, so the whole generation is accounted as evaluation of
+ * its workers.
+ *
+ * <p>
+ *
+ * These statistics are usually added as a child of the main statistics:
+ *
+ * <p>
+ * <tt>stat.num-children = 1<br>
+ * stat.child.0 = ristretto.ecjtools.ThroughputStatistics<br>
+ * stat.child.0.file = $throughput.stat</tt>
+ *
+ * <p>
+ * <b>Parameters</b><br>
+ * <table>
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>file</tt><br>
+ * <font size=-1>String (a filename)</font></td>
+ * <td valign=top>(The time-series file)</td>
+ * </tr>
+ * </table>
+ *
+ * @author Jesús González
+ */
+public class ThroughputStatistics extends Statistics {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Parameter for the time-series file */
+	public static final String P_FILE = "file";
+
+	/** Prefix of the names of ECJ's evaluation threads */
+	public static final String EVALUATION_THREAD = "ECJ Evaluation Thread ";
+
+	/** Prefix of the names of ECJ's breeding threads */
+	public static final String BREEDING_THREAD = "ECJ Breeding Thread ";
+
+	/** The time-series log */
+	public int throughputLog;
+
+	/** Thread management bean */
+	private transient ThreadMXBean threads;
+
+	/** Last CPU time and allocated bytes sampled of each thread */
+	private transient Map<Long, long[]> lastSamples;
+
+	/** Allocated bytes of all the threads sampled so far */
+	private long allocatedTotal;
+
+	/** Wall time of the beginning of the current phase */
+	private long phaseStart;
+
+	/** CPU time and allocated bytes of each thread at the beginning of the phase */
+	private transient Map<Long, long[]> phaseStartSamples;
+
+	/** Allocated bytes of all the threads at the beginning of the phase */
+	private long phaseStartAllocated;
+
+	/** Number of evaluation and breeding threads */
+	private int evalThreads, breedThreads;
+
+	/** Wall time of the last breeding */
+	private long breedWall;
+
+	/**
+	 * CPU time of each breeding thread during the last breeding, followed by
+	 * the CPU time of the rest of the threads
+	 */
+	private long[] breedCpu;
+
+	/** Allocated bytes since the previous line */
+	private long allocated;
+
+	/** Wall time of the previous line */
+	private long lastLine;
+
+	/** Garbage collections and their time at the previous line */
+	private long gcCount, gcTime;
+
+	/** Individuals to be evaluated in the current generation */
+	private long pendingEvaluations;
+
+	/**
+	 * Set up the statistics by reading it from the parameters stored in state,
+	 * built off of the parameter base base.
+	 * 
+	 * @param state The evolution state
+	 * @param base  The parameter base
+	 */
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+
+		File file = state.parameters.getFile(base.push(P_FILE), null);
+		if (file == null)
+			state.output.fatal("No throughput statistics file specified.", base.push(P_FILE));
+
+		try {
+			throughputLog = state.output.addLog(file, true);
+		} catch (IOException e) {
+			state.output.fatal("An IOException occurred while trying to create the log " + file + ":\n" + e);
+		}
+
+		evalThreads = Math.max(1, state.evalthreads);
+		breedThreads = Math.max(1, state.breedthreads);
+		breedCpu = new long[breedThreads + 1];
+
+		StringBuilder header = new StringBuilder("gen\tbreedMs\tevalMs\tevals\tevalsPerS");
+		for (int t = 0; t < evalThreads; t++)
+			header.append("\tevalBusyMs." + t + "\tevalIdleMs." + t);
+		header.append("\tevalOtherMs");
+		for (int t = 0; t < breedThreads; t++)
+			header.append("\tbreedBusyMs." + t + "\tbreedIdleMs." + t);
+		header.append("\tbreedOtherMs\tallocMB\tallocMBPerS\tgcCount\tgcMs\tmeanSize");
+		state.output.println(header.toString(), throughputLog);
+
+		threads = ManagementFactory.getThreadMXBean();
+		if (threads.isThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled())
+			threads.setThreadCpuTimeEnabled(true);
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+			if (sunThreads.isThreadAllocatedMemorySupported() && !sunThreads.isThreadAllocatedMemoryEnabled())
+				sunThreads.setThreadAllocatedMemoryEnabled(true);
+		}
+		lastSamples = new HashMap<Long, long[]>();
+
+		lastLine = System.nanoTime();
+		long[] gc = gcTotals();
+		gcCount = gc[0];
+		gcTime = gc[1];
+	}
+
+	/**
+	 * Start timing the evaluation
+	 * 
+	 * @param state The evolution state
+	 */
+	public void preEvaluationStatistics(final EvolutionState state) {
+		super.preEvaluationStatistics(state);
+
+		if (state instanceof AsyncSteadyStateEvolutionState && state.generation > 0) {
+			// a generation worth of children has been bred and evaluated since the last line
+			pendingEvaluations = 0;
+			for (int s = 0; s < state.population.subpops.length; s++)
+				pendingEvaluations += state.population.subpops[s].individuals.length;
+		} else {
+			pendingEvaluations = 0;
+			for (int s = 0; s < state.population.subpops.length; s++)
+				for (Individual ind : state.population.subpops[s].individuals)
+					if (!ind.evaluated)
+						pendingEvaluations++;
+		}
+
+		startPhase();
+	}
+
+	/**
+	 * Write the line of the current generation
+	 * 
+	 * @param state The evolution state
+	 */
+	public void postEvaluationStatistics(final EvolutionState state) {
+		super.postEvaluationStatistics(state);
+
+		long now = System.nanoTime();
+		long evalWall = now - phaseStart;
+		long[] evalCpu;
+		if (state instanceof AsyncSteadyStateEvolutionState)
+			evalCpu = endPhase(AsyncSteadyStateEvolutionState.WORKER_NAME, evalThreads, false);
+		else
+			evalCpu = endPhase(EVALUATION_THREAD, evalThreads, evalThreads == 1);
+
+		long[] gc = gcTotals();
+		long lineWall = now - lastLine;
+
+		long individuals = 0, size = 0;
+		for (int s = 0; s < state.population.subpops.length; s++)
+			for (Individual ind : state.population.subpops[s].individuals) {
+				size += ind.size();
+				individuals++;
+			}
+
+		boolean allocations = threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+
+		StringBuilder line = new StringBuilder();
+		line.append(state.generation);
+		line.append(String.format("\t%.1f\t%.1f", breedWall / 1e6, evalWall / 1e6));
+		line.append("\t" + pendingEvaluations);
+		line.append(String.format("\t%.2f", evalWall > 0 ? pendingEvaluations * 1e9 / evalWall : 0.0));
+		appendThreads(line, evalCpu, evalWall);
+		appendThreads(line, breedCpu, breedWall);
+		if (allocations)
+			line.append(String.format("\t%.2f\t%.2f", allocated / 1048576.0,
+					lineWall > 0 ? allocated / 1048576.0 * 1e9 / lineWall : 0.0));
+		else
+			line.append("\t-1\t-1");
+		line.append("\t" + (gc[0] - gcCount) + "\t" + (gc[1] - gcTime));
+		line.append(String.format("\t%.2f", individuals > 0 ? (double) size / individuals : 0.0));
+		state.output.println(line.toString(), throughputLog);
+
+		lastLine = now;
+		gcCount = gc[0];
+		gcTime = gc[1];
+		allocated = 0;
+		breedWall = 0;
+		breedCpu = new long[breedThreads + 1];
+	}
+
+	/**
+	 * Append the busy and idle times of each thread of a phase, followed by the
+	 * CPU time of the rest of the threads
+	 *
+	 * @param line The line
+	 * @param cpu  CPU time of each thread and of the rest of the threads
+	 * @param wall Wall time of the phase
+	 */
+	private static void appendThreads(StringBuilder line, long[] cpu, long wall) {
+		int nThreads = cpu.length - 1;
+		for (int t = 0; t < nThreads; t++)
+			line.append(String.format("\t%.1f\t%.1f", cpu[t] / 1e6, Math.max(0, wall - cpu[t]) / 1e6));
+		line.append(String.format("\t%.1f", cpu[nThreads] / 1e6));
+	}
+
+	/**
+	 * Start timing the breeding
+	 * 
+	 * @param state The evolution state
+	 */
+	public void preBreedingStatistics(final EvolutionState state) {
+		super.preBreedingStatistics(state);
+		startPhase();
+	}
+
+	/**
+	 * Finish timing the breeding
+	 * 
+	 * @param state The evolution state
+	 */
+	public void postBreedingStatistics(final EvolutionState state) {
+		super.postBreedingStatistics(state);
+		breedWall = System.nanoTime() - phaseStart;
+		breedCpu = endPhase(BREEDING_THREAD, breedThreads, breedThreads == 1);
+	}
+
+	/**
+	 * Start a phase
+	 */
+	private void startPhase() {
+		phaseStartSamples = sampleThreads();
+		phaseStartAllocated = allocatedTotal;
+		phaseStart = System.nanoTime();
+	}
+
+	/**
+	 * Finish a phase
+	 *
+	 * @param prefix        Prefix of the names of the threads of the phase,
+	 *                      followed by their index
+	 * @param nThreads      Number of threads of the phase
+	 * @param currentThread Whether the phase is run by the current thread
+	 * @return The CPU time consumed by each thread of the phase, followed by the
+	 *         CPU time consumed by the rest of the threads
+	 */
+	private long[] endPhase(String prefix, int nThreads, boolean currentThread) {
+		Map<Long, long[]> startSamples = phaseStartSamples;
+		Map<Long, long[]> samples = sampleThreads();
+		allocated += allocatedTotal - phaseStartAllocated;
+
+		long[] ids = new long[samples.size()];
+		int n = 0;
+		for (long id : samples.keySet())
+			ids[n++] = id;
+		ThreadInfo[] infos = threads.getThreadInfo(ids);
+		long currentId = Thread.currentThread().getId();
+
+		long[] cpu = new long[nThreads + 1];
+		for (int t = 0; t < ids.length; t++) {
+			long[] start = startSamples == null ? null : startSamples.get(ids[t]);
+			long delta = samples.get(ids[t])[0] - (start == null ? 0 : start[0]);
+
+			int index = infos[t] == null ? -1 : threadIndex(infos[t].getThreadName(), prefix, nThreads);
+			if (index < 0 && currentThread && ids[t] == currentId)
+				index = 0;
+			cpu[index < 0 ? nThreads : index] += delta;
+		}
+		return cpu;
+	}
+
+	/**
+	 * Return the index of a thread of a phase, or -1 if the thread does not
+	 * belong to the phase
+	 *
+	 * @param name     Name of the thread
+	 * @param prefix   Prefix of the names of the threads of the phase
+	 * @param nThreads Number of threads of the phase
+	 */
+	private static int threadIndex(String name, String prefix, int nThreads) {
+		if (!name.startsWith(prefix))
+			return -1;
+		try {
+			int index = Integer.parseInt(name.substring(prefix.length()).trim());
+			return index >= 0 && index < nThreads ? index : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Sample the CPU time and the allocated bytes of the live threads
+	 *
+	 * @return The CPU time and the allocated bytes of each live thread
+	 */
+	private Map<Long, long[]> sampleThreads() {
+		// the beans are not serialized with ECJ's checkpoints
+		if (threads == null) {
+			threads = ManagementFactory.getThreadMXBean();
+			lastSamples = new HashMap<Long, long[]>();
+		}
+
+		long[] ids = threads.getAllThreadIds();
+		long[] bytes = null;
+		if (threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled())
+			bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+
+		// the allocations of the live threads are added to the accumulated total
+		HashMap<Long, long[]> current = new HashMap<Long, long[]>();
+		for (int t = 0; t < ids.length; t++) {
+			long cpu = threads.isThreadCpuTimeEnabled() ? threads.getThreadCpuTime(ids[t]) : -1;
+			long allocatedBytes = bytes != null ? bytes[t] : -1;
+			if (cpu < 0 && allocatedBytes < 0)
+				continue; // the thread has died
+
+			long[] last = lastSamples.get(ids[t]);
+			if (allocatedBytes >= 0)
+				allocatedTotal += allocatedBytes - (last == null ? 0 : last[1]);
+			current.put(ids[t], new long[] { Math.max(cpu, 0), Math.max(allocatedBytes, 0) });
+		}
+
+		// the threads that have died are forgotten
+		lastSamples = current;
+
+		return current;
+	}
+
+	/**
+	 * Return the number of garbage collections and their accumulated time
+	 */
+	private static long[] gcTotals() {
+		long[] totals = new long[2];
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc.getCollectionCount() > 0)
+				totals[0] += gc.getCollectionCount();
+			if (gc.getCollectionTime() > 0)
+				totals[1] += gc.getCollectionTime();
+		}
+		return totals;
+	}
+}
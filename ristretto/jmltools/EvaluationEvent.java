@@ -0,0 +1,231 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.jmltools;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events of the evaluation hot paths, so that slow
+ * evaluations can be correlated with their feature subsets in JDK Mission
+ * Control. There are four event types, all of them in the <i>Ristretto</i>
+ * category and with the same fields:
+ *
+ * <ul>
+ * <li><tt>ristretto.SupervisedEvaluation</tt>: Evaluation of an individual of
+ * a supervised problem</li>
+ * <li><tt>ristretto.UnsupervisedEvaluation</tt>: Evaluation of an individual
+ * of an unsupervised problem</li>
+ * <li><tt>ristretto.CoevolutionaryEvaluation</tt>: Evaluation of a combination
+ * of collaborators of a coevolutionary problem</li>
+ * <li><tt>ristretto.Clustering</tt>: Execution of a clustering algorithm</li>
+ * </ul>
+ *
+ * <p>
+ *
+ * Each event records its duration, the size of the subset, the classifier or
+ * clusterer class, the number of cross-validation folds (0 for a hold-out
+ * validation), the number of iterations (for the clusterers) and the subset.
+ *
+ * <p>
+ *
+ * The events are disabled by default, and then {@link #begin(int)} just
+ * returns null. They are enabled with the <tt>ristretto.jfr</tt> system
+ * property:
+ *
+ * <p>
+ * <tt>java -Dristretto.jfr=true -XX:StartFlightRecording=... ec.Evolve ...</tt>
+ *
+ * <p>
+ *
+ * Since Ristretto requires only Java SE 7, the event types are defined at
+ * runtime through <tt>jdk.jfr.EventFactory</tt>, which is accessed by
+ * reflection. If it is not available (Java 10 or older), the events remain
+ * disabled.
+ *
+ * @author Jesús González
+ */
+public final class EvaluationEvent {
+
+	/** Evaluation of an individual of a supervised problem */
+	public static final int SUPERVISED_EVALUATION = 0;
+
+	/** Evaluation of an individual of an unsupervised problem */
+	public static final int UNSUPERVISED_EVALUATION = 1;
+
+	/** Evaluation of a combination of collaborators of a coevolutionary problem */
+	public static final int COEVOLUTIONARY_EVALUATION = 2;
+
+	/** Execution of a clustering algorithm */
+	public static final int CLUSTERING = 3;
+
+	/** System property to enable the events */
+	public static final String P_ENABLED = "ristretto.jfr";
+
+	/** Names of the event types */
+	private static final String[] NAMES = { "ristretto.SupervisedEvaluation", "ristretto.UnsupervisedEvaluation",
+			"ristretto.CoevolutionaryEvaluation", "ristretto.Clustering" };
+
+	/** Labels of the event types */
+	private static final String[] LABELS = { "Supervised Evaluation", "Unsupervised Evaluation",
+			"Coevolutionary Evaluation", "Clustering" };
+
+	/** Whether the events are enabled */
+	private static final boolean enabled;
+
+	/** Event factories of each type */
+	private static Object[] factories;
+
+	/** Reflected methods of the factories and the events */
+	private static Method newEvent, begin, end, shouldCommit, set, commit;
+
+	static {
+		boolean available = false;
+		if (Boolean.getBoolean(P_ENABLED)) {
+			try {
+				defineEvents();
+				available = true;
+			} catch (Exception e) {
+				System.err.println("Warning: The Java Flight Recorder events are not available: " + e);
+			}
+		}
+		enabled = available;
+	}
+
+	/** The JFR event */
+	private final Object event;
+
+	/**
+	 * Create an event
+	 *
+	 * @param event The JFR event
+	 */
+	private EvaluationEvent(Object event) {
+		this.event = event;
+	}
+
+	/**
+	 * Return true if the events are enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Begin timing an event
+	 *
+	 * @param type The type of the event
+	 * @return The event, or null if the events are disabled
+	 */
+	public static EvaluationEvent begin(int type) {
+		if (!enabled)
+			return null;
+
+		try {
+			Object event = newEvent.invoke(factories[type]);
+			begin.invoke(event);
+			return new EvaluationEvent(event);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Finish timing the event and commit it, if the recording is interested in it
+	 *
+	 * @param subsetSize Number of selected features
+	 * @param algorithm  Class of the classifier or clusterer
+	 * @param folds      Number of cross-validation folds (0 for hold-out)
+	 * @param iterations Number of iterations
+	 * @param subset     The selected features (can be null). It is only
+	 *                   converted to a string if the event is committed
+	 */
+	public void commit(int subsetSize, Class<?> algorithm, int folds, int iterations, Object subset) {
+		try {
+			end.invoke(event);
+			if (!(Boolean) shouldCommit.invoke(event))
+				return;
+
+			set.invoke(event, 0, subsetSize);
+			set.invoke(event, 1, algorithm == null ? null : algorithm.getName());
+			set.invoke(event, 2, folds);
+			set.invoke(event, 3, iterations);
+			set.invoke(event, 4, subset == null ? null : subset.toString());
+			commit.invoke(event);
+		} catch (Exception e) {
+			// the events never break the evaluation
+		}
+	}
+
+	/**
+	 * Define the event types with jdk.jfr.EventFactory
+	 *
+	 * @throws Exception If the JFR API is not available
+	 */
+	@SuppressWarnings("unchecked")
+	private static void defineEvents() throws Exception {
+		Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+		Class<?> eventClass = Class.forName("jdk.jfr.Event");
+		Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+		Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+		Class<? extends Annotation> nameClass = (Class<? extends Annotation>) Class.forName("jdk.jfr.Name");
+		Class<? extends Annotation> labelClass = (Class<? extends Annotation>) Class.forName("jdk.jfr.Label");
+		Class<? extends Annotation> categoryClass = (Class<? extends Annotation>) Class.forName("jdk.jfr.Category");
+
+		Constructor<?> annotation = annotationElementClass.getConstructor(Class.class, Object.class);
+		Constructor<?> field = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+
+		List<Object> fields = new ArrayList<Object>();
+		fields.add(field.newInstance(int.class, "subsetSize",
+				Arrays.asList(annotation.newInstance(labelClass, "Subset Size"))));
+		fields.add(field.newInstance(String.class, "algorithm",
+				Arrays.asList(annotation.newInstance(labelClass, "Algorithm"))));
+		fields.add(field.newInstance(int.class, "folds", Arrays.asList(annotation.newInstance(labelClass, "Folds"))));
+		fields.add(field.newInstance(int.class, "iterations",
+				Arrays.asList(annotation.newInstance(labelClass, "Iterations"))));
+		fields.add(field.newInstance(String.class, "subset",
+				Arrays.asList(annotation.newInstance(labelClass, "Subset"))));
+
+		Method create = factoryClass.getMethod("create", List.class, List.class);
+		factories = new Object[NAMES.length];
+		for (int t = 0; t < NAMES.length; t++) {
+			List<Object> annotations = new ArrayList<Object>();
+			annotations.add(annotation.newInstance(nameClass, NAMES[t]));
+			annotations.add(annotation.newInstance(labelClass, LABELS[t]));
+			annotations.add(annotation.newInstance(categoryClass, new String[] { "Ristretto" }));
+			factories[t] = create.invoke(null, annotations, fields);
+		}
+
+		newEvent = factoryClass.getMethod("newEvent");
+		begin = eventClass.getMethod("begin");
+		end = eventClass.getMethod("end");
+		shouldCommit = eventClass.getMethod("shouldCommit");
+		set = eventClass.getMethod("set", int.class, Object.class);
+		commit = eventClass.getMethod("commit");
+	}
+}
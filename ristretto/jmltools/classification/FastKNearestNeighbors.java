@@ -0,0 +1,649 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.jmltools.classification;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ristretto.jmltools.distance.SquaredDistanceMatrix;
+import net.sf.javaml.classification.AbstractClassifier;
+import net.sf.javaml.core.Dataset;
+import net.sf.javaml.core.Instance;
+import net.sf.javaml.core.exception.TrainingRequiredException;
+
+/**
+ * K nearest neighbors classifier over a primitive matrix of the training data,
+ * using the Euclidean distance. It can replace Java-ML's KNearestNeighbors,
+ * which scans all the training instances for each prediction:
+ *
+ * <p>
+ * <tt>eval.problem.classifier = ristretto.jmltools.classification.FastKNearestNeighbors</tt>
+ *
+ * <p>
+ *
+ * For low-dimensional data, up to {@link #KD_TREE_MAX_DIMENSIONS} features
+ * (and at least 2<sup>d</sup> training instances), the neighbors are found
+ * with a KD-tree, split at the median of the dimension with the largest
+ * spread. Otherwise, the whole dataset to be classified is processed by blocks
+ * of queries and blocks of training instances, so that both blocks remain in
+ * cache. Whole datasets can be classified in parallel with
+ * {@link #classify(Dataset, int)}, which is used by
+ * {@link ristretto.jmltools.classification.evaluation.PerformanceIndexes} to
+ * build confusion matrices.
+ *
+ * <p>
+ *
+ * The training instances can also be classified by leave-one-out with
+ * {@link #classifyLeaveOneOut()}, computing each distance between them only
+ * once, and instances can be classified from a precomputed
+ * {@link SquaredDistanceMatrix}.
+ *
+ * <p>
+ *
+ * Neighbors at the same distance are ranked by their position in the training
+ * dataset, and tied votes are resolved in favor of the first class of the
+ * training dataset, so both search methods return the same predictions.
+ *
+ * @author Jesús González
+ */
+public class FastKNearestNeighbors extends AbstractClassifier {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Maximum number of features to use a KD-tree */
+	public static final int KD_TREE_MAX_DIMENSIONS = 10;
+
+	/** Maximum number of instances in a leaf of the KD-tree */
+	private static final int LEAF_SIZE = 16;
+
+	/** Queries per block of the brute-force search */
+	private static final int QUERY_BLOCK = 64;
+
+	/** Training instances per block of the brute-force search */
+	private static final int TRAINING_BLOCK = 256;
+
+	/** Number of neighbors */
+	private final int k;
+
+	/** Number of neighbors actually used (no more than training instances) */
+	private int nNeighbors;
+
+	/** Number of features */
+	private int nFeatures;
+
+	/** Number of training instances */
+	private int nTraining;
+
+	/** Training instances, row after row (in the KD-tree order if any) */
+	private double[] points;
+
+	/** Position in the training dataset of each row of points */
+	private int[] order;
+
+	/** Class index of each training instance, in the training dataset order */
+	private int[] labels;
+
+	/** Class values of the training dataset */
+	private Object[] classes;
+
+	/** Whether the KD-tree is used */
+	private boolean useTree;
+
+	/** Nodes of the KD-tree: range of rows, split dimension (-1 for leaves) */
+	private int[] nodeFrom, nodeTo, nodeDim, nodeLeft, nodeRight;
+
+	/** Split value of each node of the KD-tree */
+	private double[] nodeSplit;
+
+	/** Number of nodes of the KD-tree */
+	private int nNodes;
+
+	/**
+	 * Instantiate the KNN classifier
+	 *
+	 * @param k Number of neighbors
+	 */
+	public FastKNearestNeighbors(int k) {
+		super();
+		this.k = k;
+	}
+
+	/**
+	 * Build the classifier from the provided data
+	 *
+	 * @param data Training data
+	 */
+	@Override
+	public void buildClassifier(Dataset data) {
+		classes = data.classes().toArray();
+		nFeatures = data.noAttributes();
+		nTraining = data.size();
+		nNeighbors = Math.max(1, Math.min(k, nTraining));
+
+		Map<Object, Integer> classIndex = new HashMap<Object, Integer>();
+		for (int c = 0; c < classes.length; c++)
+			classIndex.put(classes[c], c);
+
+		points = toMatrix(data);
+		labels = new int[nTraining];
+		order = new int[nTraining];
+		for (int i = 0; i < nTraining; i++) {
+			labels[i] = classIndex.get(data.instance(i).classValue());
+			order[i] = i;
+		}
+
+		useTree = nFeatures <= KD_TREE_MAX_DIMENSIONS && nTraining > 2 * LEAF_SIZE
+				&& nTraining >= (1 << nFeatures);
+		if (useTree)
+			buildTree();
+	}
+
+	/**
+	 * Return the distribution of the votes of the neighbors of an instance
+	 *
+	 * @param instance The instance
+	 * @return The proportion of neighbors of each class
+	 */
+	@Override
+	public Map<Object, Double> classDistribution(Instance instance) {
+		int[] votes = votes(instance);
+		Map<Object, Double> distribution = new HashMap<Object, Double>();
+		for (int c = 0; c < classes.length; c++)
+			distribution.put(classes[c], (double) votes[c] / nNeighbors);
+		return distribution;
+	}
+
+	/**
+	 * Classify an instance
+	 *
+	 * @param instance The instance
+	 * @return The predicted class value
+	 */
+	@Override
+	public Object classify(Instance instance) {
+		return classes[winner(votes(instance))];
+	}
+
+	/**
+	 * Classify all the instances of a dataset, by blocks, in parallel
+	 *
+	 * @param data     The dataset
+	 * @param nThreads Number of threads
+	 * @return The predicted class value of each instance
+	 */
+	public Object[] classify(final Dataset data, int nThreads) {
+		if (classes == null)
+			throw new TrainingRequiredException();
+
+		final int n = data.size();
+		final double[] queries = toMatrix(data);
+		final Object[] predictions = new Object[n];
+		final int nBlocks = (n + QUERY_BLOCK - 1) / QUERY_BLOCK;
+		nThreads = Math.max(1, Math.min(nThreads, nBlocks));
+
+		final RuntimeException[] failure = new RuntimeException[1];
+		Thread[] threads = new Thread[nThreads - 1];
+		for (int t = 0; t < nThreads; t++) {
+			final int fromBlock = (int) ((long) nBlocks * t / nThreads);
+			final int toBlock = (int) ((long) nBlocks * (t + 1) / nThreads);
+			Runnable block = new Runnable() {
+				public void run() {
+					try {
+						int from = fromBlock * QUERY_BLOCK;
+						int to = Math.min(n, toBlock * QUERY_BLOCK);
+						int[] predicted = predict(queries, from, to);
+						for (int q = from; q < to; q++)
+							predictions[q] = classes[predicted[q - from]];
+					} catch (RuntimeException e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					}
+				}
+			};
+
+			// the calling thread classifies the last range of blocks
+			if (t < nThreads - 1) {
+				threads[t] = new Thread(block);
+				threads[t].start();
+			} else
+				block.run();
+		}
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while classifying");
+			}
+		}
+
+		if (failure[0] != null)
+			throw failure[0];
+		return predictions;
+	}
+
+	/**
+	 * Classify each training instance with the rest of the training instances
+	 * (leave-one-out). The distance between each pair of training instances is
+	 * computed only once, by blocks of the distance matrix, and inserted in the
+	 * neighbors of both instances
+	 *
+	 * @return The predicted class value of each training instance
+	 */
+	public Object[] classifyLeaveOneOut() {
+		if (classes == null)
+			throw new TrainingRequiredException();
+
+		int capacity = Math.max(1, Math.min(k, nTraining - 1));
+		Neighbors[] neighbors = new Neighbors[nTraining];
+		for (int row = 0; row < nTraining; row++)
+			neighbors[row] = new Neighbors(capacity);
+
+		for (int blockI = 0; blockI < nTraining; blockI += TRAINING_BLOCK) {
+			int endI = Math.min(nTraining, blockI + TRAINING_BLOCK);
+			for (int blockJ = 0; blockJ <= blockI; blockJ += TRAINING_BLOCK) {
+				int endJ = Math.min(nTraining, blockJ + TRAINING_BLOCK);
+				for (int i = blockI; i < endI; i++) {
+					int lastJ = Math.min(endJ, i);
+					for (int j = blockJ; j < lastJ; j++) {
+						double distance = distance(points, i * nFeatures, j);
+						neighbors[i].insert(distance, order[j]);
+						neighbors[j].insert(distance, order[i]);
+					}
+				}
+			}
+		}
+
+		Object[] predictions = new Object[nTraining];
+		for (int row = 0; row < nTraining; row++)
+			predictions[order[row]] = classes[winner(neighbors[row].votes(labels, classes.length))];
+		return predictions;
+	}
+
+	/**
+	 * Classify some instances of a dataset with their nearest neighbors among
+	 * other instances of the same dataset, from the precomputed distances
+	 * between them. Neighbors at the same distance are ranked by their position
+	 * in training
+	 *
+	 * @param distances   Squared distances between the instances of the dataset
+	 * @param labels      Class index of each instance of the dataset
+	 * @param nClasses    Number of classes
+	 * @param k           Number of neighbors
+	 * @param training    The training instances
+	 * @param queries     The instances to be classified
+	 * @param leaveOneOut Whether the queries must be excluded from their own
+	 *                    neighbors
+	 * @return The predicted class index of each query
+	 */
+	public static int[] classify(SquaredDistanceMatrix distances, int[] labels, int nClasses, int k, int[] training,
+			int[] queries, boolean leaveOneOut) {
+		int[] trainingLabels = new int[training.length];
+		for (int t = 0; t < training.length; t++)
+			trainingLabels[t] = labels[training[t]];
+
+		Neighbors neighbors = new Neighbors(
+				Math.max(1, Math.min(k, leaveOneOut ? training.length - 1 : training.length)));
+		int[] predicted = new int[queries.length];
+		for (int q = 0; q < queries.length; q++) {
+			int query = queries[q];
+			neighbors.clear();
+			for (int t = 0; t < training.length; t++)
+				if (!leaveOneOut || training[t] != query)
+					neighbors.insert(distances.get(query, training[t]), t);
+			predicted[q] = winner(neighbors.votes(trainingLabels, nClasses));
+		}
+		return predicted;
+	}
+
+	/**
+	 * Count the votes of the neighbors of an instance
+	 *
+	 * @param instance The instance
+	 * @return The number of neighbors of each class
+	 */
+	private int[] votes(Instance instance) {
+		if (classes == null)
+			throw new TrainingRequiredException();
+
+		double[] query = new double[nFeatures];
+		for (int j = 0; j < nFeatures; j++)
+			query[j] = instance.value(j);
+
+		Neighbors neighbors = new Neighbors(nNeighbors);
+		if (useTree)
+			search(0, query, 0, neighbors);
+		else
+			for (int i = 0; i < nTraining; i++)
+				neighbors.insert(distance(query, 0, i), i);
+
+		return neighbors.votes(labels, classes.length);
+	}
+
+	/**
+	 * Predict the class index of a range of queries
+	 *
+	 * @param queries The queries, row after row
+	 * @param from    First query
+	 * @param to      Last query (exclusive)
+	 * @return The class index of each query of the range
+	 */
+	private int[] predict(double[] queries, int from, int to) {
+		int[] predicted = new int[to - from];
+
+		if (useTree) {
+			Neighbors neighbors = new Neighbors(nNeighbors);
+			for (int q = from; q < to; q++) {
+				neighbors.clear();
+				search(0, queries, q * nFeatures, neighbors);
+				predicted[q - from] = winner(neighbors.votes(labels, classes.length));
+			}
+			return predicted;
+		}
+
+		Neighbors[] block = new Neighbors[Math.min(QUERY_BLOCK, to - from)];
+		for (int b = 0; b < block.length; b++)
+			block[b] = new Neighbors(nNeighbors);
+
+		for (int blockStart = from; blockStart < to; blockStart += QUERY_BLOCK) {
+			int blockEnd = Math.min(to, blockStart + QUERY_BLOCK);
+			for (int q = blockStart; q < blockEnd; q++)
+				block[q - blockStart].clear();
+
+			for (int trainingStart = 0; trainingStart < nTraining; trainingStart += TRAINING_BLOCK) {
+				int trainingEnd = Math.min(nTraining, trainingStart + TRAINING_BLOCK);
+				for (int q = blockStart; q < blockEnd; q++) {
+					Neighbors neighbors = block[q - blockStart];
+					int offset = q * nFeatures;
+					for (int i = trainingStart; i < trainingEnd; i++)
+						neighbors.insert(distance(queries, offset, i), i);
+				}
+			}
+
+			for (int q = blockStart; q < blockEnd; q++)
+				predicted[q - from] = winner(block[q - blockStart].votes(labels, classes.length));
+		}
+		return predicted;
+	}
+
+	/**
+	 * Return the most voted class, the first one in case of ties
+	 *
+	 * @param votes The votes of each class
+	 */
+	private static int winner(int[] votes) {
+		int best = 0;
+		for (int c = 1; c < votes.length; c++)
+			if (votes[c] > votes[best])
+				best = c;
+		return best;
+	}
+
+	/**
+	 * Squared Euclidean distance between a query and a row of points
+	 *
+	 * @param queries The queries
+	 * @param offset  Offset of the query
+	 * @param row     The row of points
+	 */
+	private double distance(double[] queries, int offset, int row) {
+		double sum = 0;
+		for (int j = 0, p = row * nFeatures; j < nFeatures; j++, p++) {
+			double diff = queries[offset + j] - points[p];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * Search the neighbors of a query in a subtree of the KD-tree
+	 *
+	 * @param node      The root of the subtree
+	 * @param queries   The queries
+	 * @param offset    Offset of the query
+	 * @param neighbors The neighbors found so far
+	 */
+	private void search(int node, double[] queries, int offset, Neighbors neighbors) {
+		int dim = nodeDim[node];
+		if (dim < 0) {
+			for (int row = nodeFrom[node]; row < nodeTo[node]; row++)
+				neighbors.insert(distance(queries, offset, row), order[row]);
+			return;
+		}
+
+		double diff = queries[offset + dim] - nodeSplit[node];
+		int near = diff < 0 ? nodeLeft[node] : nodeRight[node];
+		int far = diff < 0 ? nodeRight[node] : nodeLeft[node];
+		search(near, queries, offset, neighbors);
+
+		// the points of the far side are at least |diff| away from the query
+		if (!neighbors.full() || diff * diff <= neighbors.worst())
+			search(far, queries, offset, neighbors);
+	}
+
+	/**
+	 * Build the KD-tree and reorder the training instances accordingly
+	 */
+	private void buildTree() {
+		// leaves hold more than LEAF_SIZE / 2 instances, since splits are at the median
+		int maxNodes = 4 * ((nTraining + LEAF_SIZE - 1) / LEAF_SIZE);
+		nodeFrom = new int[maxNodes];
+		nodeTo = new int[maxNodes];
+		nodeDim = new int[maxNodes];
+		nodeLeft = new int[maxNodes];
+		nodeRight = new int[maxNodes];
+		nodeSplit = new double[maxNodes];
+		nNodes = 0;
+
+		int[] perm = new int[nTraining];
+		for (int i = 0; i < nTraining; i++)
+			perm[i] = i;
+		build(perm, 0, nTraining);
+
+		double[] sorted = new double[points.length];
+		for (int row = 0; row < nTraining; row++)
+			System.arraycopy(points, perm[row] * nFeatures, sorted, row * nFeatures, nFeatures);
+		points = sorted;
+		order = perm;
+	}
+
+	/**
+	 * Build a subtree of the KD-tree
+	 *
+	 * @param perm The training instances in tree order
+	 * @param from First row of the subtree
+	 * @param to   Last row of the subtree (exclusive)
+	 * @return The root of the subtree
+	 */
+	private int build(int[] perm, int from, int to) {
+		int node = nNodes++;
+		nodeFrom[node] = from;
+		nodeTo[node] = to;
+		nodeDim[node] = -1;
+		if (to - from <= LEAF_SIZE)
+			return node;
+
+		// dimension with the largest spread
+		int dim = -1;
+		double spread = 0;
+		for (int j = 0; j < nFeatures; j++) {
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				double v = points[perm[i] * nFeatures + j];
+				if (v < min)
+					min = v;
+				if (v > max)
+					max = v;
+			}
+			if (max - min > spread) {
+				spread = max - min;
+				dim = j;
+			}
+		}
+		if (dim < 0)
+			return node; // all the instances are equal
+
+		int mid = (from + to) >>> 1;
+		select(perm, from, to - 1, mid, dim);
+
+		nodeDim[node] = dim;
+		nodeSplit[node] = points[perm[mid] * nFeatures + dim];
+		nodeLeft[node] = build(perm, from, mid);
+		nodeRight[node] = build(perm, mid, to);
+		return node;
+	}
+
+	/**
+	 * Partially sort a range of instances so that the instance at a given
+	 * position has the value it would have in a sorted range, those before it
+	 * are not greater and those after it are not lower (quickselect)
+	 *
+	 * @param perm  The instances
+	 * @param left  First position of the range
+	 * @param right Last position of the range (inclusive)
+	 * @param nth   The position
+	 * @param dim   The dimension compared
+	 */
+	private void select(int[] perm, int left, int right, int nth, int dim) {
+		while (right > left) {
+			double pivot = points[perm[(left + right) >>> 1] * nFeatures + dim];
+			int i = left, j = right;
+			while (i <= j) {
+				while (points[perm[i] * nFeatures + dim] < pivot)
+					i++;
+				while (points[perm[j] * nFeatures + dim] > pivot)
+					j--;
+				if (i <= j) {
+					int tmp = perm[i];
+					perm[i] = perm[j];
+					perm[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (nth <= j)
+				right = j;
+			else if (nth >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Convert a dataset into a primitive matrix, row after row
+	 *
+	 * @param data The dataset
+	 */
+	private double[] toMatrix(Dataset data) {
+		double[] matrix = new double[data.size() * nFeatures];
+		for (int i = 0, p = 0; i < data.size(); i++) {
+			Instance instance = data.instance(i);
+			for (int j = 0; j < nFeatures; j++)
+				matrix[p++] = instance.value(j);
+		}
+		return matrix;
+	}
+
+	/**
+	 * The nearest neighbors found so far for a query, sorted by distance and then
+	 * by position in the training dataset
+	 */
+	private static class Neighbors {
+
+		/** Distance of each neighbor */
+		private final double[] distances;
+
+		/** Position in the training dataset of each neighbor */
+		private final int[] indices;
+
+		/** Number of neighbors found */
+		private int size;
+
+		/**
+		 * Create an empty list of neighbors
+		 *
+		 * @param capacity Number of neighbors to find
+		 */
+		Neighbors(int capacity) {
+			distances = new double[capacity];
+			indices = new int[capacity];
+		}
+
+		/** Remove all the neighbors */
+		void clear() {
+			size = 0;
+		}
+
+		/** Return true if all the neighbors have been found */
+		boolean full() {
+			return size == distances.length;
+		}
+
+		/** Return the distance of the farthest neighbor */
+		double worst() {
+			return distances[size - 1];
+		}
+
+		/**
+		 * Insert a training instance if it is nearer than the farthest neighbor
+		 *
+		 * @param distance Distance to the query
+		 * @param index    Position of the instance in the training dataset
+		 */
+		void insert(double distance, int index) {
+			int pos = size;
+			if (full()) {
+				pos--;
+				if (distance > distances[pos] || (distance == distances[pos] && index > indices[pos]))
+					return;
+			} else
+				size++;
+
+			while (pos > 0 && (distances[pos - 1] > distance
+					|| (distances[pos - 1] == distance && indices[pos - 1] > index))) {
+				distances[pos] = distances[pos - 1];
+				indices[pos] = indices[pos - 1];
+				pos--;
+			}
+			distances[pos] = distance;
+			indices[pos] = index;
+		}
+
+		/**
+		 * Return the number of neighbors of each class
+		 *
+		 * @param labels   Class index of each training instance
+		 * @param nClasses Number of classes
+		 */
+		int[] votes(int[] labels, int nClasses) {
+			int[] votes = new int[nClasses];
+			for (int i = 0; i < size; i++)
+				votes[labels[indices[i]]]++;
+			return votes;
+		}
+	}
+}
@@ -25,14 +25,23 @@ package ristretto.jmltools.classification.evaluation;
 
 import java.util.Map;
 
+import ristretto.jmltools.classification.FastKNearestNeighbors;
 import net.sf.javaml.classification.Classifier;
-import net.sf.javaml.classification.evaluation.EvaluateDataset;
 import net.sf.javaml.classification.evaluation.PerformanceMeasure;
 import net.sf.javaml.core.Dataset;
+import net.sf.javaml.core.Instance;
 
 /**
  * This class implements some performance metrics based on the confusion matrix
  * of a classifier
+ *
+ * <p>
+ * The metrics can be obtained from the results of Java-ML's evaluation
+ * (a PerformanceMeasure per class) or from a primitive confusion matrix. The
+ * methods taking a classifier and a dataset predict the dataset once to build
+ * the confusion matrix, so several metrics can be derived from a single
+ * prediction by calling {@link #confusionMatrix(Classifier, Dataset, Object[])}
+ * and then the methods taking the matrix.
  * 
  * @author Jesús González
  */
@@ -96,7 +105,7 @@ public class PerformanceIndexes {
 	 * @return The Kappa coefficient
 	 */
 	public static double kappa(Classifier cls, Dataset testData) {
-		return kappa(EvaluateDataset.testDataset(cls, testData));
+		return kappa(confusionMatrix(cls, testData, classValues(testData)));
 	}
 
 	/**
@@ -131,7 +140,7 @@ public class PerformanceIndexes {
 	 */
 	public static double accuracy(Classifier cls, Dataset testData) {
 
-		return accuracy(EvaluateDataset.testDataset(cls, testData));
+		return accuracy(confusionMatrix(cls, testData, classValues(testData)));
 	}
 
 	/**
@@ -188,7 +197,8 @@ public class PerformanceIndexes {
 	 */
 	public static double sensitivity(Classifier cls, Dataset testData, Object label) {
 
-		return sensitivity(EvaluateDataset.testDataset(cls, testData), label);
+		Object[] classValues = classValues(testData);
+		return sensitivity(confusionMatrix(cls, testData, classValues), indexOf(classValues, label));
 	}
 
 	/**
@@ -225,6 +235,308 @@ public class PerformanceIndexes {
 	 */
 	public static double specificity(Classifier cls, Dataset testData, Object label) {
 
-		return specificity(EvaluateDataset.testDataset(cls, testData), label);
+		Object[] classValues = classValues(testData);
+		return specificity(confusionMatrix(cls, testData, classValues), indexOf(classValues, label));
+	}
+
+	/**
+	 * Return the class values of a dataset, in the order used for the rows of
+	 * its confusion matrices
+	 *
+	 * @param data The dataset
+	 * @return The class values
+	 */
+	public static Object[] classValues(Dataset data) {
+		return data.classes().toArray();
+	}
+
+	/**
+	 * Build the confusion matrix of a classifier for a dataset. Each instance is
+	 * predicted only once
+	 *
+	 * @param cls         The classifier to test
+	 * @param testData    The data set to test on
+	 * @param classValues The class values (see {@link #classValues(Dataset)})
+	 * @return The confusion matrix. Element [i][j] is the number of instances of
+	 *         class i predicted as class j. The last column counts the
+	 *         predictions not included in classValues
+	 */
+	public static int[][] confusionMatrix(Classifier cls, Dataset testData, Object[] classValues) {
+		return confusionMatrix(cls, testData, classValues, 1);
+	}
+
+	/**
+	 * Build the confusion matrix of a classifier for a dataset, predicting the
+	 * instances in parallel. Each instance is predicted only once. The
+	 * classifier must support concurrent predictions
+	 *
+	 * @param cls         The classifier to test
+	 * @param testData    The data set to test on
+	 * @param classValues The class values (see {@link #classValues(Dataset)})
+	 * @param nThreads    Number of threads
+	 * @return The confusion matrix. Element [i][j] is the number of instances of
+	 *         class i predicted as class j. The last column counts the
+	 *         predictions not included in classValues
+	 */
+	public static int[][] confusionMatrix(final Classifier cls, final Dataset testData, final Object[] classValues,
+			int nThreads) {
+		if (cls instanceof FastKNearestNeighbors)
+			return confusionMatrix(testData, ((FastKNearestNeighbors) cls).classify(testData, nThreads), classValues);
+
+		final int n = testData.size();
+		nThreads = Math.max(1, Math.min(nThreads, n));
+
+		final int[][][] partial = new int[nThreads][][];
+		final RuntimeException[] failure = new RuntimeException[1];
+		Thread[] threads = new Thread[nThreads - 1];
+
+		for (int t = 0; t < nThreads; t++) {
+			final int thread = t;
+			final int from = (int) ((long) n * t / nThreads);
+			final int to = (int) ((long) n * (t + 1) / nThreads);
+			Runnable block = new Runnable() {
+				public void run() {
+					try {
+						partial[thread] = predict(cls, testData, classValues, from, to);
+					} catch (RuntimeException e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					}
+				}
+			};
+
+			// the calling thread predicts the last block
+			if (t < nThreads - 1) {
+				threads[t] = new Thread(block);
+				threads[t].start();
+			} else
+				block.run();
+		}
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while building the confusion matrix");
+			}
+		}
+
+		if (failure[0] != null)
+			throw failure[0];
+
+		int[][] matrix = partial[0];
+		for (int t = 1; t < nThreads; t++)
+			for (int i = 0; i < matrix.length; i++)
+				for (int j = 0; j < matrix[i].length; j++)
+					matrix[i][j] += partial[t][i][j];
+		return matrix;
+	}
+
+	/**
+	 * Build the confusion matrix of a dataset already predicted
+	 *
+	 * @param testData    The data set tested
+	 * @param predictions The predicted class value of each instance
+	 * @param classValues The class values (see {@link #classValues(Dataset)})
+	 * @return The confusion matrix. Element [i][j] is the number of instances of
+	 *         class i predicted as class j. The last column counts the
+	 *         predictions not included in classValues
+	 */
+	public static int[][] confusionMatrix(Dataset testData, Object[] predictions, Object[] classValues) {
+		int nClasses = classValues.length;
+		int[][] matrix = new int[nClasses][nClasses + 1];
+
+		for (int i = 0; i < predictions.length; i++) {
+			int actual = indexOf(classValues, testData.instance(i).classValue());
+			if (actual < 0)
+				continue;
+			int predicted = indexOf(classValues, predictions[i]);
+			matrix[actual][predicted < 0 ? nClasses : predicted]++;
+		}
+		return matrix;
+	}
+
+	/**
+	 * Build the confusion matrix of a block of instances
+	 *
+	 * @param cls         The classifier to test
+	 * @param testData    The data set to test on
+	 * @param classValues The class values
+	 * @param from        First instance of the block
+	 * @param to          Last instance of the block (exclusive)
+	 * @return The confusion matrix of the block
+	 */
+	private static int[][] predict(Classifier cls, Dataset testData, Object[] classValues, int from, int to) {
+		int nClasses = classValues.length;
+		int[][] matrix = new int[nClasses][nClasses + 1];
+
+		for (int i = from; i < to; i++) {
+			Instance instance = testData.instance(i);
+			int actual = indexOf(classValues, instance.classValue());
+			if (actual < 0)
+				continue;
+			int predicted = indexOf(classValues, cls.classify(instance));
+			matrix[actual][predicted < 0 ? nClasses : predicted]++;
+		}
+		return matrix;
+	}
+
+	/**
+	 * Return the index of a class value, or -1 if it is not found
+	 *
+	 * @param classValues The class values
+	 * @param value       The class value
+	 */
+	private static int indexOf(Object[] classValues, Object value) {
+		for (int c = 0; c < classValues.length; c++)
+			if (classValues[c].equals(value))
+				return c;
+		return -1;
+	}
+
+	/**
+	 * Return the number of instances of a confusion matrix
+	 *
+	 * @param matrix The confusion matrix
+	 */
+	private static double nSamples(int[][] matrix) {
+		long n = 0;
+		for (int[] row : matrix)
+			for (int count : row)
+				n += count;
+		return n;
+	}
+
+	/**
+	 * This method implements the Kappa statistic [1] from a confusion matrix.
+	 *
+	 * <p>
+	 * <table>
+	 * <tr>
+	 * <td style="vertical-align:top">[1]</td>
+	 * <td>J. Cohen. A coefficient of agreement for nominal scales. Educational and
+	 * Psychological Measurement, 20(1):37-46, 1960. <a href=
+	 * "https://doi.org/10.1177/001316446002000104">https://doi.org/10.1177/001316446002000104</a>
+	 * </td>
+	 * </tr>
+	 * </table>
+	 *
+	 * @param matrix The confusion matrix
+	 * @return The Kappa coefficient
+	 */
+	public static double kappa(int[][] matrix) {
+		double nSamples = nSamples(matrix);
+		double observedAccuracy = 0;
+		double expectedAccuracy = 0;
+
+		for (int c = 0; c < matrix.length; c++) {
+			double actual = 0; // tp + fn
+			double predicted = 0; // tp + fp
+			for (int j = 0; j < matrix[c].length; j++)
+				actual += matrix[c][j];
+			for (int i = 0; i < matrix.length; i++)
+				predicted += matrix[i][c];
+
+			observedAccuracy += matrix[c][c];
+			expectedAccuracy += predicted * actual;
+		}
+
+		observedAccuracy /= nSamples;
+		expectedAccuracy /= nSamples * nSamples;
+
+		return (observedAccuracy - expectedAccuracy) / (1.0 - expectedAccuracy);
+	}
+
+	/**
+	 * This method obtains the accuracy from a confusion matrix. As
+	 * {@link #accuracy(Map)}, it averages the one against all accuracies of all
+	 * the classes
+	 *
+	 * @param matrix The confusion matrix
+	 * @return The accuracy index
+	 */
+	public static double accuracy(int[][] matrix) {
+		double nSamples = nSamples(matrix);
+		double hits = 0; // tp + tn
+
+		for (int c = 0; c < matrix.length; c++) {
+			double tp = matrix[c][c];
+			double fn = -tp;
+			double fp = -tp;
+			for (int j = 0; j < matrix[c].length; j++)
+				fn += matrix[c][j];
+			for (int i = 0; i < matrix.length; i++)
+				fp += matrix[i][c];
+
+			hits += nSamples - fn - fp;
+		}
+
+		return hits / (nSamples * matrix.length);
+	}
+
+	/**
+	 * This method obtains the error rate from a confusion matrix
+	 *
+	 * @param matrix The confusion matrix
+	 * @return The error rate index
+	 */
+	public static double errorRate(int[][] matrix) {
+		return 1 - accuracy(matrix);
+	}
+
+	/**
+	 * This method implements sensitivity of a classification from a confusion
+	 * matrix, following the one against all approach
+	 *
+	 * @param matrix     The confusion matrix
+	 * @param classIndex Index of the class in the confusion matrix
+	 * @return The sensitivity index (of 0 if classIndex is not a valid class)
+	 */
+	public static double sensitivity(int[][] matrix, int classIndex) {
+		if (classIndex < 0 || classIndex >= matrix.length)
+			return 0;
+
+		double tp = matrix[classIndex][classIndex];
+		double actual = 0; // tp + fn
+		for (int count : matrix[classIndex])
+			actual += count;
+		return tp / actual;
+	}
+
+	/**
+	 * This method implements specificity of a classification from a confusion
+	 * matrix, following the one against all approach
+	 *
+	 * @param matrix     The confusion matrix
+	 * @param classIndex Index of the class in the confusion matrix
+	 * @return The specificity index (of 0 if classIndex is not a valid class)
+	 */
+	public static double specificity(int[][] matrix, int classIndex) {
+		if (classIndex < 0 || classIndex >= matrix.length)
+			return 0;
+
+		double negatives = 0; // tn + fp
+		double fp = 0;
+		for (int i = 0; i < matrix.length; i++) {
+			if (i == classIndex)
+				continue;
+			for (int count : matrix[i])
+				negatives += count;
+			fp += matrix[i][classIndex];
+		}
+		return (negatives - fp) / negatives;
+	}
+
+	/**
+	 * Return the index of a class label in a confusion matrix
+	 *
+	 * @param classValues The class values of the confusion matrix
+	 * @param label       The class label
+	 * @return The index of the label, or -1 if it is not a valid class
+	 */
+	public static int classIndex(Object[] classValues, Object label) {
+		return indexOf(classValues, label);
 	}
 }
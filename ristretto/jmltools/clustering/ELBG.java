@@ -25,6 +25,7 @@ package ristretto.jmltools.clustering;
 
 import java.util.Arrays;
 
+import ristretto.jmltools.EvaluationEvent;
 import net.sf.javaml.core.Dataset;
 import net.sf.javaml.core.DefaultDataset;
 import net.sf.javaml.core.DenseInstance;
@@ -302,12 +303,16 @@ public class ELBG extends LBG {
 		if (numberOfClusters == 0)
 			throw new RuntimeException("There should be at least one cluster");
 
+		EvaluationEvent event = EvaluationEvent.begin(EvaluationEvent.CLUSTERING);
+
 		// Initialize the centroids
 		init(data);
 		double lastDistortion = partition(data);
 		double distortion;
 		double improvement = Double.POSITIVE_INFINITY;
+		int iterations = 0;
 		do {
+			iterations++;
 			elbgBlock();
 			actualize();
 			distortion = partition(data);
@@ -315,6 +320,9 @@ public class ELBG extends LBG {
 			lastDistortion = distortion;
 		} while (improvement >= stopCriterion);
 
+		if (event != null)
+			event.commit(data.noAttributes(), getClass(), 0, iterations, null);
+
 		return this.assignment;
 	}
 
@@ -26,6 +26,7 @@ package ristretto.jmltools.clustering;
 import java.util.Arrays;
 
 import ec.util.MersenneTwister;
+import ristretto.jmltools.EvaluationEvent;
 
 import net.sf.javaml.clustering.Clusterer;
 import net.sf.javaml.core.Dataset;
@@ -131,6 +132,9 @@ public class KMedians implements Clusterer {
 			throw new RuntimeException("The dataset should not be empty");
 		if (numberOfClusters == 0)
 			throw new RuntimeException("There should be at least one cluster");
+
+		EvaluationEvent event = EvaluationEvent.begin(EvaluationEvent.CLUSTERING);
+
 		// Place K points into the space represented by the objects that are
 		// being clustered. These points represent the initial group of
 		// centroids.
@@ -253,6 +257,10 @@ public class KMedians implements Clusterer {
 			output[tmpCluster].add(data.instance(i));
 
 		}
+
+		if (event != null)
+			event.commit(data.noAttributes(), getClass(), 0, iterationCount, null);
+
 		return output;
 	}
 }
@@ -26,6 +26,7 @@ package ristretto.jmltools.clustering;
 import java.util.Arrays;
 
 import ec.util.MersenneTwister;
+import ristretto.jmltools.EvaluationEvent;
 import net.sf.javaml.clustering.Clusterer;
 import net.sf.javaml.core.Dataset;
 import net.sf.javaml.core.DefaultDataset;
@@ -242,18 +243,25 @@ public class LBG implements Clusterer {
 		if (numberOfClusters == 0)
 			throw new RuntimeException("There should be at least one cluster");
 
+		EvaluationEvent event = EvaluationEvent.begin(EvaluationEvent.CLUSTERING);
+
 		// Initialize the centroids
 		init(data);
 		double lastDistortion = partition(data);
 		double distortion;
 		double improvement = Double.POSITIVE_INFINITY;
+		int iterations = 0;
 		do {
+			iterations++;
 			actualize();
 			distortion = partition(data);
 			improvement = (lastDistortion - distortion) / distortion;
 			lastDistortion = distortion;
 		} while (improvement >= stopCriterion);
 
+		if (event != null)
+			event.commit(data.noAttributes(), getClass(), 0, iterations, null);
+
 		return this.assignment;
 	}
 }
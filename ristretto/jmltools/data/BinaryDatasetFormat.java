@@ -0,0 +1,310 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.jmltools.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary columnar format for datasets. Files are read by memory-mapping them,
+ * so no parsing is needed and the pages of a file are shared by all the JVMs
+ * of a node using it.
+ *
+ * <p>
+ *
+ * All the values are little-endian. A file contains:
+ * <ol>
+ * <li>The header: the magic number {@link #MAGIC}, the format version, the
+ * flags ({@link #FLAG_FLOAT32}, {@link #FLAG_LABELED}), the number of
+ * instances, the number of features and the number of classes (all of them
+ * ints).</li>
+ * <li>The class values, each one as an int length followed by its UTF-8
+ * bytes.</li>
+ * <li>Padding up to a multiple of 8 bytes.</li>
+ * <li>The columns of the features, one after another, as doubles or
+ * floats.</li>
+ * <li>The class index of each instance, as ints, for labeled data.</li>
+ * </ol>
+ *
+ * @author Jesús González
+ */
+public class BinaryDatasetFormat {
+
+	/** Magic number of the binary dataset files ("RSTD") */
+	public static final int MAGIC = 0x44545352;
+
+	/** Version of the format */
+	public static final int VERSION = 1;
+
+	/** Flag for values stored as floats */
+	public static final int FLAG_FLOAT32 = 1;
+
+	/** Flag for labeled data */
+	public static final int FLAG_LABELED = 2;
+
+	/** Charset of the class values */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Size of the buffer used to write the files */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** Maximum size of the regions of a file mapped at once */
+	private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+	/**
+	 * Return true if a file is a binary dataset
+	 *
+	 * @param file The file
+	 * @throws IOException If the file can not be read
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		if (file.length() < 4)
+			return false;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			raf.getChannel().read(magic, 0);
+			return magic.getInt(0) == MAGIC;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write a dataset
+	 *
+	 * @param data    The dataset
+	 * @param file    The output file
+	 * @param float32 Whether the values should be stored as floats
+	 * @throws IOException If the file can not be written
+	 */
+	public static void write(ColumnarData data, File file, boolean float32) throws IOException {
+		int nInstances = data.numInstances();
+		int nFeatures = data.numFeatures();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			/* Header */
+			List<Object> classValues = data.classValues();
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt((float32 ? FLAG_FLOAT32 : 0) | (data.isLabeled() ? FLAG_LABELED : 0));
+			buffer.putInt(nInstances);
+			buffer.putInt(nFeatures);
+			buffer.putInt(classValues.size());
+			long written = 24;
+			for (Object classValue : classValues) {
+				byte[] bytes = classValue.toString().getBytes(UTF8);
+				flushIfFull(channel, buffer, 4 + bytes.length);
+				buffer.putInt(bytes.length);
+				if (bytes.length <= buffer.remaining())
+					buffer.put(bytes);
+				else {
+					// values larger than the buffer are written straight to the file
+					flushIfFull(channel, buffer, BUFFER_SIZE);
+					ByteBuffer value = ByteBuffer.wrap(bytes);
+					while (value.hasRemaining())
+						channel.write(value);
+				}
+				written += 4 + bytes.length;
+			}
+			flushIfFull(channel, buffer, 8);
+			while (written % 8 != 0) {
+				buffer.put((byte) 0);
+				written++;
+			}
+
+			/* Columns */
+			for (int f = 0; f < nFeatures; f++) {
+				for (int i = 0; i < nInstances; i++) {
+					flushIfFull(channel, buffer, 8);
+					if (float32)
+						buffer.putFloat((float) data.get(i, f));
+					else
+						buffer.putDouble(data.get(i, f));
+				}
+			}
+
+			/* Labels */
+			if (data.isLabeled()) {
+				for (int i = 0; i < nInstances; i++) {
+					flushIfFull(channel, buffer, 4);
+					buffer.putInt(data.label(i));
+				}
+			}
+
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read a dataset by memory-mapping its file
+	 *
+	 * @param file The file
+	 * @return The dataset, backed by the mapped file
+	 * @throws IOException If the file can not be read or it is not a binary
+	 *                     dataset
+	 */
+	public static ColumnarData read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long fileSize = channel.size();
+
+			/* Header */
+			ByteBuffer header = readFully(channel, 0, 24);
+			if (header.getInt() != MAGIC)
+				throw new IOException(file + " is not a binary dataset");
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IOException(file + ": unsupported binary dataset version " + version);
+			int flags = header.getInt();
+			boolean float32 = (flags & FLAG_FLOAT32) != 0;
+			boolean labeled = (flags & FLAG_LABELED) != 0;
+			int nInstances = header.getInt();
+			int nFeatures = header.getInt();
+			int nClasses = header.getInt();
+
+			List<String> classValues = new ArrayList<String>();
+			long position = 24;
+			for (int c = 0; c < nClasses; c++) {
+				int length = readFully(channel, position, 4).getInt();
+				if (length < 0)
+					throw new IOException(file + " is corrupted");
+				position += 4;
+				classValues.add(new String(readFully(channel, position, length).array(), UTF8));
+				position += length;
+			}
+			position = (position + 7) & ~7L;
+
+			/* Columns */
+			int width = float32 ? 4 : 8;
+			long columnSize = (long) nInstances * width;
+			long expected = position + columnSize * nFeatures + (labeled ? 4L * nInstances : 0);
+			if (fileSize < expected)
+				throw new IOException(file + " is truncated");
+			if (columnSize > Integer.MAX_VALUE)
+				throw new IOException(file + ": columns larger than 2GB are not supported");
+
+			/*
+			 * The columns are sliced from a few large mappings, since each mapping
+			 * takes one of the limited memory areas of the process
+			 */
+			int columnsPerRegion = columnSize == 0 ? Math.max(nFeatures, 1)
+					: (int) Math.max(1, MAX_REGION_SIZE / columnSize);
+			DoubleBuffer[] doubleColumns = float32 ? null : new DoubleBuffer[nFeatures];
+			FloatBuffer[] floatColumns = float32 ? new FloatBuffer[nFeatures] : null;
+			for (int first = 0; first < nFeatures; first += columnsPerRegion) {
+				int nColumns = Math.min(columnsPerRegion, nFeatures - first);
+				ByteBuffer region = map(channel, position, columnSize * nColumns);
+				for (int c = 0; c < nColumns; c++) {
+					region.limit((int) (columnSize * (c + 1)));
+					region.position((int) (columnSize * c));
+					ByteBuffer column = region.slice().order(ByteOrder.LITTLE_ENDIAN);
+					if (float32)
+						floatColumns[first + c] = column.asFloatBuffer();
+					else
+						doubleColumns[first + c] = column.asDoubleBuffer();
+				}
+				position += columnSize * nColumns;
+			}
+
+			/* Labels */
+			IntBuffer labels = labeled ? map(channel, position, 4L * nInstances).asIntBuffer() : null;
+
+			// The mappings remain valid after closing the file
+			return new ColumnarData(nInstances, doubleColumns, floatColumns, labels, classValues);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Map a region of a file as a little-endian read-only buffer
+	 *
+	 * @param channel  The file channel
+	 * @param position Start of the region
+	 * @param size     Size of the region
+	 * @throws IOException If the region can not be mapped
+	 */
+	private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		return buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Read a region of a file into a little-endian heap buffer
+	 *
+	 * @param channel  The file channel
+	 * @param position Start of the region
+	 * @param size     Size of the region
+	 * @throws IOException If the region can not be read
+	 */
+	private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of the binary dataset");
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Write the buffer to the channel if there is not enough room for the given
+	 * number of bytes
+	 *
+	 * @param channel The file channel
+	 * @param buffer  The buffer
+	 * @param bytes   Number of bytes to be put into the buffer
+	 * @throws IOException If the buffer can not be written
+	 */
+	private static void flushIfFull(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,332 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.jmltools.data;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import net.sf.javaml.core.Dataset;
+import net.sf.javaml.core.DefaultDataset;
+import net.sf.javaml.core.DenseInstance;
+import net.sf.javaml.core.Instance;
+
+/**
+ * Primitive columnar storage for datasets. The values of each feature are
+ * stored contiguously in a primitive buffer, either of doubles or of floats,
+ * and the class of each instance is stored as an index into the list of class
+ * values of the dataset.
+ *
+ * <p>
+ *
+ * The buffers can be allocated in the heap or be views of a memory-mapped file
+ * (see {@link ristretto.jmltools.data.BinaryDatasetFormat}). Since only
+ * absolute accesses are used, the data can be read concurrently by several
+ * threads.
+ *
+ * @author Jesús González
+ */
+public class ColumnarData {
+
+	/** Number of instances */
+	private final int nInstances;
+
+	/** Number of features */
+	private final int nFeatures;
+
+	/** Feature columns, if stored as doubles */
+	private final DoubleBuffer[] doubleColumns;
+
+	/** Feature columns, if stored as floats */
+	private final FloatBuffer[] floatColumns;
+
+	/** Class index of each instance, or null if the data are unlabeled */
+	private final IntBuffer labels;
+
+	/** Class values */
+	private final List<Object> classValues = new ArrayList<Object>();
+
+	/** Index of each class value */
+	private final Map<Object, Integer> classIndices = new HashMap<Object, Integer>();
+
+	/**
+	 * Create an empty dataset in the heap
+	 *
+	 * @param nInstances Number of instances
+	 * @param nFeatures  Number of features
+	 * @param labeled    Whether the data are labeled
+	 * @param float32    Whether the values should be stored as floats
+	 */
+	public ColumnarData(int nInstances, int nFeatures, boolean labeled, boolean float32) {
+		this.nInstances = nInstances;
+		this.nFeatures = nFeatures;
+		if (float32) {
+			doubleColumns = null;
+			floatColumns = new FloatBuffer[nFeatures];
+			for (int f = 0; f < nFeatures; f++)
+				floatColumns[f] = FloatBuffer.allocate(nInstances);
+		} else {
+			floatColumns = null;
+			doubleColumns = new DoubleBuffer[nFeatures];
+			for (int f = 0; f < nFeatures; f++)
+				doubleColumns[f] = DoubleBuffer.allocate(nInstances);
+		}
+		labels = labeled ? IntBuffer.allocate(nInstances) : null;
+	}
+
+	/**
+	 * Create a dataset backed by existing buffers. Exactly one of doubleColumns
+	 * and floatColumns must be not null
+	 *
+	 * @param nInstances    Number of instances
+	 * @param doubleColumns Feature columns, if stored as doubles
+	 * @param floatColumns  Feature columns, if stored as floats
+	 * @param labels        Class index of each instance (null for unlabeled data)
+	 * @param classValues   Class values
+	 */
+	public ColumnarData(int nInstances, DoubleBuffer[] doubleColumns, FloatBuffer[] floatColumns,
+			IntBuffer labels, List<?> classValues) {
+		this.nInstances = nInstances;
+		this.nFeatures = doubleColumns != null ? doubleColumns.length : floatColumns.length;
+		this.doubleColumns = doubleColumns;
+		this.floatColumns = floatColumns;
+		this.labels = labels;
+		for (Object classValue : classValues)
+			classIndex(classValue);
+	}
+
+	/** Return the number of instances */
+	public int numInstances() {
+		return nInstances;
+	}
+
+	/** Return the number of features */
+	public int numFeatures() {
+		return nFeatures;
+	}
+
+	/** Return true if the values are stored as floats */
+	public boolean isFloat32() {
+		return floatColumns != null;
+	}
+
+	/** Return true if the data are labeled */
+	public boolean isLabeled() {
+		return labels != null;
+	}
+
+	/**
+	 * Return a value
+	 *
+	 * @param instance Index of the instance
+	 * @param feature  Index of the feature
+	 */
+	public double get(int instance, int feature) {
+		if (floatColumns != null)
+			return floatColumns[feature].get(instance);
+		return doubleColumns[feature].get(instance);
+	}
+
+	/**
+	 * Set a value
+	 *
+	 * @param instance Index of the instance
+	 * @param feature  Index of the feature
+	 * @param value    The value
+	 */
+	public void set(int instance, int feature, double value) {
+		if (floatColumns != null)
+			floatColumns[feature].put(instance, (float) value);
+		else
+			doubleColumns[feature].put(instance, value);
+	}
+
+	/**
+	 * Return the class index of an instance
+	 *
+	 * @param instance Index of the instance
+	 */
+	public int label(int instance) {
+		return labels.get(instance);
+	}
+
+	/**
+	 * Set the class index of an instance
+	 *
+	 * @param instance Index of the instance
+	 * @param label    The class index
+	 */
+	public void setLabel(int instance, int label) {
+		labels.put(instance, label);
+	}
+
+	/**
+	 * Return the class value of an instance, or null if the data are unlabeled
+	 *
+	 * @param instance Index of the instance
+	 */
+	public Object classValue(int instance) {
+		return labels == null ? null : classValues.get(labels.get(instance));
+	}
+
+	/** Return the class values */
+	public List<Object> classValues() {
+		return classValues;
+	}
+
+	/**
+	 * Return the index of a class value. New class values are appended to the
+	 * list of class values
+	 *
+	 * @param classValue The class value
+	 */
+	public synchronized int classIndex(Object classValue) {
+		Integer index = classIndices.get(classValue);
+		if (index == null) {
+			index = classValues.size();
+			classValues.add(classValue);
+			classIndices.put(classValue, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Return the feature columns, if stored as doubles, or null otherwise
+	 */
+	public DoubleBuffer[] doubleColumns() {
+		return doubleColumns;
+	}
+
+	/**
+	 * Return the feature columns, if stored as floats, or null otherwise
+	 */
+	public FloatBuffer[] floatColumns() {
+		return floatColumns;
+	}
+
+	/**
+	 * Return the values of an instance
+	 *
+	 * @param instance Index of the instance
+	 */
+	public double[] instance(int instance) {
+		double[] values = new double[nFeatures];
+		for (int f = 0; f < nFeatures; f++)
+			values[f] = get(instance, f);
+		return values;
+	}
+
+	/**
+	 * Convert the data to a Java-ML dataset
+	 *
+	 * @return A dataset of DenseInstances
+	 */
+	public Dataset toDataset() {
+		Dataset data = new DefaultDataset();
+		for (int i = 0; i < nInstances; i++)
+			data.add(new DenseInstance(instance(i), classValue(i)));
+		return data;
+	}
+
+	/**
+	 * Generate a Java-ML dataset containing only some selected features. The
+	 * values are widened to doubles, so the classifiers and clusterers working on
+	 * the projection accumulate in double precision even if the data are stored
+	 * as floats
+	 *
+	 * @param selected Set of selected features. Those out of range are ignored
+	 * @return A dataset of DenseInstances with the selected features
+	 */
+	public Dataset project(SortedSet<Integer> selected) {
+		SortedSet<Integer> validated = selected.subSet(0, nFeatures);
+		int[] features = new int[validated.size()];
+		int n = 0;
+		for (int f : validated)
+			features[n++] = f;
+
+		Dataset data = new DefaultDataset();
+		for (int i = 0; i < nInstances; i++) {
+			double[] values = new double[features.length];
+			if (floatColumns != null)
+				for (int j = 0; j < features.length; j++)
+					values[j] = floatColumns[features[j]].get(i);
+			else
+				for (int j = 0; j < features.length; j++)
+					values[j] = doubleColumns[features[j]].get(i);
+			data.add(new DenseInstance(values, classValue(i)));
+		}
+		return data;
+	}
+
+	/**
+	 * Return the data with the given storage. If the data are already stored
+	 * that way they are returned, otherwise a copy in the heap is returned
+	 *
+	 * @param float32 Whether the values should be stored as floats
+	 * @return The data with the given storage
+	 */
+	public ColumnarData withStorage(boolean float32) {
+		if (float32 == isFloat32())
+			return this;
+
+		ColumnarData copy = new ColumnarData(nInstances, nFeatures, isLabeled(), float32);
+		for (Object classValue : classValues)
+			copy.classIndex(classValue);
+		for (int f = 0; f < nFeatures; f++)
+			for (int i = 0; i < nInstances; i++)
+				copy.set(i, f, get(i, f));
+		if (labels != null)
+			for (int i = 0; i < nInstances; i++)
+				copy.setLabel(i, labels.get(i));
+		return copy;
+	}
+
+	/**
+	 * Convert a Java-ML dataset to columnar data
+	 *
+	 * @param data    The dataset
+	 * @param float32 Whether the values should be stored as floats
+	 * @return The columnar data
+	 */
+	public static ColumnarData fromDataset(Dataset data, boolean float32) {
+		int nFeatures = data.size() == 0 ? 0 : data.instance(0).noAttributes();
+		boolean labeled = data.size() > 0 && data.instance(0).classValue() != null;
+		ColumnarData columnar = new ColumnarData(data.size(), nFeatures, labeled, float32);
+
+		for (int i = 0; i < data.size(); i++) {
+			Instance instance = data.instance(i);
+			for (int f = 0; f < nFeatures; f++)
+				columnar.set(i, f, instance.value(f));
+			if (labeled)
+				columnar.setLabel(i, columnar.classIndex(instance.classValue()));
+		}
+
+		return columnar;
+	}
+}
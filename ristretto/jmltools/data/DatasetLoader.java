@@ -0,0 +1,97 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.jmltools.data;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.sf.javaml.core.Dataset;
+
+/**
+ * Load datasets stored either as whitespace-separated text files or as binary
+ * files (see {@link ristretto.jmltools.data.BinaryDatasetFormat}). The format
+ * is detected automatically. Text files are read with
+ * {@link ristretto.jmltools.data.TextDatasetParser}.
+ *
+ * @author Jesús González
+ */
+public class DatasetLoader {
+
+	/**
+	 * Load a dataset. The values are copied into Java-ML instances in the heap,
+	 * thus binary files do not remain mapped (see
+	 * {@link #loadColumnar(File, int, boolean)})
+	 *
+	 * @param file       The dataset file
+	 * @param classIndex Index of the column containing the labels in text files
+	 *                   (-1 for unlabeled data). Binary files already know their
+	 *                   labels, so it is ignored for them
+	 * @return The dataset
+	 * @throws IOException If the file can not be read
+	 */
+	public static Dataset load(File file, int classIndex) throws IOException {
+		if (BinaryDatasetFormat.isBinary(file))
+			return BinaryDatasetFormat.read(file).toDataset();
+
+		return TextDatasetParser.parse(file, classIndex).toDataset();
+	}
+
+	/**
+	 * Load a dataset into primitive columnar storage
+	 *
+	 * @param file       The dataset file
+	 * @param classIndex Index of the column containing the labels in text files
+	 *                   (-1 for unlabeled data). Binary files already know their
+	 *                   labels, so it is ignored for them
+	 * @return The dataset
+	 * @throws IOException If the file can not be read
+	 */
+	public static ColumnarData loadColumnar(File file, int classIndex) throws IOException {
+		if (BinaryDatasetFormat.isBinary(file))
+			return BinaryDatasetFormat.read(file);
+
+		return TextDatasetParser.parse(file, classIndex);
+	}
+
+	/**
+	 * Load a dataset into primitive columnar storage with a given precision.
+	 * Binary files stored with that precision remain mapped, so their pages are
+	 * shared by all the JVMs of a node using them. Binary files stored with a
+	 * different precision are copied into the heap
+	 *
+	 * @param file       The dataset file
+	 * @param classIndex Index of the column containing the labels in text files
+	 *                   (-1 for unlabeled data). Binary files already know their
+	 *                   labels, so it is ignored for them
+	 * @param float32    Whether the values should be stored as floats
+	 * @return The dataset
+	 * @throws IOException If the file can not be read
+	 */
+	public static ColumnarData loadColumnar(File file, int classIndex, boolean float32) throws IOException {
+		if (BinaryDatasetFormat.isBinary(file))
+			return BinaryDatasetFormat.read(file).withStorage(float32);
+
+		return TextDatasetParser.parse(file, classIndex, float32);
+	}
+}
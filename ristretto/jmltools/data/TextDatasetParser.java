@@ -0,0 +1,521 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.jmltools.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * High-throughput parser for whitespace-separated numeric text datasets. It
+ * produces the same data as Java-ML's
+ * <tt>FileHandler.loadDataset(file, classIndex, "\\s+")</tt>, but directly into
+ * a {@link ristretto.jmltools.data.ColumnarData}:
+ *
+ * <ul>
+ * <li>The file is memory-mapped and tokenized byte by byte, without regular
+ * expressions.</li>
+ * <li>Numbers are parsed straight from the bytes, without intermediate
+ * Strings. Only unusual tokens (more than 18 significant digits, large
+ * exponents, NaN, Infinity, ...) fall back to Double.parseDouble. Tokens that
+ * are not numbers are read as NaN.</li>
+ * <li>Class values are kept as Strings, but only one String is created for
+ * each different class.</li>
+ * <li>The file is split into chunks at line boundaries, which are parsed in
+ * parallel. Each chunk is first scanned to count its instances, so that every
+ * thread writes its instances directly at their final position.</li>
+ * </ul>
+ *
+ * Empty lines are ignored, and all the non-empty lines must have the same
+ * number of columns.
+ *
+ * @author Jesús González
+ */
+public class TextDatasetParser {
+
+	/** Maximum size of a chunk (and of a memory mapping) */
+	private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+	/** Exact powers of ten for the fast path of the number parsing */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/** Charset of the class values */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Parse a dataset using as many threads as available processors
+	 *
+	 * @param file       The dataset file
+	 * @param classIndex Index of the column containing the labels (-1 for
+	 *                   unlabeled data)
+	 * @return The dataset
+	 * @throws IOException If the file can not be read or it is malformed
+	 */
+	public static ColumnarData parse(File file, int classIndex) throws IOException {
+		return parse(file, classIndex, false);
+	}
+
+	/**
+	 * Parse a dataset using as many threads as available processors
+	 *
+	 * @param file       The dataset file
+	 * @param classIndex Index of the column containing the labels (-1 for
+	 *                   unlabeled data)
+	 * @param float32    Whether the values should be stored as floats
+	 * @return The dataset
+	 * @throws IOException If the file can not be read or it is malformed
+	 */
+	public static ColumnarData parse(File file, int classIndex, boolean float32) throws IOException {
+		return parse(file, classIndex, float32, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Parse a dataset
+	 *
+	 * @param file       The dataset file
+	 * @param classIndex Index of the column containing the labels (-1 for
+	 *                   unlabeled data)
+	 * @param float32    Whether the values should be stored as floats
+	 * @param nThreads   Number of parsing threads
+	 * @return The dataset
+	 * @throws IOException If the file can not be read or it is malformed
+	 */
+	public static ColumnarData parse(File file, int classIndex, boolean float32, int nThreads)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+
+			/* Split the file into chunks at line boundaries */
+			int nChunks = (int) Math.max(Math.max(1, nThreads), (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+			List<Long> bounds = new ArrayList<Long>();
+			bounds.add(0L);
+			for (int c = 1; c < nChunks; c++) {
+				long bound = nextLine(channel, size * c / nChunks, size);
+				if (bound > bounds.get(bounds.size() - 1) && bound < size)
+					bounds.add(bound);
+			}
+			bounds.add(size);
+
+			final Chunk[] chunks = new Chunk[bounds.size() - 1];
+			for (int c = 0; c < chunks.length; c++) {
+				long start = bounds.get(c);
+				chunks[c] = new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, bounds.get(c + 1) - start));
+			}
+
+			/* Count the instances of each chunk */
+			int nColumns = -1;
+			for (final Chunk chunk : chunks)
+				if ((nColumns = chunk.firstLineColumns()) > 0)
+					break;
+			if (nColumns <= 0)
+				return new ColumnarData(0, 0, false, float32);
+
+			runInParallel(chunks, nThreads, new ChunkTask() {
+				public void run(Chunk chunk) {
+					chunk.countInstances();
+				}
+			});
+
+			int nInstances = 0;
+			for (Chunk chunk : chunks) {
+				chunk.firstInstance = nInstances;
+				nInstances += chunk.nInstances;
+			}
+
+			/* Parse the chunks */
+			boolean labeled = classIndex >= 0 && classIndex < nColumns;
+			final ColumnarData data = new ColumnarData(nInstances, labeled ? nColumns - 1 : nColumns, labeled,
+					float32);
+			final int columns = nColumns;
+			final int labelColumn = labeled ? classIndex : -1;
+			runInParallel(chunks, nThreads, new ChunkTask() {
+				public void run(Chunk chunk) throws IOException {
+					chunk.parse(data, columns, labelColumn);
+				}
+			});
+
+			return data;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Return the position following the first end of line found at or after a
+	 * given position
+	 *
+	 * @param channel  The file channel
+	 * @param position The position
+	 * @param size     Size of the file
+	 * @throws IOException If the file can not be read
+	 */
+	private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; i++)
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Run a task over all the chunks with several threads
+	 *
+	 * @param chunks   The chunks
+	 * @param nThreads Number of threads
+	 * @param task     The task
+	 * @throws IOException If any task fails
+	 */
+	private static void runInParallel(final Chunk[] chunks, int nThreads, final ChunkTask task) throws IOException {
+		final IOException[] failure = new IOException[1];
+		final int[] next = { 0 };
+		Thread[] threads = new Thread[Math.max(1, Math.min(nThreads, chunks.length))];
+
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					while (true) {
+						int c;
+						synchronized (next) {
+							if (next[0] >= chunks.length || failure[0] != null)
+								return;
+							c = next[0]++;
+						}
+						try {
+							task.run(chunks[c]);
+						} catch (IOException e) {
+							synchronized (next) {
+								failure[0] = e;
+							}
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while parsing");
+			}
+		}
+
+		if (failure[0] != null)
+			throw failure[0];
+	}
+
+	/**
+	 * Task run over a chunk
+	 */
+	private interface ChunkTask {
+		/**
+		 * Run the task
+		 *
+		 * @param chunk The chunk
+		 * @throws IOException If the chunk is malformed
+		 */
+		void run(Chunk chunk) throws IOException;
+	}
+
+	/**
+	 * Return true if a byte is a whitespace
+	 *
+	 * @param b The byte
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+
+	/**
+	 * Parse the number stored in a range of bytes without creating Strings. If
+	 * the bytes are not a number, NaN is returned
+	 *
+	 * @param bytes The bytes
+	 * @param start First byte of the number
+	 * @param end   Last byte of the number (exclusive)
+	 * @return The number
+	 */
+	public static double parseDouble(ByteBuffer bytes, int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		byte b = bytes.get(pos);
+		if (b == '-' || b == '+') {
+			negative = b == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0; // significant digits
+		int exponent = 0;
+		boolean anyDigit = false;
+
+		/* Integer part */
+		for (; pos < end && (b = bytes.get(pos)) >= '0' && b <= '9'; pos++) {
+			anyDigit = true;
+			if (digits < 18) {
+				mantissa = mantissa * 10 + (b - '0');
+				if (mantissa != 0)
+					digits++;
+			} else
+				exponent++;
+		}
+
+		/* Fractional part */
+		if (pos < end && bytes.get(pos) == '.') {
+			pos++;
+			for (; pos < end && (b = bytes.get(pos)) >= '0' && b <= '9'; pos++) {
+				anyDigit = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (mantissa != 0)
+						digits++;
+					exponent--;
+				}
+			}
+		}
+
+		/* Exponent */
+		if (anyDigit && pos < end && ((b = bytes.get(pos)) == 'e' || b == 'E')) {
+			pos++;
+			boolean negativeExp = false;
+			if (pos < end && ((b = bytes.get(pos)) == '-' || b == '+')) {
+				negativeExp = b == '-';
+				pos++;
+			}
+			int exp = 0;
+			boolean anyExpDigit = false;
+			for (; pos < end && (b = bytes.get(pos)) >= '0' && b <= '9'; pos++) {
+				anyExpDigit = true;
+				if (exp < 100000)
+					exp = exp * 10 + (b - '0');
+			}
+			if (!anyExpDigit)
+				return slowParseDouble(bytes, start, end);
+			exponent += negativeExp ? -exp : exp;
+		}
+
+		if (!anyDigit || pos != end || digits >= 18)
+			return slowParseDouble(bytes, start, end);
+
+		/*
+		 * The mantissa (< 10^18) is exact only below 2^53. Then, a product or a
+		 * division by an exact power of ten is correctly rounded
+		 */
+		double value;
+		if (mantissa == 0)
+			value = 0.0;
+		else if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22)
+			value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+		else
+			return slowParseDouble(bytes, start, end);
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse the number stored in a range of bytes with Double.parseDouble. If
+	 * the bytes are not a number, NaN is returned
+	 *
+	 * @param bytes The bytes
+	 * @param start First byte of the number
+	 * @param end   Last byte of the number (exclusive)
+	 */
+	private static double slowParseDouble(ByteBuffer bytes, int start, int end) {
+		byte[] value = new byte[end - start];
+		for (int i = 0; i < value.length; i++)
+			value[i] = bytes.get(start + i);
+		try {
+			return Double.parseDouble(new String(value, UTF8));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Chunk of a file, made of complete lines
+	 */
+	private static class Chunk {
+
+		/** Bytes of the chunk */
+		private final ByteBuffer bytes;
+
+		/** Number of instances in the chunk */
+		int nInstances;
+
+		/** Index of the first instance of the chunk */
+		int firstInstance;
+
+		/** Class values of the chunk as bytes */
+		private final List<byte[]> classBytes = new ArrayList<byte[]>();
+
+		/** Global index of each class value of the chunk */
+		private final List<Integer> classIndices = new ArrayList<Integer>();
+
+		/**
+		 * Create a chunk
+		 *
+		 * @param bytes Bytes of the chunk
+		 */
+		Chunk(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Return the number of columns of the first non-empty line of the chunk, or
+		 * 0 if all the lines are empty
+		 */
+		int firstLineColumns() {
+			int limit = bytes.limit();
+			int pos = 0;
+			while (pos < limit) {
+				int columns = 0;
+				boolean inToken = false;
+				byte b = 0;
+				for (; pos < limit && (b = bytes.get(pos)) != '\n'; pos++) {
+					boolean space = isSpace(b);
+					if (!space && !inToken)
+						columns++;
+					inToken = !space;
+				}
+				pos++;
+				if (columns > 0)
+					return columns;
+			}
+			return 0;
+		}
+
+		/**
+		 * Count the non-empty lines of the chunk
+		 */
+		void countInstances() {
+			int limit = bytes.limit();
+			boolean empty = true;
+			for (int pos = 0; pos < limit; pos++) {
+				byte b = bytes.get(pos);
+				if (b == '\n') {
+					if (!empty)
+						nInstances++;
+					empty = true;
+				} else if (!isSpace(b))
+					empty = false;
+			}
+			if (!empty)
+				nInstances++;
+		}
+
+		/**
+		 * Parse the chunk
+		 *
+		 * @param data        The dataset being filled
+		 * @param nColumns    Number of columns of each line
+		 * @param labelColumn Index of the column containing the labels (-1 for
+		 *                    unlabeled data)
+		 * @throws IOException If a line has a wrong number of columns
+		 */
+		void parse(ColumnarData data, int nColumns, int labelColumn) throws IOException {
+			int limit = bytes.limit();
+			int pos = 0;
+			int instance = firstInstance;
+
+			while (pos < limit) {
+				int column = 0;
+				int feature = 0;
+
+				while (pos < limit) {
+					// skip whitespaces within the line
+					byte b = bytes.get(pos);
+					while (b != '\n' && isSpace(b) && ++pos < limit)
+						b = bytes.get(pos);
+					if (pos >= limit || b == '\n')
+						break;
+
+					int start = pos;
+					while (pos < limit && !isSpace(bytes.get(pos)))
+						pos++;
+
+					if (column >= nColumns)
+						throw new IOException("Line with more than " + nColumns + " columns found");
+					if (column == labelColumn)
+						data.setLabel(instance, classIndex(data, start, pos));
+					else
+						data.set(instance, feature++, parseDouble(bytes, start, pos));
+					column++;
+				}
+				pos++; // skip the end of line
+
+				if (column > 0) {
+					if (column != nColumns)
+						throw new IOException("Line with " + column + " columns found, " + nColumns + " expected");
+					instance++;
+				}
+			}
+		}
+
+		/**
+		 * Return the global index of the class value stored in a range of bytes
+		 *
+		 * @param data  The dataset being filled
+		 * @param start First byte of the class value
+		 * @param end   Last byte of the class value (exclusive)
+		 */
+		private int classIndex(ColumnarData data, int start, int end) {
+			int length = end - start;
+			for (int c = 0; c < classBytes.size(); c++) {
+				byte[] known = classBytes.get(c);
+				if (known.length != length)
+					continue;
+				int i = 0;
+				while (i < length && known[i] == bytes.get(start + i))
+					i++;
+				if (i == length)
+					return classIndices.get(c);
+			}
+
+			byte[] value = new byte[length];
+			for (int i = 0; i < length; i++)
+				value[i] = bytes.get(start + i);
+			int index = data.classIndex(new String(value, UTF8));
+			classBytes.add(value);
+			classIndices.add(index);
+			return index;
+		}
+	}
+}
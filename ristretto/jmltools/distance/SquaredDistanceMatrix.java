@@ -0,0 +1,178 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.jmltools.distance;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import ristretto.jmltools.data.ColumnarData;
+
+/**
+ * Squared Euclidean distances between all the pairs of instances of a dataset,
+ * considering only some selected features. Squared distances are additive over
+ * the features, so the matrix of a similar subset of features can be obtained
+ * by adding and subtracting only the contributions of the features that
+ * differ, instead of computing all the distances again (see
+ * {@link #update(SortedSet)}).
+ *
+ * <p>
+ *
+ * The matrix is stored as a packed lower triangle of n(n-1)/2 doubles and is
+ * never modified once built, so it can be shared by several threads and by
+ * several individuals. The rounding errors of the updates are bounded by
+ * computing the matrix from scratch after {@link #MAX_UPDATES} consecutive
+ * updates.
+ *
+ * @author Jesús González
+ */
+public class SquaredDistanceMatrix {
+
+	/** Maximum number of consecutive updates before computing from scratch */
+	public static final int MAX_UPDATES = 32;
+
+	/** The dataset */
+	private final ColumnarData data;
+
+	/** The selected features */
+	private final TreeSet<Integer> features;
+
+	/** Distances of each instance to the previous ones, row after row */
+	private final double[] distances;
+
+	/** Number of updates since the matrix was computed from scratch */
+	private final int updates;
+
+	/**
+	 * Compute the distances between the instances of a dataset
+	 *
+	 * @param data     The dataset
+	 * @param features The selected features. Features out of the dataset are
+	 *                 ignored
+	 */
+	public SquaredDistanceMatrix(ColumnarData data, SortedSet<Integer> features) {
+		this.data = data;
+		this.features = new TreeSet<Integer>(features.subSet(0, data.numFeatures()));
+		this.updates = 0;
+
+		long n = data.numInstances();
+		if (n * (n - 1) / 2 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many instances for a distance matrix: " + n);
+		distances = new double[(int) (n * (n - 1) / 2)];
+		for (int feature : this.features)
+			add(feature, 1);
+	}
+
+	/**
+	 * Create a matrix from the distances of other features
+	 *
+	 * @param data      The dataset
+	 * @param features  The selected features
+	 * @param distances The distances, which are modified
+	 * @param updates   Number of updates since they were computed from scratch
+	 */
+	private SquaredDistanceMatrix(ColumnarData data, TreeSet<Integer> features, double[] distances, int updates) {
+		this.data = data;
+		this.features = features;
+		this.distances = distances;
+		this.updates = updates;
+	}
+
+	/**
+	 * Return the distance matrix of another subset of features. Only the
+	 * features added or removed are processed, unless they are more than the
+	 * features of the new subset
+	 *
+	 * @param newFeatures The new subset of features
+	 * @return The distance matrix for newFeatures (this if they are the same)
+	 */
+	public SquaredDistanceMatrix update(SortedSet<Integer> newFeatures) {
+		TreeSet<Integer> selected = new TreeSet<Integer>(newFeatures.subSet(0, data.numFeatures()));
+		if (selected.equals(features))
+			return this;
+
+		TreeSet<Integer> added = new TreeSet<Integer>(selected);
+		added.removeAll(features);
+		TreeSet<Integer> removed = new TreeSet<Integer>(features);
+		removed.removeAll(selected);
+
+		if (added.size() + removed.size() >= selected.size() || updates >= MAX_UPDATES)
+			return new SquaredDistanceMatrix(data, selected);
+
+		SquaredDistanceMatrix matrix = new SquaredDistanceMatrix(data, selected, distances.clone(), updates + 1);
+		for (int feature : added)
+			matrix.add(feature, 1);
+		for (int feature : removed)
+			matrix.add(feature, -1);
+		return matrix;
+	}
+
+	/**
+	 * Add the contribution of a feature to the distances
+	 *
+	 * @param feature The feature
+	 * @param sign    1 to add the feature, -1 to remove it
+	 */
+	private void add(int feature, double sign) {
+		int n = data.numInstances();
+		double[] column = new double[n];
+		for (int i = 0; i < n; i++)
+			column[i] = data.get(i, feature);
+
+		for (int i = 1, p = 0; i < n; i++) {
+			double value = column[i];
+			for (int j = 0; j < i; j++, p++) {
+				double diff = value - column[j];
+				distances[p] += sign * diff * diff;
+			}
+		}
+	}
+
+	/**
+	 * Return the squared distance between two instances
+	 *
+	 * @param i An instance
+	 * @param j Another instance
+	 */
+	public double get(int i, int j) {
+		if (i == j)
+			return 0;
+		if (i < j) {
+			int tmp = i;
+			i = j;
+			j = tmp;
+		}
+		// removing features may leave tiny negative rounding errors
+		return Math.max(0, distances[(int) ((long) i * (i - 1) / 2) + j]);
+	}
+
+	/** Return the number of instances */
+	public int size() {
+		return data.numInstances();
+	}
+
+	/** Return the number of updates since the matrix was computed from scratch */
+	public int updates() {
+		return updates;
+	}
+}
@@ -0,0 +1,379 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.problem.fs.subset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent archive of the evaluations of feature subsets, shared by several
+ * runs. Each evaluation is stored along with a 64-bit context, which summarizes
+ * the dataset and the configuration of the problem that evaluated the subset,
+ * thus the same file can hold the evaluations of different problems.
+ *
+ * <p>
+ *
+ * The archive file is append-only. After a small header, it contains one record
+ * per evaluation: the length of the record, the context, the number of values,
+ * the values and the subset, packed as in
+ * {@link ristretto.problem.fs.subset.FSSubsetIndividual#writeGenome(java.io.DataOutput, TreeSet)}.
+ * Records are appended in a single write while holding an exclusive lock on the
+ * file, and they are read by memory-mapping the part of the file not read yet
+ * while holding a shared lock. Thus several processes can use the same archive
+ * at the same time. The records appended by other processes are read when a
+ * subset is not found in memory.
+ *
+ * <p>
+ *
+ * All the methods are thread-safe.
+ *
+ * @author Jesús González
+ */
+public class FSSubsetEvaluationArchive {
+
+	/** Magic number at the beginning of the archive files */
+	public static final int MAGIC = 0x52455641; // "REVA"
+
+	/** Version of the archive format */
+	public static final int VERSION = 1;
+
+	/** Length of the file header */
+	private static final int HEADER_LENGTH = 8;
+
+	/** The archive file */
+	private final RandomAccessFile file;
+
+	/** Channel of the archive file */
+	private final FileChannel channel;
+
+	/** Length of the part of the file already read */
+	private long scanned;
+
+	/** Evaluations read or written so far, indexed by context and subset */
+	private final ConcurrentHashMap<Key, double[]> evaluations = new ConcurrentHashMap<Key, double[]>();
+
+	/**
+	 * Open an archive, creating it if it does not exist, and read its
+	 * evaluations
+	 *
+	 * @param path The archive file
+	 * @throws IOException If the archive can not be opened or it is not a valid
+	 *                     archive
+	 */
+	public FSSubsetEvaluationArchive(File path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+
+		FileLock lock = channel.lock();
+		try {
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				while (header.hasRemaining())
+					channel.write(header, header.position());
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+				;
+			header.flip();
+			if (header.remaining() < HEADER_LENGTH || header.getInt() != MAGIC)
+				throw new IOException(path + " is not an evaluation archive");
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported evaluation archive version " + version);
+
+			scanned = HEADER_LENGTH;
+			scan();
+
+			// an incomplete record can only be left by a process that crashed
+			if (channel.size() > scanned)
+				channel.truncate(scanned);
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Close the archive
+	 *
+	 * @throws IOException If the file can not be closed
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Return the number of evaluations in memory
+	 */
+	public int size() {
+		return evaluations.size();
+	}
+
+	/**
+	 * Return the archived values of a subset, or null if it has not been
+	 * evaluated in the given context
+	 *
+	 * @param context The context
+	 * @param subset  The subset
+	 * @return The values, or null
+	 * @throws IOException If the archive can not be read
+	 */
+	public double[] get(long context, TreeSet<Integer> subset) throws IOException {
+		Key key = new Key(encode(context, subset));
+		double[] values = evaluations.get(key);
+		if (values == null) {
+			// another process may have evaluated it
+			refresh();
+			values = evaluations.get(key);
+		}
+		return values == null ? null : values.clone();
+	}
+
+	/**
+	 * Archive the values of a subset
+	 *
+	 * @param context The context
+	 * @param subset  The subset
+	 * @param values  The values
+	 * @throws IOException If the archive can not be written
+	 */
+	public void put(long context, TreeSet<Integer> subset, double[] values) throws IOException {
+		byte[] key = encode(context, subset);
+		if (evaluations.putIfAbsent(new Key(key), values.clone()) != null)
+			return;
+
+		// length, context, number of values, values and subset
+		int length = 8 + 4 + 8 * values.length + key.length - 8;
+		ByteBuffer record = ByteBuffer.allocate(4 + length);
+		record.putInt(length);
+		record.put(key, 0, 8);
+		record.putInt(values.length);
+		for (double value : values)
+			record.putDouble(value);
+		record.put(key, 8, key.length - 8);
+		record.flip();
+
+		synchronized (this) {
+			FileLock lock = channel.lock();
+			try {
+				long position = channel.size();
+				while (record.hasRemaining())
+					position += channel.write(record, position);
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Read the records appended since the last read
+	 *
+	 * @throws IOException If the archive can not be read
+	 */
+	public synchronized void refresh() throws IOException {
+		long size = channel.size();
+		if (size <= scanned)
+			return;
+
+		FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+		try {
+			scan();
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Read the complete records appended since the last read. The file must be
+	 * locked
+	 *
+	 * @throws IOException If the archive can not be read
+	 */
+	private void scan() throws IOException {
+		long size = channel.size();
+		while (scanned < size) {
+			long length = Math.min(size - scanned, Integer.MAX_VALUE);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, scanned, length);
+			int read = readRecords(map);
+			if (read == 0)
+				break;
+			scanned += read;
+		}
+	}
+
+	/**
+	 * Read the complete records of a region of the file
+	 *
+	 * @param map The region
+	 * @return The number of bytes read
+	 * @throws IOException If a record is corrupted
+	 */
+	private int readRecords(ByteBuffer map) throws IOException {
+		int start = 0;
+		while (map.remaining() >= 4) {
+			int length = map.getInt(start);
+			if (length < 12)
+				throw new IOException("Corrupted evaluation archive");
+			if (map.remaining() < 4 + length)
+				break;
+
+			byte[] key = new byte[8 + length - 12];
+			map.position(start + 4);
+			map.get(key, 0, 8);
+			int nValues = map.getInt();
+			double[] values = new double[nValues];
+			for (int v = 0; v < nValues; v++)
+				values[v] = map.getDouble();
+			int subsetLength = length - 12 - 8 * nValues;
+			if (subsetLength < 0)
+				throw new IOException("Corrupted evaluation archive");
+			key = Arrays.copyOf(key, 8 + subsetLength);
+			map.get(key, 8, subsetLength);
+
+			evaluations.putIfAbsent(new Key(key), values);
+			start += 4 + length;
+			map.position(start);
+		}
+		return start;
+	}
+
+	/**
+	 * Encode the context and the subset of an evaluation
+	 *
+	 * @param context The context
+	 * @param subset  The subset
+	 * @return The context followed by the packed subset
+	 */
+	private static byte[] encode(long context, TreeSet<Integer> subset) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + subset.size() + 4);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeLong(context);
+			FSSubsetIndividual.writeGenome(out, subset);
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// never thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Fingerprint of the content of a file, such as a dataset
+	 *
+	 * @param path The file
+	 * @return A 64-bit hash of the content of the file
+	 * @throws IOException If the file can not be read
+	 */
+	public static long fingerprint(File path) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(path, "r");
+		try {
+			FileChannel fileChannel = in.getChannel();
+			long size = fileChannel.size();
+			long hash = mix(size);
+			for (long position = 0; position < size;) {
+				long length = Math.min(size - position, 1L << 30);
+				MappedByteBuffer map = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				while (map.remaining() >= 8)
+					hash = mix(hash ^ map.getLong()) + 0x9E3779B97F4A7C15L;
+				while (map.hasRemaining())
+					hash = mix(hash ^ map.get()) + 0x9E3779B97F4A7C15L;
+				position += length;
+			}
+			return hash;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Context of the evaluations of a problem
+	 *
+	 * @param fingerprint   Fingerprint of the dataset
+	 * @param configuration Description of the configuration of the problem
+	 * @return A 64-bit hash of both
+	 */
+	public static long context(long fingerprint, String configuration) {
+		long hash = mix(fingerprint);
+		for (byte b : configuration.getBytes(Charset.forName("UTF-8")))
+			hash = mix(hash ^ b) + 0x9E3779B97F4A7C15L;
+		return hash;
+	}
+
+	/**
+	 * 64-bit finalizer of MurmurHash3
+	 *
+	 * @param h The value
+	 * @return The mixed value
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Key of an evaluation, the encoded context and subset
+	 */
+	private static class Key {
+
+		/** Encoded context and subset */
+		private final byte[] bytes;
+
+		/** Hash code */
+		private final int hash;
+
+		/**
+		 * Create a key
+		 *
+		 * @param bytes Encoded context and subset
+		 */
+		Key(byte[] bytes) {
+			this.bytes = bytes;
+			this.hash = Arrays.hashCode(bytes);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(bytes, ((Key) other).bytes);
+		}
+	}
+}
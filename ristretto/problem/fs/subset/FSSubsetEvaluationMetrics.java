@@ -0,0 +1,167 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.problem.fs.subset;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low-overhead counters and timers of the evaluation of feature subsets. The
+ * problems add the time spent in each phase of the evaluation, the number of
+ * evaluations, archive hits and selected features, and
+ * {@link ristretto.problem.fs.subset.FSSubsetEvaluationStatistics} drains them
+ * once per generation.
+ *
+ * <p>
+ *
+ * The counters are striped by evaluation thread, so the threads do not contend
+ * for the same cache lines. Each stripe is an atomic array, thus several
+ * threads may share a stripe and the counters can be drained while the
+ * individuals are being evaluated, as in asynchronous evolution.
+ *
+ * @author Jesús González
+ */
+public class FSSubsetEvaluationMetrics {
+
+	/** Projection of the selected features */
+	public static final int PROJECTION = 0;
+
+	/** Split of the training and validation datasets */
+	public static final int SPLIT = 1;
+
+	/** Linear Discriminant Analysis */
+	public static final int LDA = 2;
+
+	/** Training of the classifier */
+	public static final int TRAINING = 3;
+
+	/** Prediction of the classifier */
+	public static final int PREDICTION = 4;
+
+	/** Clustering */
+	public static final int CLUSTERING = 5;
+
+	/** Scoring of the cluster validity indices */
+	public static final int CVI = 6;
+
+	/** Number of phases */
+	public static final int N_PHASES = 7;
+
+	/** Names of the phases */
+	public static final String[] PHASE_NAMES = { "projection", "split", "lda", "training", "prediction",
+			"clustering", "cvi" };
+
+	/** Number of evaluations, including the archived ones */
+	public static final int EVALUATIONS = N_PHASES;
+
+	/** Number of evaluations found in the archive */
+	public static final int ARCHIVE_HITS = N_PHASES + 1;
+
+	/** Sum of the number of selected features of the evaluated individuals */
+	public static final int GENOME_SIZE = N_PHASES + 2;
+
+	/** Number of counters, including the time of each phase */
+	public static final int N_COUNTERS = N_PHASES + 3;
+
+	/** Names of the counters */
+	public static final String[] COUNTER_NAMES = { "projection_ns", "split_ns", "lda_ns", "training_ns",
+			"prediction_ns", "clustering_ns", "cvi_ns", "evaluations", "archive_hits", "genome_size" };
+
+	/** Distance between the counters of two stripes, to avoid false sharing */
+	private static final int STRIDE = 16;
+
+	/** Counters of each stripe */
+	private final AtomicLongArray[] stripes;
+
+	/**
+	 * Create the counters
+	 *
+	 * @param nStripes Number of stripes, usually the number of evaluation threads
+	 */
+	public FSSubsetEvaluationMetrics(int nStripes) {
+		stripes = new AtomicLongArray[Math.max(1, nStripes)];
+		for (int s = 0; s < stripes.length; s++)
+			stripes[s] = new AtomicLongArray(((N_COUNTERS + STRIDE - 1) / STRIDE + 1) * STRIDE);
+	}
+
+	/**
+	 * Return the current time, to be passed later to
+	 * {@link #stop(int, int, long)}
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Add the time elapsed since a start time to a phase
+	 *
+	 * @param thread The evaluation thread
+	 * @param phase  The phase
+	 * @param start  The start time, as returned by {@link #start()}
+	 * @return The current time, so that the next phase can be timed from it
+	 */
+	public long stop(int thread, int phase, long start) {
+		long now = System.nanoTime();
+		add(thread, phase, now - start);
+		return now;
+	}
+
+	/**
+	 * Add a value to a counter
+	 *
+	 * @param thread  The evaluation thread
+	 * @param counter The counter
+	 * @param value   The value
+	 */
+	public void add(int thread, int counter, long value) {
+		stripes[thread % stripes.length].addAndGet(counter, value);
+	}
+
+	/**
+	 * Count an evaluation
+	 *
+	 * @param thread    The evaluation thread
+	 * @param nFeatures Number of selected features of the individual
+	 * @param archived  Whether the evaluation was found in the archive
+	 */
+	public void countEvaluation(int thread, int nFeatures, boolean archived) {
+		AtomicLongArray stripe = stripes[thread % stripes.length];
+		stripe.incrementAndGet(EVALUATIONS);
+		stripe.addAndGet(GENOME_SIZE, nFeatures);
+		if (archived)
+			stripe.incrementAndGet(ARCHIVE_HITS);
+	}
+
+	/**
+	 * Return the totals of all the counters and reset them
+	 *
+	 * @return The value of each counter
+	 */
+	public long[] drain() {
+		long[] totals = new long[N_COUNTERS];
+		for (AtomicLongArray stripe : stripes)
+			for (int c = 0; c < N_COUNTERS; c++)
+				totals[c] += stripe.getAndSet(c, 0);
+		return totals;
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.problem.fs.subset;
+
+import java.io.File;
+import java.io.IOException;
+
+import ec.EvolutionState;
+import ec.Statistics;
+import ec.util.Parameter;
+
+/**
+ * Statistics that dump the evaluation metrics of
+ * {@link ristretto.problem.fs.subset.FSSubsetProblem}s once per generation.
+ * After the evaluation of each generation, the counters of
+ * {@link ristretto.problem.fs.subset.FSSubsetEvaluationMetrics} are drained and
+ * a line is written with the generation, the time spent in each phase of the
+ * evaluation (in nanoseconds, summed over all the evaluation threads), the
+ * number of evaluations, the number of archive hits and the sum of the number
+ * of selected features of the evaluated individuals.
+ *
+ * <p>
+ *
+ * The lines can be written as CSV, with a header line, or as JSON, one object
+ * per line. The evaluations done by remote workers, such as those of
+ * {@link ristretto.problem.fs.subset.distributed.FSSubsetDistributedEvaluator},
+ * are not counted. These statistics are usually added as a child of the main
+ * statistics:
+ *
+ * <p>
+ * <tt>stat.num-children = 1<br>
+ * stat.child.0 = ristretto.problem.fs.subset.FSSubsetEvaluationStatistics<br>
+ * stat.child.0.file = $evaluation.csv</tt>
+ *
+ * <p>
+ * <b>Parameters</b><br>
+ * <table>
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>file</tt><br>
+ * <font size=-1>String (a filename)</font></td>
+ * <td valign=top>(The metrics file)</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>format</tt><br>
+ * <font size=-1>String: csv (default) or json</font></td>
+ * <td valign=top>(Format of the metrics file)</td>
+ * </tr>
+ * </table>
+ *
+ * @author Jesús González
+ */
+public class FSSubsetEvaluationStatistics extends Statistics {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Parameter for the metrics file */
+	public static final String P_FILE = "file";
+
+	/** Parameter for the format of the metrics file */
+	public static final String P_FORMAT = "format";
+
+	/** CSV format */
+	public static final String V_CSV = "csv";
+
+	/** JSON format */
+	public static final String V_JSON = "json";
+
+	/** The metrics log */
+	public int metricsLog;
+
+	/** Whether the lines are written as JSON */
+	public boolean json;
+
+	/**
+	 * Set up the statistics by reading it from the parameters stored in state,
+	 * built off of the parameter base base.
+	 * 
+	 * @param state The evolution state
+	 * @param base  The parameter base
+	 */
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+
+		String format = state.parameters.getStringWithDefault(base.push(P_FORMAT), null, V_CSV);
+		if (format.equalsIgnoreCase(V_JSON))
+			json = true;
+		else if (!format.equalsIgnoreCase(V_CSV))
+			state.output.fatal("The format of the evaluation metrics should be csv or json.", base.push(P_FORMAT));
+
+		File file = state.parameters.getFile(base.push(P_FILE), null);
+		if (file == null)
+			state.output.fatal("No evaluation metrics file specified.", base.push(P_FILE));
+
+		try {
+			metricsLog = state.output.addLog(file, true);
+		} catch (IOException e) {
+			state.output.fatal("An IOException occurred while trying to create the log " + file + ":\n" + e);
+		}
+
+		if (!json) {
+			StringBuilder header = new StringBuilder("generation");
+			for (String name : FSSubsetEvaluationMetrics.COUNTER_NAMES)
+				header.append("," + name);
+			state.output.println(header.toString(), metricsLog);
+		}
+	}
+
+	/**
+	 * Write the metrics of the evaluation of the current generation
+	 * 
+	 * @param state The evolution state
+	 */
+	public void postEvaluationStatistics(final EvolutionState state) {
+		super.postEvaluationStatistics(state);
+
+		if (!(state.evaluator.p_problem instanceof FSSubsetProblem))
+			return;
+
+		long[] totals = ((FSSubsetProblem) state.evaluator.p_problem).metrics.drain();
+
+		StringBuilder line = new StringBuilder();
+		if (json) {
+			line.append("{\"generation\":" + state.generation);
+			for (int c = 0; c < totals.length; c++)
+				line.append(",\"" + FSSubsetEvaluationMetrics.COUNTER_NAMES[c] + "\":" + totals[c]);
+			line.append("}");
+		} else {
+			line.append(state.generation);
+			for (long total : totals)
+				line.append("," + total);
+		}
+		state.output.println(line.toString(), metricsLog);
+	}
+}
@@ -0,0 +1,364 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.problem.fs.subset;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Genome of a {@link FSSubsetIndividual}: a sorted set of feature indices that
+ * keeps a 64-bit fingerprint of its content. The fingerprint is the XOR of a
+ * pseudo-random key of each feature (Zobrist hashing), so it is updated in O(1)
+ * each time a feature is added or removed, and it does not depend on the order
+ * of the operations. The keys are derived from the feature indices, thus the
+ * fingerprints are the same in all the runs and processes and can be used as
+ * keys of evaluation caches.
+ *
+ * <p>
+ *
+ * The fingerprint is kept by the methods of the set and by its iterators. The
+ * views returned by subSet, headSet, tailSet and descendingSet are read-only,
+ * since removing features through them would bypass the fingerprint.
+ *
+ * @author Jesús González
+ */
+public class FSSubsetGenome extends TreeSet<Integer> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** XOR of the keys of the features */
+	private long fingerprint;
+
+	/**
+	 * Create an empty genome
+	 */
+	public FSSubsetGenome() {
+		super();
+	}
+
+	/**
+	 * Create a genome containing some features
+	 *
+	 * @param features The features
+	 */
+	public FSSubsetGenome(Collection<Integer> features) {
+		super();
+		addAll(features);
+	}
+
+	/**
+	 * Return the fingerprint of the genome
+	 */
+	public long fingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Return the fingerprint of a set of features. It is computed from scratch
+	 * unless the set is a FSSubsetGenome
+	 *
+	 * @param features The features
+	 */
+	public static long fingerprint(Collection<Integer> features) {
+		if (features instanceof FSSubsetGenome)
+			return ((FSSubsetGenome) features).fingerprint;
+
+		long fingerprint = 0;
+		for (Integer feature : features)
+			fingerprint ^= key(feature);
+		return fingerprint;
+	}
+
+	/**
+	 * Return the key of a feature (SplitMix64 of its index)
+	 *
+	 * @param feature The feature
+	 */
+	public static long key(int feature) {
+		long z = (feature + 1L) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public boolean add(Integer feature) {
+		if (!super.add(feature))
+			return false;
+		fingerprint ^= key(feature);
+		return true;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends Integer> features) {
+		// TreeSet may bulk-load sorted collections without calling add
+		boolean changed = false;
+		for (Integer feature : features)
+			changed |= add(feature);
+		return changed;
+	}
+
+	@Override
+	public boolean remove(Object feature) {
+		if (!super.remove(feature))
+			return false;
+		fingerprint ^= key((Integer) feature);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		fingerprint = 0;
+	}
+
+	@Override
+	public Integer pollFirst() {
+		Integer feature = super.pollFirst();
+		if (feature != null)
+			fingerprint ^= key(feature);
+		return feature;
+	}
+
+	@Override
+	public Integer pollLast() {
+		Integer feature = super.pollLast();
+		if (feature != null)
+			fingerprint ^= key(feature);
+		return feature;
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		final Iterator<Integer> it = super.iterator();
+		return new Iterator<Integer>() {
+			/** Last feature returned */
+			private Integer last;
+
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			public Integer next() {
+				return last = it.next();
+			}
+
+			public void remove() {
+				it.remove();
+				fingerprint ^= key(last);
+			}
+		};
+	}
+
+	@Override
+	public Iterator<Integer> descendingIterator() {
+		final Iterator<Integer> it = super.descendingIterator();
+		return new Iterator<Integer>() {
+			/** Last feature returned */
+			private Integer last;
+
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			public Integer next() {
+				return last = it.next();
+			}
+
+			public void remove() {
+				it.remove();
+				fingerprint ^= key(last);
+			}
+		};
+	}
+
+	@Override
+	public NavigableSet<Integer> descendingSet() {
+		return new ReadOnlyView(super.descendingSet());
+	}
+
+	@Override
+	public NavigableSet<Integer> subSet(Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+		return new ReadOnlyView(super.subSet(from, fromInclusive, to, toInclusive));
+	}
+
+	@Override
+	public NavigableSet<Integer> headSet(Integer to, boolean inclusive) {
+		return new ReadOnlyView(super.headSet(to, inclusive));
+	}
+
+	@Override
+	public NavigableSet<Integer> tailSet(Integer from, boolean inclusive) {
+		return new ReadOnlyView(super.tailSet(from, inclusive));
+	}
+
+	@Override
+	public SortedSet<Integer> subSet(Integer from, Integer to) {
+		return subSet(from, true, to, false);
+	}
+
+	@Override
+	public SortedSet<Integer> headSet(Integer to) {
+		return headSet(to, false);
+	}
+
+	@Override
+	public SortedSet<Integer> tailSet(Integer from) {
+		return tailSet(from, true);
+	}
+
+	@Override
+	public FSSubsetGenome clone() {
+		return (FSSubsetGenome) super.clone();
+	}
+
+	/**
+	 * Read-only view of a range of the genome. The changes made to the genome
+	 * are seen through the view, but the view can not change the genome.
+	 */
+	private static class ReadOnlyView extends AbstractSet<Integer> implements NavigableSet<Integer> {
+
+		/** The view of the TreeSet */
+		private final NavigableSet<Integer> view;
+
+		/**
+		 * Wrap a view of the genome
+		 *
+		 * @param view The view
+		 */
+		ReadOnlyView(NavigableSet<Integer> view) {
+			this.view = view;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return readOnly(view.iterator());
+		}
+
+		@Override
+		public Iterator<Integer> descendingIterator() {
+			return readOnly(view.descendingIterator());
+		}
+
+		@Override
+		public int size() {
+			return view.size();
+		}
+
+		@Override
+		public boolean contains(Object feature) {
+			return view.contains(feature);
+		}
+
+		public Comparator<? super Integer> comparator() {
+			return view.comparator();
+		}
+
+		public Integer first() {
+			return view.first();
+		}
+
+		public Integer last() {
+			return view.last();
+		}
+
+		public Integer lower(Integer feature) {
+			return view.lower(feature);
+		}
+
+		public Integer floor(Integer feature) {
+			return view.floor(feature);
+		}
+
+		public Integer ceiling(Integer feature) {
+			return view.ceiling(feature);
+		}
+
+		public Integer higher(Integer feature) {
+			return view.higher(feature);
+		}
+
+		public Integer pollFirst() {
+			throw new UnsupportedOperationException();
+		}
+
+		public Integer pollLast() {
+			throw new UnsupportedOperationException();
+		}
+
+		public NavigableSet<Integer> descendingSet() {
+			return new ReadOnlyView(view.descendingSet());
+		}
+
+		public NavigableSet<Integer> subSet(Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+			return new ReadOnlyView(view.subSet(from, fromInclusive, to, toInclusive));
+		}
+
+		public NavigableSet<Integer> headSet(Integer to, boolean inclusive) {
+			return new ReadOnlyView(view.headSet(to, inclusive));
+		}
+
+		public NavigableSet<Integer> tailSet(Integer from, boolean inclusive) {
+			return new ReadOnlyView(view.tailSet(from, inclusive));
+		}
+
+		public SortedSet<Integer> subSet(Integer from, Integer to) {
+			return subSet(from, true, to, false);
+		}
+
+		public SortedSet<Integer> headSet(Integer to) {
+			return headSet(to, false);
+		}
+
+		public SortedSet<Integer> tailSet(Integer from) {
+			return tailSet(from, true);
+		}
+
+		/**
+		 * Return an iterator that can not remove features
+		 *
+		 * @param it The iterator
+		 */
+		private static Iterator<Integer> readOnly(final Iterator<Integer> it) {
+			return new Iterator<Integer>() {
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				public Integer next() {
+					return it.next();
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+}
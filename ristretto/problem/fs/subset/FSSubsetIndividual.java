@@ -35,8 +35,6 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.LineNumberReader;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.TreeSet;
 
@@ -44,7 +42,9 @@ import ec.EvolutionState;
 import ec.Individual;
 import ec.util.Code;
 import ec.util.DecodeReturn;
+import ec.util.MersenneTwisterFast;
 import ec.util.Parameter;
+import ristretto.jmltools.distance.SquaredDistanceMatrix;
 
 /**
  * FSSubsetIndividual is an individual whose genome is a subset of selected
@@ -134,9 +134,19 @@ public class FSSubsetIndividual extends Individual {
 	/** Base parameter */
 	public static final String P_FS_SUBSET_INDIVIDUAL = "ind";
 
-	/** Subset of selected feature indices */
+	/**
+	 * Subset of selected feature indices. It is a {@link FSSubsetGenome} unless
+	 * it has been replaced by another kind of set
+	 */
 	public TreeSet<Integer> genome;
 
+	/**
+	 * Squared distances between the instances for the last genome evaluated,
+	 * shared with the offspring so that they can be evaluated incrementally (null
+	 * if not used)
+	 */
+	public transient SquaredDistanceMatrix distances;
+
 	/**
 	 * Return the default parameter base.
 	 */
@@ -151,7 +161,7 @@ public class FSSubsetIndividual extends Individual {
 	public Object clone() {
 		FSSubsetIndividual myobj = (FSSubsetIndividual) (super.clone());
 
-		// must clone the genome
+		// must clone the genome. The distances are shared, they are never modified
 		myobj.genome = ((TreeSet<Integer>) (genome.clone()));
 
 		return myobj;
@@ -171,7 +181,7 @@ public class FSSubsetIndividual extends Individual {
 
 		if (!(species instanceof FSSubsetSpecies))
 			state.output.fatal("FSSubsetIndividual requires an FSSubsetSpecies", base, def);
-		genome = new TreeSet<Integer>();
+		genome = new FSSubsetGenome();
 	}
 
 	/**
@@ -183,55 +193,71 @@ public class FSSubsetIndividual extends Individual {
 	 * @param thread Execution thread
 	 * @param other  The other individual
 	 */
-	@SuppressWarnings("unchecked")
 	public void defaultCrossover(EvolutionState state, int thread, FSSubsetIndividual other) {
-
-		// Detect repeated features in both individuals, as they should be
-		// repeated in their offspring
-		TreeSet<Integer> repeated = new TreeSet<Integer>();
-		ArrayList<Integer> nonRepeatedThis = new ArrayList<Integer>();
-		Iterator<Integer> it = this.genome.iterator();
+		FSSubsetSpecies.Scratch scratch = ((FSSubsetSpecies) species).scratch(state, thread);
+		MersenneTwisterFast random = state.random[thread];
+
+		// Detect non-repeated features in both individuals and remove them, as the
+		// repeated features should be in both parents again
+		int[] nonRepeatedInd = scratch.first;
+		int nInd = 0;
+		Iterator<Integer> it = other.genome.iterator();
 		while (it.hasNext()) {
-			int feature = it.next();
-			if (other.genome.contains(feature))
-				repeated.add(feature);
-			else
-				nonRepeatedThis.add(feature);
+			Integer feature = it.next();
+			if (!this.genome.contains(feature)) {
+				nonRepeatedInd[nInd++] = feature;
+				it.remove();
+			}
 		}
 
-		ArrayList<Integer> nonRepeatedInd = new ArrayList<Integer>();
-		it = other.genome.iterator();
+		int[] nonRepeatedThis = scratch.second;
+		int nThis = 0;
+		it = this.genome.iterator();
 		while (it.hasNext()) {
-			int feature = it.next();
-			if (!repeated.contains(feature))
-				nonRepeatedInd.add(feature);
+			Integer feature = it.next();
+			if (!other.genome.contains(feature)) {
+				nonRepeatedThis[nThis++] = feature;
+				it.remove();
+			}
 		}
 
-		// The repeated features should be in both parents again
-		this.genome = (TreeSet<Integer>) repeated.clone();
-		other.genome = (TreeSet<Integer>) repeated.clone();
-
 		// shuffle the non repeated features
-		Collections.shuffle(nonRepeatedThis);
-		Collections.shuffle(nonRepeatedInd);
+		shuffle(nonRepeatedThis, nThis, random);
+		shuffle(nonRepeatedInd, nInd, random);
 
 		// Cross the non-repeated features randomly
-		int minSize = Math.min(nonRepeatedThis.size(), nonRepeatedInd.size());
+		int minSize = Math.min(nThis, nInd);
 		for (int i = 0; i < minSize; i++) {
-			if (state.random[thread].nextBoolean()) {
-				this.genome.add(nonRepeatedInd.get(i));
-				other.genome.add(nonRepeatedThis.get(i));
+			if (random.nextBoolean()) {
+				this.genome.add(nonRepeatedInd[i]);
+				other.genome.add(nonRepeatedThis[i]);
 			} else {
-				this.genome.add(nonRepeatedThis.get(i));
-				other.genome.add(nonRepeatedInd.get(i));
+				this.genome.add(nonRepeatedThis[i]);
+				other.genome.add(nonRepeatedInd[i]);
 			}
 		}
 
 		// add the remaining features
-		for (int i = minSize; i < nonRepeatedThis.size(); i++)
-			this.genome.add(nonRepeatedThis.get(i));
-		for (int i = minSize; i < nonRepeatedInd.size(); i++)
-			other.genome.add(nonRepeatedInd.get(i));
+		for (int i = minSize; i < nThis; i++)
+			this.genome.add(nonRepeatedThis[i]);
+		for (int i = minSize; i < nInd; i++)
+			other.genome.add(nonRepeatedInd[i]);
+	}
+
+	/**
+	 * Shuffle the first elements of an array (Fisher-Yates)
+	 * 
+	 * @param values The array
+	 * @param n      Number of elements to be shuffled
+	 * @param random The random number generator
+	 */
+	private static void shuffle(int[] values, int n, MersenneTwisterFast random) {
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = values[i];
+			values[i] = values[j];
+			values[j] = tmp;
+		}
 	}
 
 	/**
@@ -242,9 +268,14 @@ public class FSSubsetIndividual extends Individual {
 	 */
 	public void defaultMutate(EvolutionState state, int thread) {
 		FSSubsetSpecies s = (FSSubsetSpecies) species;
+		FSSubsetSpecies.Scratch scratch = s.scratch(state, thread);
+		MersenneTwisterFast random = state.random[thread];
+
+		// features to be mutated and removed, in increasing order
+		int[] toBeMutated = scratch.first;
+		int[] toBeRemoved = scratch.second;
+		int firstMutated = 0, nMutated = 0, firstRemoved = 0, nRemoved = 0;
 
-		TreeSet<Integer> toBeMutated = new TreeSet<Integer>();
-		TreeSet<Integer> toBeRemoved = new TreeSet<Integer>();
 		int prevGenomeSize = this.genome.size();
 		int featureLimit = s.maxFeature - s.minFeature + 1;
 
@@ -252,29 +283,23 @@ public class FSSubsetIndividual extends Individual {
 		while (it.hasNext()) {
 			int feature = it.next();
 			// test if this gene should be altered
-			if (state.random[thread].nextBoolean(s.mutationProbability())) {
+			if (random.nextBoolean(s.mutationProbability())) {
 				// if the genome contains all the features is impossible to mutate any of them
 				// thus, the feature must be removed
-				if (prevGenomeSize + toBeMutated.size() < featureLimit) {
-					if (state.random[thread].nextBoolean(0.5))
-						toBeRemoved.add(feature);
-					else
-						toBeMutated.add(feature);
-				} else {
-					toBeRemoved.add(feature);
-				}
+				if (prevGenomeSize + nMutated < featureLimit && !random.nextBoolean(0.5))
+					toBeMutated[nMutated++] = feature;
+				else
+					toBeRemoved[nRemoved++] = feature;
+				it.remove();
 			}
 		}
 
-		this.genome.removeAll(toBeRemoved);
-		this.genome.removeAll(toBeMutated);
-
-		int newGenomeSize = this.genome.size() + toBeMutated.size();
+		int newGenomeSize = this.genome.size() + nMutated;
 
 		// test if a new feature should be added, without increasing the maximum
 		// length
-		if (prevGenomeSize + toBeMutated.size() + toBeRemoved.size() < featureLimit && newGenomeSize < s.maxSize
-				&& state.random[thread].nextBoolean(s.mutationProbability()))
+		if (prevGenomeSize + nMutated + nRemoved < featureLimit && newGenomeSize < s.maxSize
+				&& random.nextBoolean(s.mutationProbability()))
 			newGenomeSize++;
 
 		// Assure the minimum length
@@ -285,28 +310,85 @@ public class FSSubsetIndividual extends Individual {
 		// possible that there were not enough available features for the new
 		// genome. If this were the case, some features should remain in the
 		// genome
-		while (featureLimit - toBeMutated.size() - toBeRemoved.size() < s.minSize) {
-			if (state.random[thread].nextBoolean(0.5)) {
-				if (toBeRemoved.size() > 0)
-					toBeRemoved.remove(toBeRemoved.first());
-				else if (toBeMutated.size() > 0)
-					toBeMutated.remove(toBeMutated.first());
+		while (featureLimit - (nMutated - firstMutated) - (nRemoved - firstRemoved) < s.minSize) {
+			if (random.nextBoolean(0.5)) {
+				if (firstRemoved < nRemoved)
+					firstRemoved++;
+				else if (firstMutated < nMutated)
+					firstMutated++;
 			} else {
-				if (toBeMutated.size() > 0)
-					toBeMutated.remove(toBeMutated.first());
-				else if (toBeRemoved.size() > 0)
-					toBeRemoved.remove(toBeRemoved.first());
+				if (firstMutated < nMutated)
+					firstMutated++;
+				else if (firstRemoved < nRemoved)
+					firstRemoved++;
 			}
 		}
 
-		while (this.genome.size() < newGenomeSize) {
-			int newFeature = s.minFeature + state.random[thread].nextInt(featureLimit);
+		// draw the new features among those neither selected, mutated nor removed
+		scratch.restore();
+		for (int feature : this.genome)
+			scratch.exclude(feature - s.minFeature);
+		for (int i = firstMutated; i < nMutated; i++)
+			scratch.exclude(toBeMutated[i] - s.minFeature);
+		for (int i = firstRemoved; i < nRemoved; i++)
+			scratch.exclude(toBeRemoved[i] - s.minFeature);
+
+		int nNew = Math.min(newGenomeSize - this.genome.size(), scratch.available());
+		for (int i = 0; i < nNew; i++)
+			this.genome.add(s.minFeature + scratch.sample(random));
+	}
 
-			while (toBeMutated.contains(newFeature) || toBeRemoved.contains(newFeature)
-					|| !this.genome.add(newFeature)) {
-				newFeature = s.minFeature + state.random[thread].nextInt(featureLimit);
-			}
+	/**
+	 * Destructively flips a single random feature: a feature not selected is
+	 * added or a selected one is removed, keeping the size of the genome within
+	 * the limits of the species. If the size can not change, a selected feature
+	 * is replaced by a feature not selected.
+	 * 
+	 * @param state  The evolution state
+	 * @param thread Execution thread
+	 * @return true if the genome has changed
+	 */
+	public boolean flipRandomFeature(EvolutionState state, int thread) {
+		FSSubsetSpecies s = (FSSubsetSpecies) species;
+		MersenneTwisterFast random = state.random[thread];
+		int featureLimit = s.maxFeature - s.minFeature + 1;
+		int size = this.genome.size();
+
+		boolean add = size < s.maxSize && size < featureLimit;
+		boolean remove = size > s.minSize && size > 0;
+		if (add && remove) {
+			if (random.nextBoolean(0.5))
+				add = false;
+			else
+				remove = false;
+		} else if (!add && !remove) {
+			// the size is fixed, thus a feature is replaced
+			if (size == 0 || size >= featureLimit)
+				return false;
+			add = remove = true;
 		}
+
+		// draw the new feature among those not selected
+		int added = -1;
+		if (add) {
+			FSSubsetSpecies.Scratch scratch = s.scratch(state, thread);
+			scratch.restore();
+			for (int feature : this.genome)
+				scratch.exclude(feature - s.minFeature);
+			added = s.minFeature + scratch.sample(random);
+		}
+
+		if (remove) {
+			Iterator<Integer> it = this.genome.iterator();
+			for (int i = random.nextInt(size); i > 0; i--)
+				it.next();
+			it.next();
+			it.remove();
+		}
+
+		if (add)
+			this.genome.add(added);
+		return true;
 	}
 
 	/**
@@ -317,27 +399,32 @@ public class FSSubsetIndividual extends Individual {
 	 */
 	public void reset(EvolutionState state, int thread) {
 		FSSubsetSpecies s = (FSSubsetSpecies) species;
+		FSSubsetSpecies.Scratch scratch = s.scratch(state, thread);
+		int featureLimit = s.maxFeature - s.minFeature + 1;
 		int genomeSize = s.minSize + state.random[thread].nextInt((s.maxSize - s.minSize + 1));
-		while (genome.size() < genomeSize) {
-			int featureLimit = s.maxFeature - s.minFeature + 1;
-			int newFeature = s.minFeature + state.random[thread].nextInt(featureLimit);
-			this.genome.add(newFeature);
-		}
+
+		// draw the features without replacement, in linear time
+		this.genome.clear();
+		scratch.restore();
+		for (int i = Math.min(genomeSize, featureLimit); i > 0; i--)
+			this.genome.add(s.minFeature + scratch.sample(state.random[thread]));
+	}
+
+	/**
+	 * Return the 64-bit fingerprint of the genome (see {@link FSSubsetGenome}).
+	 * It is obtained in O(1) unless the genome has been replaced by another kind
+	 * of set
+	 */
+	public long fingerprint() {
+		return FSSubsetGenome.fingerprint(genome);
 	}
 
 	/**
 	 * Return the hascode of this individual
 	 */
 	public int hashCode() {
-		int hash = this.getClass().hashCode();
-
-		hash = (hash << 1 | hash >>> 31);
-
-		Iterator<Integer> it = this.genome.iterator();
-		while (it.hasNext())
-			hash = (hash << 1 | hash >>> 31) ^ it.next();
-
-		return hash;
+		long fingerprint = fingerprint();
+		return (int) (fingerprint ^ (fingerprint >>> 32));
 	}
 
 	/**
@@ -392,7 +479,7 @@ public class FSSubsetIndividual extends Individual {
 					+ "\n... does not have an integer at the beginning indicating the genome count.");
 		int lll = (int) (d.l);
 
-		genome = new TreeSet<Integer>();
+		genome = new FSSubsetGenome();
 
 		// read in the genes
 		for (int i = 0; i < lll; i++) {
@@ -414,13 +501,14 @@ public class FSSubsetIndividual extends Individual {
 			return false;
 
 		FSSubsetIndividual i = (FSSubsetIndividual) other;
-		if (genome.size() != i.genome.size())
+		if (genome.size() != i.genome.size() || fingerprint() != i.fingerprint())
 			return false;
 
+		// equal fingerprints are very likely to be equal genomes
 		Iterator<Integer> it = this.genome.iterator();
 		Iterator<Integer> it2 = i.genome.iterator();
 		while (it.hasNext())
-			if (it.next() != it2.next())
+			if (it.next().intValue() != it2.next().intValue())
 				return false;
 
 		return true;
@@ -440,7 +528,7 @@ public class FSSubsetIndividual extends Individual {
 	 */
 	@SuppressWarnings("unchecked")
 	public void setGenome(Object gen) {
-		genome = (TreeSet<Integer>) gen;
+		genome = gen instanceof FSSubsetGenome ? (FSSubsetGenome) gen : new FSSubsetGenome((TreeSet<Integer>) gen);
 	}
 
 	/**
@@ -451,17 +539,15 @@ public class FSSubsetIndividual extends Individual {
 	}
 
 	/**
-	 * Write the genome to a binary stream.
+	 * Write the genome to a binary stream. The genome is written packed, as
+	 * explained in {@link #writeGenome(DataOutput, TreeSet)}.
 	 * 
 	 * @param state      The evolution state
 	 * @param dataOutput The stream writer
 	 * @throws IOException If the genome can not be written
 	 */
 	public void writeGenotype(final EvolutionState state, final DataOutput dataOutput) throws IOException {
-		dataOutput.writeInt(genome.size());
-		Iterator<Integer> it = this.genome.iterator();
-		while (it.hasNext())
-			dataOutput.writeInt(it.next());
+		writeGenome(dataOutput, genome);
 	}
 
 	/**
@@ -472,10 +558,79 @@ public class FSSubsetIndividual extends Individual {
 	 * @throws IOException If the genome can not be read
 	 */
 	public void readGenotype(final EvolutionState state, final DataInput dataInput) throws IOException {
-		int len = dataInput.readInt();
-		genome = new TreeSet<Integer>();
-		for (int i = 0; i < len; i++)
-			genome.add(dataInput.readInt());
+		genome = readGenome(dataInput);
+	}
+
+	/**
+	 * Write a genome to a binary stream. Since genomes are sorted sets of feature
+	 * indices, the genome is encoded as its size followed by the gaps between
+	 * consecutive features, all of them as variable-length integers. Thus most
+	 * features take only one byte.
+	 * 
+	 * @param out    The stream writer
+	 * @param genome The genome
+	 * @throws IOException If the genome can not be written
+	 */
+	public static void writeGenome(DataOutput out, TreeSet<Integer> genome) throws IOException {
+		writeVarInt(out, genome.size());
+		int previous = -1;
+		for (int feature : genome) {
+			writeVarInt(out, feature - previous - 1);
+			previous = feature;
+		}
+	}
+
+	/**
+	 * Read a genome written with {@link #writeGenome(DataOutput, TreeSet)}
+	 * 
+	 * @param in The stream reader
+	 * @return The genome
+	 * @throws IOException If the genome can not be read
+	 */
+	public static TreeSet<Integer> readGenome(DataInput in) throws IOException {
+		int size = readVarInt(in);
+		TreeSet<Integer> genome = new FSSubsetGenome();
+		int feature = -1;
+		for (int j = 0; j < size; j++) {
+			feature += readVarInt(in) + 1;
+			genome.add(feature);
+		}
+		return genome;
+	}
+
+	/**
+	 * Write a non-negative integer using 7 bits per byte
+	 *
+	 * @param out   The stream writer
+	 * @param value The value
+	 * @throws IOException If the value can not be written
+	 */
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Read a non-negative integer written with
+	 * {@link #writeVarInt(DataOutput, int)}
+	 *
+	 * @param in The stream reader
+	 * @return The value
+	 * @throws IOException If the value can not be read
+	 */
+	public static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
 	}
 
 	/**
@@ -25,13 +25,15 @@ package ristretto.problem.fs.subset;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.TreeSet;
 
 import ec.EvolutionState;
 import ec.Problem;
 import ec.simple.SimpleProblemForm;
 import ec.util.Parameter;
+import ristretto.jmltools.data.ColumnarData;
+import ristretto.jmltools.data.DatasetLoader;
 import net.sf.javaml.core.Dataset;
-import net.sf.javaml.tools.data.FileHandler;
 
 /**
  * Base abstract class for Feature Selection problems solved using individuals
@@ -53,6 +55,19 @@ import net.sf.javaml.tools.data.FileHandler;
  * </tr>
  *
  * <tr>
+ * <td valign=top><i>base</i>.<tt>dataset.float32</tt><br>
+ * <font size=-1>boolean (default = false)</font></td>
+ * <td valign=top>(should the dataset be stored in single precision?)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>archive</tt><br>
+ * <font size=-1>String (a filename)</font></td>
+ * <td valign=top>(persistent archive of evaluations shared by several runs, if
+ * any)</td>
+ * </tr>
+ *
+ * <tr>
  * <td valign=top><i>base</i>.<tt>debug</tt><br>
  * <font size=-1>boolean</font></td>
  * <td valign=top>(should debug information be shown?)</td>
@@ -74,15 +89,42 @@ public abstract class FSSubsetProblem extends Problem implements SimpleProblemFo
 	/** Parameter to load the class index for labeled datasets */
 	public static final String P_FS_DATASET_CLASS_INDEX = P_FS_DATASET + ".class-index";
 
+	/** Parameter to store the dataset in single precision */
+	public static final String P_FS_DATASET_FLOAT32 = P_FS_DATASET + ".float32";
+
+	/** Parameter for the persistent archive of evaluations */
+	public static final String P_FS_ARCHIVE = "archive";
+
 	/** Parameter to activate the debugging logs */
 	public static final String P_DEBUG = "debug";
 
-	/** The dataset */
-	public Dataset data;
-	
+	/**
+	 * The dataset, in columnar storage. Binary dataset files remain mapped
+	 * unless they have to be converted to the requested precision
+	 */
+	public ColumnarData columns;
+
 	/** Whether to activate the debug logs */
 	public boolean debug;
 
+	/** Counters and timers of the evaluations, shared by all the threads */
+	public FSSubsetEvaluationMetrics metrics;
+
+	/** Persistent archive of evaluations (null if not used) */
+	public FSSubsetEvaluationArchive archive;
+
+	/** Index of the column containing the labels */
+	public int classIndex;
+
+	/** Fingerprint of the dataset file, used to build the archive context */
+	public long datasetFingerprint;
+
+	/** Context of the evaluations of this problem in the archive */
+	private long archiveContext;
+
+	/** Whether the archive context has been computed */
+	private boolean archiveContextReady;
+
 	/**
 	 * Return the default parameter base for this problem.
 	 */
@@ -107,7 +149,7 @@ public abstract class FSSubsetProblem extends Problem implements SimpleProblemFo
 			Parameter def = defaultBase();
 
 			/* class index */
-			int classIndex = state.parameters.getInt(base.push(P_FS_DATASET_CLASS_INDEX),
+			classIndex = state.parameters.getInt(base.push(P_FS_DATASET_CLASS_INDEX),
 					def.push(P_FS_DATASET_CLASS_INDEX), 0);
 
 			/* Obtain the dataset */
@@ -115,7 +157,25 @@ public abstract class FSSubsetProblem extends Problem implements SimpleProblemFo
 			if (dataFile == null)
 				state.output.fatal("Missing dataset", base.push(P_FS_DATASET), def.push(P_FS_DATASET));
 
-			this.data = FileHandler.loadDataset(dataFile, classIndex, "\\s+");
+			/* Single precision storage halves the memory used by the dataset */
+			boolean float32 = state.parameters.getBoolean(base.push(P_FS_DATASET_FLOAT32),
+					def.push(P_FS_DATASET_FLOAT32), false);
+			this.columns = DatasetLoader.loadColumnar(dataFile, classIndex, float32);
+
+			/* Open the persistent archive of evaluations */
+			File archiveFile = state.parameters.getFile(base.push(P_FS_ARCHIVE), def.push(P_FS_ARCHIVE));
+			if (archiveFile != null) {
+				datasetFingerprint = FSSubsetEvaluationArchive.fingerprint(dataFile);
+				try {
+					archive = new FSSubsetEvaluationArchive(archiveFile);
+				} catch (IOException e) {
+					state.output.fatal("Could not open the evaluation archive: " + e.getMessage(),
+							base.push(P_FS_ARCHIVE), def.push(P_FS_ARCHIVE));
+				}
+			}
+
+			/* Counters of the evaluations, striped by evaluation thread */
+			metrics = new FSSubsetEvaluationMetrics(state.evalthreads);
 
 			/* Test if debug logs should be provided */
 			debug = state.parameters.getBoolean(base.push(P_DEBUG), def.push(P_DEBUG), false);
@@ -123,4 +183,92 @@ public abstract class FSSubsetProblem extends Problem implements SimpleProblemFo
 			state.output.fatal("Could not open the dataset file: " + e.getMessage());
 		}
 	}
+
+	/**
+	 * Return the number of instances of the dataset
+	 */
+	public int numInstances() {
+		return columns.numInstances();
+	}
+
+	/**
+	 * Return the dataset in columnar storage
+	 */
+	public ColumnarData columnarData() {
+		return columns;
+	}
+
+	/**
+	 * Generate a new dataset containing only some selected features of the
+	 * dataset
+	 *
+	 * @param selected Set of selected features
+	 * @return A new dataset containing only the selected features
+	 */
+	public Dataset project(TreeSet<Integer> selected) {
+		return columns.project(selected);
+	}
+
+	/**
+	 * Return a description of the configuration of the problem. Problems using
+	 * the archive must include all the parameters that affect the evaluation of
+	 * the individuals
+	 */
+	public String configuration() {
+		return getClass().getName() + " class-index=" + classIndex + " float32=" + columns.isFloat32();
+	}
+
+	/**
+	 * Set the objectives of an individual from the archive, if it has already
+	 * been evaluated by a run with the same dataset and configuration
+	 *
+	 * @param state      The evolution state
+	 * @param ind        The individual
+	 * @param objectives Array where the objectives are copied
+	 * @return true if the individual was found in the archive
+	 */
+	public boolean readArchivedObjectives(final EvolutionState state, FSSubsetIndividual ind, double[] objectives) {
+		if (archive == null)
+			return false;
+
+		try {
+			double[] archived = archive.get(archiveContext(), ind.genome);
+			if (archived == null || archived.length != objectives.length)
+				return false;
+			System.arraycopy(archived, 0, objectives, 0, objectives.length);
+			return true;
+		} catch (IOException e) {
+			state.output.fatal("Could not read the evaluation archive: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Store the objectives of an individual in the archive, if any
+	 *
+	 * @param state      The evolution state
+	 * @param ind        The individual
+	 * @param objectives The objectives
+	 */
+	public void writeArchivedObjectives(final EvolutionState state, FSSubsetIndividual ind, double[] objectives) {
+		if (archive == null)
+			return;
+
+		try {
+			archive.put(archiveContext(), ind.genome, objectives);
+		} catch (IOException e) {
+			state.output.fatal("Could not write the evaluation archive: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Return the context of the evaluations of this problem in the archive
+	 */
+	private long archiveContext() {
+		if (!archiveContextReady) {
+			archiveContext = FSSubsetEvaluationArchive.context(datasetFingerprint, configuration());
+			archiveContextReady = true;
+		}
+		return archiveContext;
+	}
 }
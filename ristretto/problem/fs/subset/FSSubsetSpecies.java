@@ -31,9 +31,12 @@
 
 package ristretto.problem.fs.subset;
 
+import java.util.Arrays;
+
 import ec.EvolutionState;
 import ec.Individual;
 import ec.Species;
+import ec.util.MersenneTwisterFast;
 import ec.util.Parameter;
 
 /**
@@ -137,6 +140,9 @@ public class FSSubsetSpecies extends Species {
 	/** What's the largest feature index to be used? */
 	public int maxFeature;
 
+	/** Scratch buffers of the variation operators, one per thread */
+	private transient volatile Scratch[] scratch;
+
 	/** Return the mutation probability */
 	public double mutationProbability() {
 		return mutationProb;
@@ -219,6 +225,37 @@ public class FSSubsetSpecies extends Species {
 		super.setup(state, base);
 	}
 
+	/**
+	 * Return the scratch buffers of a thread, which are reused by all the
+	 * variation operators run by the thread
+	 * 
+	 * @param state  The evolution state
+	 * @param thread Execution thread
+	 */
+	Scratch scratch(final EvolutionState state, int thread) {
+		Scratch[] buffers = scratch;
+		if (buffers == null || buffers.length <= thread)
+			buffers = allocateScratch(Math.max(state.random.length, thread + 1));
+
+		// each thread only accesses its own buffers
+		if (buffers[thread] == null)
+			buffers[thread] = new Scratch(maxFeature - minFeature + 1);
+		return buffers[thread];
+	}
+
+	/**
+	 * Allocate the array of scratch buffers, keeping the existing ones
+	 * 
+	 * @param nThreads Number of threads
+	 */
+	private synchronized Scratch[] allocateScratch(int nThreads) {
+		if (scratch == null)
+			scratch = new Scratch[nThreads];
+		else if (scratch.length < nThreads)
+			scratch = Arrays.copyOf(scratch, nThreads);
+		return scratch;
+	}
+
 	/**
 	 * Create a new individual belonging to this species
 	 * 
@@ -231,4 +268,90 @@ public class FSSubsetSpecies extends Species {
 
 		return newind;
 	}
+
+	/**
+	 * Primitive buffers reused by the variation operators of a thread, so that
+	 * they do not allocate temporary collections. They include a pool of features
+	 * to draw random features without replacement in O(1) each (partial
+	 * Fisher-Yates)
+	 */
+	static class Scratch {
+		/** A buffer of features */
+		final int[] first;
+
+		/** Another buffer of features */
+		final int[] second;
+
+		/** Permutation of the features (indexed from minFeature) */
+		private final int[] pool;
+
+		/** Position of each feature in the pool */
+		private final int[] position;
+
+		/** Number of features available, at the beginning of the pool */
+		private int available;
+
+		/**
+		 * Allocate the buffers
+		 * 
+		 * @param featureLimit Number of features that can be selected
+		 */
+		Scratch(int featureLimit) {
+			first = new int[featureLimit];
+			second = new int[featureLimit];
+			pool = new int[featureLimit];
+			position = new int[featureLimit];
+			for (int i = 0; i < featureLimit; i++)
+				pool[i] = position[i] = i;
+		}
+
+		/** Make all the features available */
+		void restore() {
+			available = pool.length;
+		}
+
+		/** Return the number of available features */
+		int available() {
+			return available;
+		}
+
+		/**
+		 * Make a feature unavailable
+		 * 
+		 * @param feature The feature (indexed from minFeature)
+		 */
+		void exclude(int feature) {
+			int p = position[feature];
+			if (p < available)
+				moveToEnd(p);
+		}
+
+		/**
+		 * Draw a random available feature and make it unavailable
+		 * 
+		 * @param random The random number generator
+		 * @return The feature (indexed from minFeature)
+		 */
+		int sample(MersenneTwisterFast random) {
+			int p = random.nextInt(available);
+			int feature = pool[p];
+			moveToEnd(p);
+			return feature;
+		}
+
+		/**
+		 * Swap a feature of the pool with the last available one and make it
+		 * unavailable
+		 * 
+		 * @param p Position of the feature in the pool
+		 */
+		private void moveToEnd(int p) {
+			int last = --available;
+			int feature = pool[p], other = pool[last];
+			pool[p] = other;
+			position[other] = p;
+			pool[last] = feature;
+			position[feature] = last;
+		}
+	}
 }
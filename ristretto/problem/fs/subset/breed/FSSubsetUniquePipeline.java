@@ -0,0 +1,241 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.problem.fs.subset.breed;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ec.BreedingPipeline;
+import ec.EvolutionState;
+import ec.Individual;
+import ec.util.Parameter;
+import ristretto.problem.fs.subset.FSSubsetDefaults;
+import ristretto.problem.fs.subset.FSSubsetIndividual;
+
+/**
+ * FSSubsetUniquePipeline is a {@link ec.BreedingPipeline} which avoids
+ * producing {@link ristretto.problem.fs.subset.FSSubsetIndividual}s already
+ * seen. It takes the individuals of its source and, if the genome of any of
+ * them is the genome of an individual of the current population or of an
+ * offspring of the last generations, a random feature is flipped with
+ * {@link ristretto.problem.fs.subset.FSSubsetIndividual#flipRandomFeature},
+ * up to a maximum number of retries. Thus, no evaluations are wasted in duplicates
+ * and the diversity of the population is kept.
+ * 
+ * <p>
+ * The genomes seen are remembered by their fingerprints (see
+ * {@link ristretto.problem.fs.subset.FSSubsetGenome}) in concurrent hash sets,
+ * one per generation, shared by all the breeding threads.
+ * 
+ * <p>
+ * <b>Typical Number of Individuals Produced Per <tt>produce(...)</tt>
+ * call</b><br>
+ * (however many its source produces)
+ * 
+ * <p>
+ * <b>Number of Sources</b><br>
+ * 1
+ * 
+ * <p>
+ * <b>Parameters</b><br>
+ * <table>
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>generations</tt><br>
+ * <font size=-1>int &gt;= 1 (default = 1)</font></td>
+ * <td valign=top>(number of generations whose offspring are remembered)</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>retries</tt><br>
+ * <font size=-1>int &gt;= 0 (default = 10)</font></td>
+ * <td valign=top>(maximum number of mutations of a duplicate)</td>
+ * </tr>
+ * </table>
+ * 
+ * <p>
+ * <b>Default Base</b><br>
+ * fs-subset.unique
+ * 
+ * @author Jesús González
+ */
+public class FSSubsetUniquePipeline extends BreedingPipeline {
+	private static final long serialVersionUID = 1L;
+
+	/** Base parameter for defaults */
+	public static final String P_FS_SUBSET_UNIQUE = "unique";
+
+	/** Parameter for the number of generations remembered */
+	public static final String P_GENERATIONS = "generations";
+
+	/** Parameter for the maximum number of mutations of a duplicate */
+	public static final String P_RETRIES = "retries";
+
+	/** Number of sources */
+	public static final int NUM_SOURCES = 1;
+
+	/** Maximum number of mutations of a duplicate */
+	public int retries;
+
+	/** Fingerprints seen, shared by all the clones of this pipeline */
+	private SeenGenomes seen;
+
+	/**
+	 * Return the default parameter base.
+	 */
+	public Parameter defaultBase() {
+		return FSSubsetDefaults.base().push(P_FS_SUBSET_UNIQUE);
+	}
+
+	/** Return the number of sources */
+	public int numSources() {
+		return NUM_SOURCES;
+	}
+
+	/**
+	 * Set up the pipeline.
+	 * 
+	 * @param state The evolution state
+	 * @param base  The parameter base
+	 */
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+		Parameter def = defaultBase();
+
+		int generations = state.parameters.getIntWithDefault(base.push(P_GENERATIONS), def.push(P_GENERATIONS), 1);
+		if (generations < 1)
+			state.output.fatal("The number of generations remembered must be at least 1", base.push(P_GENERATIONS),
+					def.push(P_GENERATIONS));
+
+		retries = state.parameters.getIntWithDefault(base.push(P_RETRIES), def.push(P_RETRIES), 10);
+		if (retries < 0)
+			state.output.fatal("The number of retries must be at least 0", base.push(P_RETRIES), def.push(P_RETRIES));
+
+		seen = new SeenGenomes(generations);
+	}
+
+	/**
+	 * Produce <i>n</i> individuals from the given subpopulation and put them into
+	 * inds[start...start+n-1], where n = Min(Max(q,min),max), where <i>q</i> is the
+	 * "typical" number of individuals the pipeline produces in one shot, and
+	 * returns <i>n</i>. max must be &gt;= min, and min must be &gt;= 1.
+	 */
+	public int produce(final int min, final int max, final int start, final int subpopulation, final Individual[] inds,
+			final EvolutionState state, final int thread) {
+		int n = sources[0].produce(min, max, start, subpopulation, inds, state, thread);
+
+		// should we bother?
+		if (!state.random[thread].nextBoolean(likelihood))
+			return reproduce(n, start, subpopulation, inds, state, thread, false);
+
+		seen.update(state, subpopulation);
+
+		for (int q = start; q < n + start; q++) {
+			FSSubsetIndividual ind = (FSSubsetIndividual) inds[q];
+			boolean cloned = sources[0] instanceof BreedingPipeline;
+			for (int retry = 0; retry < retries && !seen.add(ind.fingerprint()); retry++) {
+				// clone the individual if necessary before mutating it
+				if (!cloned) {
+					ind = (FSSubsetIndividual) ind.clone();
+					inds[q] = ind;
+					cloned = true;
+				}
+				// each retry changes the genome, unless no feature can be flipped
+				if (!ind.flipRandomFeature(state, thread))
+					break;
+				ind.evaluated = false;
+			}
+		}
+
+		return n;
+	}
+
+	/**
+	 * Fingerprints of the genomes seen in the last generations
+	 */
+	private static class SeenGenomes implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/** Fingerprints seen in each generation, the current one first */
+		private final Set<Long>[] generations;
+
+		/** Generation of the first set (-1 before the first update) */
+		private volatile int generation = -1;
+
+		/**
+		 * Create the sets
+		 * 
+		 * @param nGenerations Number of generations remembered
+		 */
+		@SuppressWarnings("unchecked")
+		SeenGenomes(int nGenerations) {
+			generations = new Set[nGenerations];
+			for (int g = 0; g < nGenerations; g++)
+				generations[g] = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+		}
+
+		/**
+		 * Start a new generation if the evolution has advanced, forgetting the
+		 * oldest one and remembering the individuals of the current population
+		 * 
+		 * @param state         The evolution state
+		 * @param subpopulation The subpopulation being bred
+		 */
+		void update(final EvolutionState state, int subpopulation) {
+			if (generation == state.generation)
+				return;
+
+			// breeding threads of the new generation wait for the rotation. In
+			// asynchronous evolution, a concurrent add may miss it, which only delays
+			// the detection of a duplicate
+			synchronized (this) {
+				if (generation == state.generation)
+					return;
+
+				Set<Long> oldest = generations[generations.length - 1];
+				System.arraycopy(generations, 0, generations, 1, generations.length - 1);
+				oldest.clear();
+				for (Individual ind : state.population.subpops[subpopulation].individuals)
+					if (ind instanceof FSSubsetIndividual)
+						oldest.add(((FSSubsetIndividual) ind).fingerprint());
+				generations[0] = oldest;
+				generation = state.generation;
+			}
+		}
+
+		/**
+		 * Remember a fingerprint
+		 * 
+		 * @param fingerprint The fingerprint
+		 * @return false if it had already been seen
+		 */
+		boolean add(long fingerprint) {
+			for (int g = 1; g < generations.length; g++)
+				if (generations[g].contains(fingerprint))
+					return false;
+			return generations[0].add(fingerprint);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.problem.fs.subset.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.multiobjective.MultiObjectiveFitness;
+import ec.util.Parameter;
+import ristretto.ecjtools.FastNSGA2Evaluator;
+import ristretto.problem.fs.subset.FSSubsetIndividual;
+
+/**
+ * NSGA-II evaluator that distributes the evaluation of
+ * {@link ristretto.problem.fs.subset.FSSubsetIndividual}s among several local
+ * worker processes
+ * ({@link ristretto.problem.fs.subset.distributed.FSSubsetEvaluationWorker}),
+ * without ECJ's master/slave sockets.
+ *
+ * <p>
+ *
+ * The workers are launched with the same JVM and class path as the evolution,
+ * receive the parameter database once and keep the dataset in memory for the
+ * whole run. Each generation, the individuals not yet evaluated are grouped
+ * into batches that are sent to the first free worker, encoded compactly by
+ * {@link ristretto.problem.fs.subset.distributed.FSSubsetEvaluationProtocol}.
+ * Any individual left unevaluated (i.e. not an FSSubsetIndividual) is
+ * evaluated locally before building the NSGA-II archive.
+ *
+ * <p>
+ * <b>Parameters</b><br>
+ * <table>
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>workers</tt><br>
+ * <font size=-1>int &gt;= 1 (default 1)</font></td>
+ * <td valign=top>(number of worker processes)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>batch-size</tt><br>
+ * <font size=-1>int &gt;= 1 (default 32)</font></td>
+ * <td valign=top>(number of individuals sent to a worker at once)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>worker.threads</tt><br>
+ * <font size=-1>int &gt;= 1 (default 1)</font></td>
+ * <td valign=top>(number of evaluation threads within each worker)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>worker.jvm-args</tt><br>
+ * <font size=-1>String</font></td>
+ * <td valign=top>(additional JVM arguments for the workers, separated by
+ * spaces)</td>
+ * </tr>
+ * </table>
+ *
+ * @author Jesús González
+ */
+public class FSSubsetDistributedEvaluator extends FastNSGA2Evaluator {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Parameter for the number of workers */
+	public static final String P_WORKERS = "workers";
+
+	/** Parameter for the batch size */
+	public static final String P_BATCH_SIZE = "batch-size";
+
+	/** Parameter for the number of threads of each worker */
+	public static final String P_WORKER_THREADS = "worker.threads";
+
+	/** Parameter for the additional JVM arguments of the workers */
+	public static final String P_WORKER_JVM_ARGS = "worker.jvm-args";
+
+	/** Default batch size */
+	public static final int defaultBatchSize = 32;
+
+	/** Number of workers */
+	public int nWorkers;
+
+	/** Batch size */
+	public int batchSize;
+
+	/** Number of threads of each worker */
+	public int workerThreads;
+
+	/** Additional JVM arguments of the workers */
+	public String[] workerJVMArgs;
+
+	/** Parameter base of the problem */
+	private Parameter problemBase;
+
+	/** Worker processes */
+	private transient Process[] workers;
+
+	/** Inputs from the workers */
+	private transient DataInputStream[] fromWorkers;
+
+	/** Outputs to the workers */
+	private transient DataOutputStream[] toWorkers;
+
+	/**
+	 * Set up the evaluator by reading it from the parameters stored in state,
+	 * built off of the parameter base base.
+	 *
+	 * @param state The evolution state
+	 * @param base  The parameter base
+	 */
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+
+		problemBase = base.push(P_PROBLEM);
+		nWorkers = state.parameters.getIntWithDefault(base.push(P_WORKERS), null, 1);
+		if (nWorkers < 1)
+			state.output.fatal("The number of workers must be an integer >= 1.", base.push(P_WORKERS));
+
+		batchSize = state.parameters.getIntWithDefault(base.push(P_BATCH_SIZE), null, defaultBatchSize);
+		if (batchSize < 1)
+			state.output.fatal("The batch size must be an integer >= 1.", base.push(P_BATCH_SIZE));
+
+		workerThreads = state.parameters.getIntWithDefault(base.push(P_WORKER_THREADS), null, 1);
+		if (workerThreads < 1)
+			state.output.fatal("The number of threads of each worker must be an integer >= 1.",
+					base.push(P_WORKER_THREADS));
+
+		String jvmArgs = state.parameters.getStringWithDefault(base.push(P_WORKER_JVM_ARGS), null, "").trim();
+		workerJVMArgs = jvmArgs.isEmpty() ? new String[0] : jvmArgs.split("\\s+");
+	}
+
+	/**
+	 * Evaluate the population. The FSSubsetIndividuals are evaluated by the
+	 * workers, then the NSGA-II archive is built
+	 *
+	 * @param state The evolution state
+	 */
+	public void evaluatePopulation(final EvolutionState state) {
+		if (workers == null)
+			startWorkers(state);
+
+		/* Build the batches */
+		final List<FSSubsetIndividual[]> batches = new ArrayList<FSSubsetIndividual[]>();
+		final List<Integer> batchSubpops = new ArrayList<Integer>();
+		for (int s = 0; s < state.population.subpops.length; s++) {
+			List<FSSubsetIndividual> pending = new ArrayList<FSSubsetIndividual>();
+			for (Individual ind : state.population.subpops[s].individuals)
+				if (!ind.evaluated && ind instanceof FSSubsetIndividual)
+					pending.add((FSSubsetIndividual) ind);
+
+			for (int from = 0; from < pending.size(); from += batchSize) {
+				List<FSSubsetIndividual> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+				batches.add(batch.toArray(new FSSubsetIndividual[batch.size()]));
+				batchSubpops.add(s);
+			}
+		}
+
+		/* Each worker takes the next batch as soon as it is free */
+		final double[][][] results = new double[batches.size()][][];
+		final AtomicInteger next = new AtomicInteger();
+		final Throwable[] failure = new Throwable[1];
+		Thread[] senders = new Thread[nWorkers];
+		for (int w = 0; w < nWorkers; w++) {
+			final int worker = w;
+			senders[w] = new Thread() {
+				public void run() {
+					try {
+						for (int b = next.getAndIncrement(); b < results.length; b = next.getAndIncrement()) {
+							toWorkers[worker].writeByte(FSSubsetEvaluationProtocol.EVALUATE);
+							toWorkers[worker].writeInt(batchSubpops.get(b));
+							FSSubsetEvaluationProtocol.writeGenomes(toWorkers[worker], batches.get(b));
+							toWorkers[worker].flush();
+							results[b] = FSSubsetEvaluationProtocol.readObjectives(fromWorkers[worker]);
+						}
+					} catch (Throwable e) {
+						synchronized (failure) {
+							if (failure[0] == null)
+								failure[0] = e;
+						}
+					}
+				}
+			};
+			senders[w].start();
+		}
+
+		for (Thread sender : senders) {
+			try {
+				sender.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				state.output.fatal("Interrupted while waiting for the workers");
+			}
+		}
+
+		synchronized (failure) {
+			if (failure[0] != null)
+				state.output.fatal("Communication with a worker failed: " + failure[0]);
+		}
+
+		/* Set the fitnesses */
+		for (int b = 0; b < results.length; b++) {
+			FSSubsetIndividual[] batch = batches.get(b);
+			if (results[b] == null || results[b].length != batch.length)
+				state.output.fatal("A worker returned " + (results[b] == null ? 0 : results[b].length)
+						+ " evaluations for a batch of " + batch.length + " individuals");
+			for (int i = 0; i < batch.length; i++) {
+				((MultiObjectiveFitness) batch[i].fitness).setObjectives(state, results[b][i]);
+				batch[i].evaluated = true;
+			}
+		}
+
+		// The remaining individuals are evaluated locally
+		super.evaluatePopulation(state);
+	}
+
+	/**
+	 * Launch the worker processes and send them the parameters
+	 *
+	 * @param state The evolution state
+	 */
+	private void startWorkers(final EvolutionState state) {
+		workers = new Process[nWorkers];
+		fromWorkers = new DataInputStream[nWorkers];
+		toWorkers = new DataOutputStream[nWorkers];
+
+		try {
+			ByteArrayOutputStream serializedParams = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(serializedParams);
+			oos.writeObject(state.parameters);
+			oos.close();
+
+			List<String> command = new ArrayList<String>();
+			command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+			for (String arg : workerJVMArgs)
+				command.add(arg);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(FSSubsetEvaluationWorker.class.getName());
+
+			for (int w = 0; w < nWorkers; w++) {
+				ProcessBuilder builder = new ProcessBuilder(command);
+				builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+				workers[w] = builder.start();
+				fromWorkers[w] = new DataInputStream(new BufferedInputStream(workers[w].getInputStream()));
+				toWorkers[w] = new DataOutputStream(new BufferedOutputStream(workers[w].getOutputStream()));
+
+				toWorkers[w].writeInt(serializedParams.size());
+				serializedParams.writeTo(toWorkers[w]);
+				toWorkers[w].writeUTF(problemBase.toString());
+				toWorkers[w].writeInt(workerThreads);
+				toWorkers[w].writeLong(state.random[0].nextLong());
+				toWorkers[w].flush();
+			}
+		} catch (IOException e) {
+			state.output.fatal("Could not start the workers: " + e.getMessage());
+		}
+
+		final Process[] processes = workers;
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				for (Process worker : processes)
+					if (worker != null)
+						worker.destroy();
+			}
+		});
+	}
+
+	/**
+	 * Finish the workers at the end of the run
+	 *
+	 * @param state  The evolution state
+	 * @param result The result of the run
+	 */
+	public void closeContacts(final EvolutionState state, final int result) {
+		super.closeContacts(state, result);
+
+		if (workers == null)
+			return;
+
+		for (int w = 0; w < nWorkers; w++) {
+			try {
+				toWorkers[w].writeByte(FSSubsetEvaluationProtocol.QUIT);
+				toWorkers[w].flush();
+				workers[w].waitFor();
+			} catch (IOException e) {
+				workers[w].destroy();
+			} catch (InterruptedException e) {
+				workers[w].destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+		workers = null;
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.problem.fs.subset.distributed;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.TreeSet;
+
+import ristretto.problem.fs.subset.FSSubsetIndividual;
+
+/**
+ * Messages exchanged between
+ * {@link ristretto.problem.fs.subset.distributed.FSSubsetDistributedEvaluator}
+ * and its
+ * {@link ristretto.problem.fs.subset.distributed.FSSubsetEvaluationWorker}s.
+ *
+ * <p>
+ *
+ * After a handshake carrying the parameter database, the evaluator sends
+ * batches of genomes and the worker answers with their objectives:
+ *
+ * <ul>
+ * <li>Evaluation request: {@link #EVALUATE}, the subpopulation index, the
+ * number of genomes and then each genome. Since genomes are sorted sets of
+ * feature indices, each one is encoded as its size followed by the gaps
+ * between consecutive features, all of them as variable-length integers. Thus
+ * most features take only one byte.</li>
+ * <li>Evaluation response: {@link #SUCCESS}, the number of individuals, the
+ * number of objectives and then the objectives of each individual as doubles.
+ * If the evaluation of the batch failed, {@link #FAILURE} and the description
+ * of the error are sent instead.</li>
+ * <li>Quit request: {@link #QUIT}.</li>
+ * </ul>
+ *
+ * @author Jesús González
+ */
+public class FSSubsetEvaluationProtocol {
+
+	/** Request to evaluate a batch of genomes */
+	public static final byte EVALUATE = 1;
+
+	/** Request to finish the worker */
+	public static final byte QUIT = 0;
+
+	/** Response to a batch successfully evaluated */
+	public static final byte SUCCESS = 0;
+
+	/** Response to a batch whose evaluation failed */
+	public static final byte FAILURE = 1;
+
+	/**
+	 * Write a batch of genomes
+	 *
+	 * @param out  The output
+	 * @param inds The individuals
+	 * @throws IOException If the genomes can not be written
+	 */
+	public static void writeGenomes(DataOutput out, FSSubsetIndividual[] inds) throws IOException {
+		FSSubsetIndividual.writeVarInt(out, inds.length);
+		for (FSSubsetIndividual ind : inds)
+			FSSubsetIndividual.writeGenome(out, ind.genome);
+	}
+
+	/**
+	 * Read a batch of genomes
+	 *
+	 * @param in The input
+	 * @return The genomes
+	 * @throws IOException If the genomes can not be read
+	 */
+	public static TreeSet<Integer>[] readGenomes(DataInput in) throws IOException {
+		int n = FSSubsetIndividual.readVarInt(in);
+		@SuppressWarnings("unchecked")
+		TreeSet<Integer>[] genomes = new TreeSet[n];
+		for (int i = 0; i < n; i++)
+			genomes[i] = FSSubsetIndividual.readGenome(in);
+		return genomes;
+	}
+
+	/**
+	 * Write the objectives of a batch of individuals
+	 *
+	 * @param out        The output
+	 * @param objectives The objectives of each individual
+	 * @throws IOException If the objectives can not be written
+	 */
+	public static void writeObjectives(DataOutput out, double[][] objectives) throws IOException {
+		out.writeByte(SUCCESS);
+		out.writeInt(objectives.length);
+		out.writeInt(objectives.length == 0 ? 0 : objectives[0].length);
+		for (double[] o : objectives)
+			for (double v : o)
+				out.writeDouble(v);
+	}
+
+	/**
+	 * Write the failure of the evaluation of a batch
+	 *
+	 * @param out   The output
+	 * @param error The error that made the evaluation fail
+	 * @throws IOException If the failure can not be written
+	 */
+	public static void writeFailure(DataOutput out, Throwable error) throws IOException {
+		out.writeByte(FAILURE);
+		out.writeUTF(String.valueOf(error));
+	}
+
+	/**
+	 * Read the objectives of a batch of individuals
+	 *
+	 * @param in The input
+	 * @return The objectives of each individual
+	 * @throws IOException If the objectives can not be read or the worker failed
+	 *                     to evaluate the batch
+	 */
+	public static double[][] readObjectives(DataInput in) throws IOException {
+		byte status = in.readByte();
+		if (status == FAILURE)
+			throw new IOException("The worker failed to evaluate a batch: " + in.readUTF());
+		else if (status != SUCCESS)
+			throw new IOException("Unknown response status " + status);
+
+		int n = in.readInt();
+		int nObjectives = in.readInt();
+		double[][] objectives = new double[n][nObjectives];
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < nObjectives; j++)
+				objectives[i][j] = in.readDouble();
+		return objectives;
+	}
+}
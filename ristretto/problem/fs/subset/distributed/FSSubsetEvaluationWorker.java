@@ -0,0 +1,218 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.problem.fs.subset.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Fitness;
+import ec.Problem;
+import ec.multiobjective.MultiObjectiveFitness;
+import ec.simple.SimpleProblemForm;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import ristretto.problem.fs.subset.FSSubsetIndividual;
+
+/**
+ * Worker process for
+ * {@link ristretto.problem.fs.subset.distributed.FSSubsetDistributedEvaluator}.
+ * It is launched by the evaluator and communicates with it through its
+ * standard input and output, following
+ * {@link ristretto.problem.fs.subset.distributed.FSSubsetEvaluationProtocol}.
+ * Anything else written to the standard output (ECJ messages, debug logs,
+ * ...) is redirected to the standard error.
+ *
+ * <p>
+ *
+ * The worker receives the parameter database of the run and sets up its own
+ * copy of the problem only once, so the dataset remains resident in the worker
+ * while it evaluates all the batches of the run. Each batch is evaluated by
+ * several threads, each one with its own clone of the problem.
+ *
+ * @author Jesús González
+ */
+public class FSSubsetEvaluationWorker {
+
+	/**
+	 * Main method
+	 *
+	 * @param args No arguments are needed
+	 */
+	public static void main(String[] args) {
+		Locale.setDefault(new Locale("en", "US"));
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+
+		// Only the protocol can use the standard output
+		System.setOut(System.err);
+
+		try {
+			/* Handshake */
+			byte[] serializedParams = new byte[in.readInt()];
+			in.readFully(serializedParams);
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serializedParams));
+			ParameterDatabase parameters = (ParameterDatabase) ois.readObject();
+			ois.close();
+			Parameter problemBase = new Parameter(in.readUTF());
+			int nThreads = in.readInt();
+			long seed = in.readLong();
+
+			/* A minimal evolution state for the problem */
+			EvolutionState state = new EvolutionState();
+			state.parameters = parameters;
+			state.output = Evolve.buildOutput();
+			state.evalthreads = nThreads;
+			state.random = new MersenneTwisterFast[nThreads];
+			for (int t = 0; t < nThreads; t++)
+				state.random[t] = new MersenneTwisterFast(seed + t);
+
+			Problem problem = (Problem) parameters.getInstanceForParameter(problemBase, null, Problem.class);
+			problem.setup(state, problemBase);
+			if (!(problem instanceof SimpleProblemForm))
+				state.output.fatal("The problem should implement SimpleProblemForm", problemBase);
+
+			Problem[] problems = new Problem[nThreads];
+			for (int t = 0; t < nThreads; t++) {
+				problems[t] = (Problem) problem.clone();
+				problems[t].prepareToEvaluate(state, t);
+			}
+
+			/* Fitness prototypes of each subpopulation, built on demand */
+			Fitness[] fitnesses = new Fitness[0];
+
+			while (in.readByte() == FSSubsetEvaluationProtocol.EVALUATE) {
+				int subpop = in.readInt();
+				TreeSet<Integer>[] genomes = FSSubsetEvaluationProtocol.readGenomes(in);
+
+				if (subpop >= fitnesses.length) {
+					Fitness[] grown = new Fitness[subpop + 1];
+					System.arraycopy(fitnesses, 0, grown, 0, fitnesses.length);
+					fitnesses = grown;
+				}
+				if (fitnesses[subpop] == null) {
+					Parameter fitnessBase = new Parameter("pop.subpop." + subpop + ".species.fitness");
+					fitnesses[subpop] = (Fitness) parameters.getInstanceForParameter(fitnessBase, null,
+							MultiObjectiveFitness.class);
+					fitnesses[subpop].setup(state, fitnessBase);
+				}
+
+				FSSubsetIndividual[] inds = new FSSubsetIndividual[genomes.length];
+				for (int i = 0; i < inds.length; i++) {
+					inds[i] = new FSSubsetIndividual();
+					inds[i].genome = genomes[i];
+					inds[i].fitness = (Fitness) fitnesses[subpop].clone();
+				}
+
+				Throwable failure = evaluate(state, problems, inds, subpop);
+				if (failure != null) {
+					failure.printStackTrace();
+					FSSubsetEvaluationProtocol.writeFailure(out, failure);
+					out.flush();
+					continue;
+				}
+
+				double[][] objectives = new double[inds.length][];
+				for (int i = 0; i < inds.length; i++)
+					objectives[i] = ((MultiObjectiveFitness) inds[i].fitness).getObjectives();
+				FSSubsetEvaluationProtocol.writeObjectives(out, objectives);
+				out.flush();
+			}
+
+			for (int t = 0; t < nThreads; t++)
+				problems[t].finishEvaluating(state, t);
+		} catch (IOException | ClassNotFoundException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Evaluate a batch of individuals with several threads
+	 *
+	 * @param state    The evolution state
+	 * @param problems A clone of the problem for each thread
+	 * @param inds     The individuals
+	 * @param subpop   Their subpopulation
+	 * @return The first error thrown by the threads, or null if all the
+	 *         individuals have been evaluated
+	 */
+	private static Throwable evaluate(final EvolutionState state, final Problem[] problems,
+			final FSSubsetIndividual[] inds, final int subpop) {
+		final AtomicInteger next = new AtomicInteger();
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[problems.length];
+
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					SimpleProblemForm problem = (SimpleProblemForm) problems[thread];
+					try {
+						for (int i = next.getAndIncrement(); i < inds.length; i = next.getAndIncrement())
+							problem.evaluate(state, inds[i], subpop, thread);
+					} catch (Throwable e) {
+						synchronized (failure) {
+							if (failure[0] == null)
+								failure[0] = e;
+						}
+						// the other threads stop taking individuals
+						next.set(inds.length);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				synchronized (failure) {
+					if (failure[0] == null)
+						failure[0] = e;
+				}
+			}
+		}
+
+		synchronized (failure) {
+			return failure[0];
+		}
+	}
+}
@@ -23,9 +23,6 @@
 
 package ristretto.problem.fs.subset.supervised;
 
-import java.util.ArrayList;
-import java.util.TreeSet;
-
 import ec.EvolutionState;
 import ec.Individual;
 import ec.Population;
@@ -33,8 +30,10 @@ import ec.coevolve.GroupedProblemForm;
 import ec.util.Parameter;
 import ec.vector.DoubleVectorIndividual;
 import ristretto.ecjtools.LexicographicFitness;
+import ristretto.jmltools.EvaluationEvent;
 import ristretto.jmltools.MoreDatasetTools;
 import ristretto.jmltools.classification.evaluation.PerformanceIndexes;
+import ristretto.problem.fs.subset.FSSubsetGenome;
 import ristretto.problem.fs.subset.FSSubsetIndividual;
 import libsvm.LibSVM;
 import libsvm.svm_parameter;
@@ -220,9 +219,9 @@ public class FSSubsetSupervisedCoevolutionaryProblem extends FSSubsetSupervisedP
 				if (nFolds < 2)
 					state.output.fatal("The number of folds should be at least 2", base.push(P_NFOLDS),
 							def.push(P_NFOLDS));
-				else if (nFolds > this.data.size())
+				else if (nFolds > numInstances())
 					state.output.fatal(
-							"The number of folds cannot be greater the number of data (" + data.size() + ")",
+							"The number of folds cannot be greater the number of data (" + numInstances() + ")",
 							base.push(P_NFOLDS), def.push(P_NFOLDS));
 			} else
 				state.output.fatal("Incorrect evaluation mode", base.push(P_NFOLDS), def.push(P_NFOLDS));
@@ -247,7 +246,7 @@ public class FSSubsetSupervisedCoevolutionaryProblem extends FSSubsetSupervisedP
 		for (int i = 0; i < pop.subpops.length; i++) {
 			if (prepareForAssessment[i])
 				for (int j = 0; j < pop.subpops[i].individuals.length; j++)
-					((LexicographicFitness) (pop.subpops[i].individuals[j].fitness)).trials = new ArrayList<LexicographicFitness>();
+					((LexicographicFitness) (pop.subpops[i].individuals[j].fitness)).resetTrials();
 		}
 	}
 
@@ -274,11 +273,12 @@ public class FSSubsetSupervisedCoevolutionaryProblem extends FSSubsetSupervisedP
 					LexicographicFitness fit = ((LexicographicFitness) (ind.fitness));
 
 					// Get the best trial
-					LexicographicFitness bestTrial = (LexicographicFitness) fit.trials.get(0);
-					fit.setObjectives(state, bestTrial.getObjectives());
+					double[] bestTrial = fit.getBestTrial();
+					if (bestTrial != null)
+						fit.setObjectives(state, bestTrial);
 
-					// prepare trials for the garbage collector
-					fit.trials = null;
+					// prepare trials for the next evaluation
+					fit.resetTrials();
 					ind.evaluated = true;
 				}
 			}
@@ -295,7 +295,7 @@ public class FSSubsetSupervisedCoevolutionaryProblem extends FSSubsetSupervisedP
 	public FSSubsetIndividual combineFeatures(final EvolutionState state, final Individual[] inds) {
 
 		FSSubsetIndividual combinedFeatures = new FSSubsetIndividual();
-		combinedFeatures.genome = new TreeSet<Integer>();
+		combinedFeatures.genome = new FSSubsetGenome();
 
 		/*
 		 * Since classifiers are also co-evolved with features, and individuals are not
@@ -379,7 +379,6 @@ public class FSSubsetSupervisedCoevolutionaryProblem extends FSSubsetSupervisedP
 	 * @param subpops            Subpopulations
 	 * @param threadnum          The thread of execution
 	 */
-	@SuppressWarnings("unchecked")
 	public void evaluate(final EvolutionState state, final Individual[] inds, final boolean[] updateFitness,
 			final boolean countVictoriesOnly, int[] subpops, final int threadnum) {
 
@@ -403,6 +402,8 @@ public class FSSubsetSupervisedCoevolutionaryProblem extends FSSubsetSupervisedP
 		double svmGamma = ((DoubleVectorIndividual) inds[0]).genome[1];
 
 		if (nFeatures > 0) {
+			EvaluationEvent event = EvaluationEvent.begin(EvaluationEvent.COEVOLUTIONARY_EVALUATION);
+
 			/*
 			 * Create the classifier according to the first individual parameters
 			 */
@@ -452,6 +453,11 @@ public class FSSubsetSupervisedCoevolutionaryProblem extends FSSubsetSupervisedP
 			} catch (Exception e) {
 				state.output.fatal(e.getMessage());
 			}
+
+			if (event != null)
+				event.commit(nFeatures, LibSVM.class,
+						evaluationMode == C_VALIDATION_ONLY || evaluationMode == C_VALIDATION_TRAINING ? 0 : nFolds, 0,
+						combinedFeatures.genome);
 		}
 
 		// Objectives: Validation Kappa, number of features and C
@@ -476,45 +482,10 @@ public class FSSubsetSupervisedCoevolutionaryProblem extends FSSubsetSupervisedP
 
 		// update individuals to reflect the trial
 		for (int i = 0; i < inds.length; i++) {
-			Individual coind = inds[i];
-			LexicographicFitness thisTrial = (LexicographicFitness) coind.fitness.clone();
-			thisTrial.context = null;
-			thisTrial.trials = null;
-			thisTrial.setObjectives(state, objectives);
 			if (updateFitness[i]) {
-				// Update the context if this is the best trial. We're going
-				// to assume that the best trial is trial #0 so we don't
-				// have to search through them.
-				int len = coind.fitness.trials.size();
-
-				if (len == 0) { // easy
-					if (shouldSetContext)
-						coind.fitness.setContext(inds, i);
-					coind.fitness.trials.add(thisTrial);
-				} else {
-					// best trial is presently #0
-					LexicographicFitness bestTrial = (LexicographicFitness) coind.fitness.trials.get(0);
-					if (thisTrial.betterThan(bestTrial)) {
-						if (shouldSetContext)
-							coind.fitness.setContext(inds, i);
-						// put me at position 0
-						coind.fitness.trials.set(0, thisTrial); // put me at 0
-						coind.fitness.trials.add(bestTrial); // move him to the end
-
-						/*
-						 * System.out.print("This trial (should be better):"); for (int k=0 ;
-						 * k<thisTrial.getNumObjectives() ; k++) System.out.print(" " +
-						 * thisTrial.getObjective(k)); System.out.println();
-						 * System.out.print("The best until now:"); for (int k=0 ;
-						 * k<bestTrial.getNumObjectives() ; k++) System.out.print(" " +
-						 * bestTrial.getObjective(k)); System.out.println(); System.out.println();
-						 */
-
-					}
-				}
-
-				// finally set the fitness for good measure
-				((LexicographicFitness) (coind.fitness)).setObjectives(state, objectives);
+				// Only the best trial is kept. Update the context if this is the best trial
+				((LexicographicFitness) inds[i].fitness).recordTrial(state, objectives,
+						shouldSetContext ? inds : null, i);
 			}
 		}
 
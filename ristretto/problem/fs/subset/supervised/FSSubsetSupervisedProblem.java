@@ -31,9 +31,15 @@ import org.apache.commons.math3.linear.RealMatrix;
 import ec.EvolutionState;
 import ec.Individual;
 import ec.multiobjective.MultiObjectiveFitness;
+import ec.util.MersenneTwisterFast;
 import ec.util.Parameter;
+import ristretto.jmltools.EvaluationEvent;
 import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.classification.FastKNearestNeighbors;
 import ristretto.jmltools.classification.evaluation.PerformanceIndexes;
+import ristretto.jmltools.data.ColumnarData;
+import ristretto.jmltools.distance.SquaredDistanceMatrix;
+import ristretto.problem.fs.subset.FSSubsetEvaluationMetrics;
 import ristretto.problem.fs.subset.FSSubsetIndividual;
 import ristretto.problem.fs.subset.FSSubsetProblem;
 import net.sf.javaml.classification.Classifier;
@@ -58,7 +64,10 @@ import net.sf.javaml.core.Dataset;
  * <tr>
  * <td valign=top><i>base</i>.<tt>classifier</tt><br>
  * <font size=-1>{@link net.sf.javaml.classification.Classifier}</font></td>
- * <td valign=top>(the classifier to be used within the wrapper procedure)</td>
+ * <td valign=top>(the classifier to be used within the wrapper procedure.
+ * KNN classifiers, such as
+ * {@link ristretto.jmltools.classification.FastKNearestNeighbors}, use k =
+ * sqrt(n))</td>
  * </tr>
  * 
  * <tr>
@@ -74,6 +83,33 @@ import net.sf.javaml.core.Dataset;
  * <td valign=top>(Proportion of samples used for validation)</td>
  * </tr>
  * 
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>knn-leave-one-out</tt><br>
+ * <font size=-1>boolean (default = false)</font></td>
+ * <td valign=top>(should the training objective of
+ * {@link ristretto.jmltools.classification.FastKNearestNeighbors} be obtained
+ * by leave-one-out?)</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>delta-evaluation</tt><br>
+ * <font size=-1>boolean (default = false)</font></td>
+ * <td valign=top>(should
+ * {@link ristretto.jmltools.classification.FastKNearestNeighbors} classify from
+ * the squared distances between all the instances, updated from those of the
+ * parent for the features changed by the breeding? Each individual keeps a
+ * matrix of n(n-1)/2 doubles for the n instances of the dataset, thus it is
+ * meant for small datasets. Not compatible with LDA)</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td valign=top><i>base</i>.<tt>delta-evaluation.max-instances</tt><br>
+ * <font size=-1>int &gt;= 2 (default = 2048)</font></td>
+ * <td valign=top>(maximum number of instances of the dataset for the delta
+ * evaluation. The default limit keeps the matrix of each individual below
+ * 16MB)</td>
+ * </tr>
+ * 
  * </table>
  * 
  * @author Jesús González
@@ -95,6 +131,18 @@ public class FSSubsetSupervisedProblem extends FSSubsetProblem {
 	 */
 	public static final String P_VALIDATION_PROP = "validation-prop";
 
+	/** Parameter to obtain the KNN training objective by leave-one-out */
+	public static final String P_KNN_LEAVE_ONE_OUT = "knn-leave-one-out";
+
+	/** Parameter to evaluate the KNN classifier incrementally */
+	public static final String P_DELTA_EVALUATION = "delta-evaluation";
+
+	/** Parameter for the maximum number of instances for the delta evaluation */
+	public static final String P_DELTA_MAX_INSTANCES = P_DELTA_EVALUATION + ".max-instances";
+
+	/** Default maximum number of instances for the delta evaluation */
+	public static final int defaultDeltaMaxInstances = 2048;
+
 	/** Default classifier */
 	public static final String defaultClassifier = "ristretto.jmltools.classification.NaiveBayes";
 
@@ -110,6 +158,12 @@ public class FSSubsetSupervisedProblem extends FSSubsetProblem {
 	/** Validation proportion */
 	public double validationProp;
 
+	/** Whether the KNN training objective is obtained by leave-one-out */
+	public boolean knnLeaveOneOut;
+
+	/** Whether the KNN classifier is evaluated incrementally */
+	public boolean deltaEvaluation;
+
 	/** Classifier parameters */
 	public static ClassifierParameters classifierParams;
 
@@ -164,9 +218,35 @@ public class FSSubsetSupervisedProblem extends FSSubsetProblem {
 			this.validationProp = defaultValidationProp;
 		}
 
+		/* Test if the KNN training objective should be obtained by leave-one-out */
+		this.knnLeaveOneOut = state.parameters.getBoolean(base.push(P_KNN_LEAVE_ONE_OUT),
+				def.push(P_KNN_LEAVE_ONE_OUT), false);
+		if (knnLeaveOneOut && !FastKNearestNeighbors.class.isAssignableFrom(classifierClass))
+			state.output.fatal("Leave-one-out is only available for " + FastKNearestNeighbors.class.getName(),
+					base.push(P_KNN_LEAVE_ONE_OUT), def.push(P_KNN_LEAVE_ONE_OUT));
+
+		/* Test if the KNN classifier should be evaluated incrementally */
+		this.deltaEvaluation = state.parameters.getBoolean(base.push(P_DELTA_EVALUATION),
+				def.push(P_DELTA_EVALUATION), false);
+		if (deltaEvaluation && (applyLDA || !FastKNearestNeighbors.class.isAssignableFrom(classifierClass)))
+			state.output.fatal("Delta evaluation is only available for " + FastKNearestNeighbors.class.getName()
+					+ " without LDA", base.push(P_DELTA_EVALUATION), def.push(P_DELTA_EVALUATION));
+		if (deltaEvaluation) {
+			// each individual keeps the distances between all the instances
+			int maxInstances = state.parameters.getIntWithDefault(base.push(P_DELTA_MAX_INSTANCES),
+					def.push(P_DELTA_MAX_INSTANCES), defaultDeltaMaxInstances);
+			if (maxInstances < 2)
+				state.output.fatal("The maximum number of instances must be an integer >= 2",
+						base.push(P_DELTA_MAX_INSTANCES), def.push(P_DELTA_MAX_INSTANCES));
+			if (numInstances() > maxInstances)
+				state.output.fatal("Delta evaluation keeps n(n-1)/2 distances per individual and the dataset has "
+						+ numInstances() + " instances, more than " + maxInstances,
+						base.push(P_DELTA_MAX_INSTANCES), def.push(P_DELTA_MAX_INSTANCES));
+		}
+
 		// For KNN, fix k to an odd number near sqrt(number of samples)
 		classifierParams = new ClassifierParameters();
-		classifierParams.k = (int) Math.round(Math.sqrt(data.size()));
+		classifierParams.k = (int) Math.round(Math.sqrt(numInstances()));
 		if ((classifierParams.k & 1) == 0)
 			classifierParams.k++;
 	}
@@ -179,15 +259,30 @@ public class FSSubsetSupervisedProblem extends FSSubsetProblem {
 	 * @return The training data
 	 */
 	public Dataset generateTrainingData(FSSubsetIndividual ind) {
+		return generateTrainingData(ind, 0);
+	}
+
+	/**
+	 * Project the selected features according to ind and apply LDA depending on the
+	 * value of applyLDA. The time of both phases is added to the metrics
+	 * 
+	 * @param ind       The individual containing the selected features
+	 * @param threadnum The thread of execution
+	 * @return The training data
+	 */
+	public Dataset generateTrainingData(FSSubsetIndividual ind, int threadnum) {
 
 		/* Project only the selected features */
-		Dataset selectedFeatures = MoreDatasetTools.project(data, ind.genome);
+		long time = FSSubsetEvaluationMetrics.start();
+		Dataset selectedFeatures = project(ind.genome);
 		Dataset training = selectedFeatures;
+		time = metrics.stop(threadnum, FSSubsetEvaluationMetrics.PROJECTION, time);
 
 		/* Apply LDA to the selected features */
 		if (applyLDA) {
 			RealMatrix proj = MoreDatasetTools.directLDA(selectedFeatures);
 			training = MoreDatasetTools.project(selectedFeatures, proj);
+			metrics.stop(threadnum, FSSubsetEvaluationMetrics.LDA, time);
 		}
 
 		return training;
@@ -261,38 +356,65 @@ public class FSSubsetSupervisedProblem extends FSSubsetProblem {
 		if (nFeatures == 0) {
 			for (int i = 0; i < objectives.length; i++)
 				objectives[i] = -Double.MAX_VALUE;
+		} else if (readArchivedObjectives(state, fsInd, objectives)) {
+			metrics.countEvaluation(threadnum, nFeatures, true);
+			if (debug)
+				System.out.println("NFeatures: " + nFeatures + "\tARCHIVED");
+		} else if (deltaEvaluation) {
+			EvaluationEvent event = EvaluationEvent.begin(EvaluationEvent.SUPERVISED_EVALUATION);
+			deltaEvaluate(state, fsInd, objectives, threadnum);
+			writeArchivedObjectives(state, fsInd, objectives);
+			metrics.countEvaluation(threadnum, nFeatures, false);
+			if (event != null)
+				event.commit(nFeatures, classifierClass, 0, 0, fsInd.genome);
+			if (debug)
+				System.out.println("NFeatures: " + nFeatures + "\tUPDATES: " + fsInd.distances.updates() + "\tDONE!");
 		} else {
-			if (debug) {
-				System.out.println("NFeatures: " + nFeatures);
-				System.out.print("Features:");
-				for (int i : fsInd.genome)
-					System.out.print(" " + i);
-				System.out.println();
-			}
-
+			EvaluationEvent event = EvaluationEvent.begin(EvaluationEvent.SUPERVISED_EVALUATION);
 			try {
 				/*
 				 * Generate the training dataset according to the selected features
 				 */
-				Dataset training = generateTrainingData(fsInd);
+				Dataset training = generateTrainingData(fsInd, threadnum);
 
 				/* Split the dataset into training and validation datasets */
+				long time = FSSubsetEvaluationMetrics.start();
 				Dataset validation = MoreDatasetTools.split(training, validationProp);
+				time = metrics.stop(threadnum, FSSubsetEvaluationMetrics.SPLIT, time);
 
 				/* Construct the classifier */
 				Classifier classifier = constructClassifier();
 				classifier.buildClassifier(training);
+				time = metrics.stop(threadnum, FSSubsetEvaluationMetrics.TRAINING, time);
 
-				/* Evaluate the solution */
-				objectives[0] = PerformanceIndexes.kappa(classifier, training);
+				/*
+				 * Evaluate the solution. Leave-one-out predictions of KNN are obtained
+				 * from a single pass over the distances between training instances
+				 */
+				if (knnLeaveOneOut)
+					objectives[0] = PerformanceIndexes.kappa(PerformanceIndexes.confusionMatrix(training,
+							((FastKNearestNeighbors) classifier).classifyLeaveOneOut(),
+							PerformanceIndexes.classValues(training)));
+				else
+					objectives[0] = PerformanceIndexes.kappa(classifier, training);
 				objectives[1] = PerformanceIndexes.kappa(classifier, validation);
+				metrics.stop(threadnum, FSSubsetEvaluationMetrics.PREDICTION, time);
+				writeArchivedObjectives(state, fsInd, objectives);
 
 			} catch (Exception e) {
 				state.output.fatal(e.getMessage());
 			}
+			metrics.countEvaluation(threadnum, nFeatures, false);
+			if (event != null)
+				event.commit(nFeatures, classifierClass, 0, 0, fsInd.genome);
 
-			if (debug)
-				System.out.println("\tDONE!");
+			/* A single line per evaluation, the timings are kept by the metrics */
+			if (debug) {
+				StringBuilder line = new StringBuilder("NFeatures: " + nFeatures + "\tFeatures:");
+				for (int i : fsInd.genome)
+					line.append(" " + i);
+				System.out.println(line.append("\tDONE!"));
+			}
 		}
 
 		/* Sets the fitness */
@@ -300,6 +422,127 @@ public class FSSubsetSupervisedProblem extends FSSubsetProblem {
 		ind.evaluated = true;
 	}
 
+	/**
+	 * Evaluate an individual with the KNN classifier from the squared distances
+	 * between the instances. The distances of the parent, inherited by the
+	 * individual, are updated only for the features added or removed by the
+	 * breeding
+	 *
+	 * @param state      The state of the evolutionary process
+	 * @param ind        Individual to be evaluated
+	 * @param objectives Array where the objectives are stored
+	 * @param threadnum  The thread of execution
+	 */
+	private void deltaEvaluate(final EvolutionState state, FSSubsetIndividual ind, double[] objectives,
+			int threadnum) {
+		ColumnarData columnar = columnarData();
+
+		/* Distances for the selected features */
+		long time = FSSubsetEvaluationMetrics.start();
+		if (ind.distances == null || ind.distances.size() != columnar.numInstances())
+			ind.distances = new SquaredDistanceMatrix(columnar, ind.genome);
+		else
+			ind.distances = ind.distances.update(ind.genome);
+		time = metrics.stop(threadnum, FSSubsetEvaluationMetrics.PROJECTION, time);
+
+		/* Split the instances into training and validation, stratified by class */
+		int n = columnar.numInstances();
+		int nClasses = columnar.classValues().size();
+		int[] labels = new int[n];
+		for (int i = 0; i < n; i++)
+			labels[i] = columnar.label(i);
+		int[][] split = split(labels, nClasses, state.random[threadnum]);
+		int[] training = split[0];
+		int[] validation = split[1];
+		time = metrics.stop(threadnum, FSSubsetEvaluationMetrics.SPLIT, time);
+
+		/* Evaluate the solution */
+		int[] predicted = FastKNearestNeighbors.classify(ind.distances, labels, nClasses, classifierParams.k,
+				training, training, knnLeaveOneOut);
+		objectives[0] = PerformanceIndexes.kappa(confusionMatrix(labels, nClasses, training, predicted));
+		predicted = FastKNearestNeighbors.classify(ind.distances, labels, nClasses, classifierParams.k, training,
+				validation, false);
+		objectives[1] = PerformanceIndexes.kappa(confusionMatrix(labels, nClasses, validation, predicted));
+		metrics.stop(threadnum, FSSubsetEvaluationMetrics.PREDICTION, time);
+	}
+
+	/**
+	 * Split the instances into training and validation randomly. Each class
+	 * contributes to the validation instances with the validation proportion of
+	 * its instances, as {@link MoreDatasetTools#split(Dataset, double)} does
+	 *
+	 * @param labels   Class index of each instance
+	 * @param nClasses Number of classes
+	 * @param random   The random number generator
+	 * @return The training instances and the validation instances
+	 */
+	private int[][] split(int[] labels, int nClasses, MersenneTwisterFast random) {
+		int n = labels.length;
+
+		/* Group the instances by class */
+		int[] start = new int[nClasses + 1];
+		for (int i = 0; i < n; i++)
+			start[labels[i] + 1]++;
+		for (int c = 0; c < nClasses; c++)
+			start[c + 1] += start[c];
+		int[] byClass = new int[n];
+		int[] next = start.clone();
+		for (int i = 0; i < n; i++)
+			byClass[next[labels[i]]++] = i;
+
+		/* Move a random part of each class to the front of its group */
+		int nValidation = 0;
+		for (int c = 0; c < nClasses; c++) {
+			int size = start[c + 1] - start[c];
+			int outSize = (int) (size * validationProp);
+			for (int j = 0; j < outSize; j++) {
+				int pos = start[c] + j + random.nextInt(size - j);
+				int tmp = byClass[start[c] + j];
+				byClass[start[c] + j] = byClass[pos];
+				byClass[pos] = tmp;
+			}
+			nValidation += outSize;
+		}
+
+		int[] training = new int[n - nValidation];
+		int[] validation = new int[nValidation];
+		for (int c = 0, t = 0, v = 0; c < nClasses; c++) {
+			int outSize = (int) ((start[c + 1] - start[c]) * validationProp);
+			for (int i = start[c]; i < start[c + 1]; i++)
+				if (i - start[c] < outSize)
+					validation[v++] = byClass[i];
+				else
+					training[t++] = byClass[i];
+		}
+		return new int[][] { training, validation };
+	}
+
+	/**
+	 * Build the confusion matrix of some predicted instances
+	 *
+	 * @param labels    Class index of each instance
+	 * @param nClasses  Number of classes
+	 * @param instances The predicted instances
+	 * @param predicted The predicted class index of each one
+	 * @return The confusion matrix
+	 */
+	private static int[][] confusionMatrix(int[] labels, int nClasses, int[] instances, int[] predicted) {
+		int[][] matrix = new int[nClasses][nClasses + 1];
+		for (int i = 0; i < instances.length; i++)
+			matrix[labels[instances[i]]][predicted[i]]++;
+		return matrix;
+	}
+
+	/**
+	 * Return a description of the configuration of the problem, used to build the
+	 * context of the archived evaluations
+	 */
+	public String configuration() {
+		return super.configuration() + " classifier=" + classifierClass.getName() + " apply-lda=" + applyLDA
+				+ " validation-prop=" + validationProp + " k=" + classifierParams.k + " knn-leave-one-out=" + knnLeaveOneOut
+				+ " delta-evaluation=" + deltaEvaluation;
+	}
+
 	/** Classifier parameters. */
 	public class ClassifierParameters {
 		/** k value for KNN */
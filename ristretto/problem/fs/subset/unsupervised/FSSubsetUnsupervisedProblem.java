@@ -31,8 +31,9 @@ import ec.EvolutionState;
 import ec.Individual;
 import ec.multiobjective.MultiObjectiveFitness;
 import ec.util.Parameter;
-import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.EvaluationEvent;
 import ristretto.jmltools.clustering.evaluation.CVIFSNormalizer;
+import ristretto.problem.fs.subset.FSSubsetEvaluationMetrics;
 import ristretto.problem.fs.subset.FSSubsetIndividual;
 import ristretto.problem.fs.subset.FSSubsetProblem;
 import net.sf.javaml.clustering.Clusterer;
@@ -290,9 +291,17 @@ public class FSSubsetUnsupervisedProblem extends FSSubsetProblem {
 					objectives[1] = Double.MIN_VALUE;
 				else
 					objectives[1] = Double.MAX_VALUE;
+			} else if (readArchivedObjectives(state, fsInd, objectives)) {
+				metrics.countEvaluation(threadnum, nFeatures, true);
+				if (debug)
+					System.out.println("NFeatures: " + nFeatures + "\tARCHIVED");
 			} else {
+				EvaluationEvent event = EvaluationEvent.begin(EvaluationEvent.UNSUPERVISED_EVALUATION);
+
 				/* Project only the selected features */
-				Dataset projectedData = MoreDatasetTools.project(data, fsInd.genome);
+				long time = FSSubsetEvaluationMetrics.start();
+				Dataset projectedData = project(fsInd.genome);
+				time = metrics.stop(threadnum, FSSubsetEvaluationMetrics.PROJECTION, time);
 
 				/* Constructs the clusterer */
 				Class<?> clustererParameters[];
@@ -312,23 +321,12 @@ public class FSSubsetUnsupervisedProblem extends FSSubsetProblem {
 					clusterer = (Clusterer) clustererCons.newInstance(clustererNumCentroids, clustererStopCriterion);
 				}
 
-				if (debug)
-					System.out.print("NFeatures: " + nFeatures);
-
 				/*
 				 * Apply a clustering algorithm to a projection of the selected features
 				 */
-				long startTime = 0, stopTime = 0;
-				if (debug) {
-					System.out.print("\tClustering: ");
-					startTime = System.currentTimeMillis();
-				}
-
+				time = FSSubsetEvaluationMetrics.start();
 				Dataset[] clusters = clusterer.cluster(projectedData);
-				if (debug) {
-					stopTime = System.currentTimeMillis();
-					System.out.printf("%.2fs", (stopTime - startTime) / 1000.0);
-				}
+				time = metrics.stop(threadnum, FSSubsetEvaluationMetrics.CLUSTERING, time);
 
 				/* Constructs the CVIs */
 				Constructor<?> separationIndexCons = separationIndexClass.getConstructor();
@@ -338,16 +336,8 @@ public class FSSubsetUnsupervisedProblem extends FSSubsetProblem {
 				ClusterEvaluation separationIndex = (ClusterEvaluation) separationIndexCons.newInstance();
 				ClusterEvaluation compactnessIndex = (ClusterEvaluation) compactnessIndexCons.newInstance();
 
-				if (debug)
-					System.out.print("\tEvaluation: ");
-
 				double separationScore = separationIndex.score(clusters);
-				if (debug)
-					System.out.print("separation");
-
 				double compactnessScore = compactnessIndex.score(clusters);
-				if (debug)
-					System.out.print(" compactness");
 
 				/* Normalize the values of CVIs */
 				CVIFSNormalizer cviNormalizer = new CVIFSNormalizer(nFeatures, clusters);
@@ -359,12 +349,19 @@ public class FSSubsetUnsupervisedProblem extends FSSubsetProblem {
 					Method compactnessNormMethod = cviNormalizer.getClass().getMethod(compactnessNormMethodName);
 					compactnessScore /= (double) compactnessNormMethod.invoke(cviNormalizer);
 				}
+				metrics.stop(threadnum, FSSubsetEvaluationMetrics.CVI, time);
 
 				/* Evaluate the solution */
 				objectives[0] = separationScore;
 				objectives[1] = compactnessScore;
+				writeArchivedObjectives(state, fsInd, objectives);
+				metrics.countEvaluation(threadnum, nFeatures, false);
+				if (event != null)
+					event.commit(nFeatures, clustererClass, 0, 0, fsInd.genome);
+
+				/* A single line per evaluation, the timings are kept by the metrics */
 				if (debug)
-					System.out.println("\tDONE!");
+					System.out.println("NFeatures: " + nFeatures + "\tDONE!");
 			}
 
 			/* Sets the fitness */
@@ -375,4 +372,16 @@ public class FSSubsetUnsupervisedProblem extends FSSubsetProblem {
 			state.output.fatal(e.getMessage());
 		}
 	}
+
+	/**
+	 * Return a description of the configuration of the problem, used to build the
+	 * context of the archived evaluations
+	 */
+	public String configuration() {
+		return super.configuration() + " clusterer=" + clustererClass.getName() + " num-centroids="
+				+ clustererNumCentroids + " stop-criterion=" + clustererStopCriterion + " separation-index="
+				+ separationIndexClass.getName() + " separation-norm=" + separationNormMethodName
+				+ " compactness-index=" + compactnessIndexClass.getName() + " compactness-norm="
+				+ compactnessNormMethodName + " maximize=" + maximizeSeparation + "," + maximizeCompactness;
+	}
 }
@@ -0,0 +1,152 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2018, EFFICOMP
+ */
+
+package ristretto.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import ristretto.jmltools.data.BinaryDatasetFormat;
+import ristretto.jmltools.data.ColumnarData;
+import ristretto.jmltools.data.DatasetLoader;
+
+/**
+ * Convert a dataset to the binary columnar format defined in
+ * {@link ristretto.jmltools.data.BinaryDatasetFormat}. The converted file can
+ * be used anywhere a dataset is expected, since the format is detected
+ * automatically when loading it, and it is loaded much faster by
+ * memory-mapping it.
+ * 
+ * @author Jesús González
+ *
+ */
+public class DatasetConverter {
+	private static boolean verbose = false;
+
+	/*
+	 * Original dataset
+	 */
+	private static ColumnarData originalData;
+
+	/*
+	 * Output file
+	 */
+	private static File outputFile;
+
+	/*
+	 * Whether the values should be stored as floats
+	 */
+	private static boolean float32;
+
+	/**
+	 * Parses the command line arguments
+	 * <p>
+	 * <b>Expected args:</b>
+	 * <ol>
+	 * <li>Path to the original dataset</li>
+	 * <li>Class column index (-1 for unlabeled data)</li>
+	 * <li>Path to the binary dataset</li>
+	 * <li>float32: whether to store the values as floats (boolean, optional,
+	 * false by default)</li>
+	 * </ol>
+	 * 
+	 * @param args Command line arguments
+	 */
+	private static void parseArgs(String[] args) {
+
+		/* Gets the original data file name */
+		String originalDataFileName = null;
+		if (args.length > 0) {
+			originalDataFileName = args[0];
+		} else {
+			System.err.println("Error: Missing dataset");
+			System.exit(-1);
+		}
+
+		/* Gets the class index */
+		int classIndex = -1;
+		if (args.length > 1) {
+			try {
+				classIndex = Integer.parseInt(args[1]);
+			} catch (NumberFormatException e) {
+				System.err.println("Error: " + args[1] + " is not a correct class index");
+				System.exit(-1);
+			}
+
+		} else {
+			System.err.println("Error: Missing class index");
+			System.exit(-1);
+		}
+
+		/* Gets the output file name */
+		if (args.length > 2) {
+			outputFile = new File(args[2]);
+		} else {
+			System.err.println("Error: Missing output file");
+			System.exit(-1);
+		}
+
+		/* Gets the storage mode */
+		float32 = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+		/* Loads the original dataset */
+		try {
+			originalData = DatasetLoader.loadColumnar(new File(originalDataFileName), classIndex);
+		} catch (IOException e) {
+			System.err.println("Error: Couldn't open the dataset file: " + originalDataFileName);
+			System.exit(-1);
+		}
+
+		if (verbose) {
+			System.out.println("Data file: " + originalDataFileName);
+			System.out.println("Class index: " + classIndex);
+			System.out.println("Output file: " + outputFile);
+			System.out.println("Float32: " + float32);
+		}
+	}
+
+	/**
+	 * Convert a dataset to the binary columnar format
+	 * <p>
+	 * <b>Expected args:</b>
+	 * <ol>
+	 * <li>Path to the original dataset</li>
+	 * <li>Class column index (-1 for unlabeled data)</li>
+	 * <li>Path to the binary dataset</li>
+	 * <li>float32: whether to store the values as floats (boolean, optional,
+	 * false by default)</li>
+	 * </ol>
+	 * 
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		parseArgs(args);
+
+		try {
+			BinaryDatasetFormat.write(originalData, outputFile, float32);
+		} catch (IOException e) {
+			System.err.println("Error: Couldn't write the binary dataset file: " + outputFile);
+			System.exit(-1);
+		}
+	}
+}
@@ -29,10 +29,10 @@ import java.io.PrintStream;
 import java.util.Locale;
 
 import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.data.DatasetLoader;
 import net.sf.javaml.core.Dataset;
 import net.sf.javaml.core.DefaultDataset;
 import net.sf.javaml.core.Instance;
-import net.sf.javaml.tools.data.FileHandler;
 
 /**
  * Split a dataset into a training and test datasets given a test proportion,
@@ -117,7 +117,7 @@ public class DatasetSplitter {
 		/* Loads the training dataset */
 		originalData = new DefaultDataset();
 		try {
-			originalData = FileHandler.loadDataset(new File(originalDataFileName), classIndex, "\\s+");
+			originalData = DatasetLoader.load(new File(originalDataFileName), classIndex);
 		} catch (IOException e) {
 			System.err.println("Error: Couldn't open the dataset file: " + originalDataFileName);
 			System.exit(-1);
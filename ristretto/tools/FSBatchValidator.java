@@ -0,0 +1,613 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+import ec.util.Code;
+import ec.util.DecodeReturn;
+import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.classification.FastKNearestNeighbors;
+import ristretto.jmltools.classification.NaiveBayes;
+import ristretto.jmltools.classification.evaluation.PerformanceIndexes;
+import ristretto.jmltools.data.DatasetLoader;
+import ristretto.problem.fs.subset.FSSubsetEvaluationArchive;
+import libsvm.LibSVM;
+import libsvm.svm_parameter;
+import net.sf.javaml.classification.Classifier;
+import net.sf.javaml.classification.evaluation.CrossValidation;
+import net.sf.javaml.core.Dataset;
+
+/**
+ * Validate all the solutions of a Pareto front at once. The datasets are
+ * loaded only once, the solutions are read from a front file written by
+ * {@link ristretto.ecjtools.MultiObjectiveStatistics}, and all the requested
+ * metrics are obtained for all the solutions in parallel. It replaces one
+ * invocation of {@link ristretto.tools.FSKappaValidator},
+ * {@link ristretto.tools.FSErrorRateValidator},
+ * {@link ristretto.tools.FSSensitivityValidator},
+ * {@link ristretto.tools.FSSpecificityValidator} and
+ * {@link ristretto.tools.FSCrossValidator} per solution.
+ *
+ * <p>
+ * The results are printed as a single table with a line per different
+ * solution, in the order they appear in the front. Each line contains the
+ * objectives of the solution in the front, the requested metrics, the number of
+ * selected features and the selected features.
+ *
+ * @author Jesús González
+ */
+public class FSBatchValidator {
+
+	/* Optional arguments */
+	private static String applyLDAArg = "applylda";
+	private static String naiveBayesClassifierArg = "nbc";
+	private static String knnClassifierArg = "knn";
+	private static String svmClassifierArg = "svm";
+	private static String labelArg = "label=";
+	private static String threadsArg = "threads=";
+	private static String archiveArg = "archive=";
+
+	/* Metrics */
+	private static final String[] METRICS = { "kappa", "error", "sens", "spec", "xval" };
+	private static final String[][] METRIC_HEADERS = { { "KappaTr", "KappaTst" }, { "ErrorTr", "ErrorTst" },
+			{ "SensTr", "SensTst" }, { "SpecTr", "SpecTst" }, { "XValError" } };
+	private static final int KAPPA = 0, ERROR = 1, SENS = 2, SPEC = 3, XVAL = 4;
+	private static final int N_FOLDS = 10;
+
+	/* Individual types */
+	private static String bitVectorType = "bitvector";
+	private static String subsetType = "subset";
+
+	/* Parameters file for the SVM classifier */
+	private static String svmParamsFileName = "svm_params.data";
+
+	/*
+	 * Datasets
+	 */
+	private static Dataset trainingData, testData;
+
+	/*
+	 * Classification
+	 */
+	private static boolean applyLDA;
+	private static String classifierName;
+	private static double svmC, svmGamma;
+	private static Object label;
+
+	/*
+	 * Validation
+	 */
+	private static boolean[] metrics = new boolean[METRICS.length];
+	private static int nThreads = Runtime.getRuntime().availableProcessors();
+
+	/*
+	 * Archive of previous validations
+	 */
+	private static FSSubsetEvaluationArchive archive;
+	private static long archiveContext;
+
+	/*
+	 * Solutions of the front
+	 */
+	private static List<int[]> solutions = new ArrayList<int[]>();
+	private static List<String> objectives = new ArrayList<String>();
+	private static double[][] results;
+
+	/**
+	 * Read the parameters from the command-line
+	 * <p>
+	 * <b>Expected args:</b>
+	 * <ol>
+	 * <li>Individual representation: "bitvector" or "subset"</li>
+	 * <li>Path to the front file</li>
+	 * <li>Path to the training dataset</li>
+	 * <li>Path to the test dataset</li>
+	 * <li>Class column index</li>
+	 * </ol>
+	 * <b>Optional args:</b>
+	 * <ul>
+	 * <li>applylda: If this flag appears, LDA is applied to the selected features
+	 * of the dataset before classifying</li>
+	 * <li>classifier: Possible values are knn, nbc and svm. If omitted, nbc is used
+	 * by default</li>
+	 * <li>metrics: Any of kappa, error, sens, spec and xval. If omitted, kappa is
+	 * used by default</li>
+	 * <li>label=<i>value</i>: The class label for sens and spec</li>
+	 * <li>threads=<i>n</i>: Number of threads. If omitted, as many threads as
+	 * available processors are used</li>
+	 * <li>archive=<i>file</i>: Evaluation archive where the metrics of the
+	 * solutions are stored, so that they are not validated again by later
+	 * invocations with the same datasets and options</li>
+	 * </ul>
+	 *
+	 * @param args Command line arguments
+	 */
+	private static void readParams(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Error: Missing individual type");
+			System.exit(-1);
+		}
+		boolean bitVectorIndividuals = false;
+		if (args[0].equalsIgnoreCase(bitVectorType))
+			bitVectorIndividuals = true;
+		else if (!args[0].equalsIgnoreCase(subsetType)) {
+			System.err.println(
+					"Error: the first argument should be the individual type, bitvector or subset are the only allowed types");
+			System.exit(-1);
+		}
+
+		if (args.length < 2) {
+			System.err.println("Error: Missing front file");
+			System.exit(-1);
+		}
+		if (args.length < 3) {
+			System.err.println("Error: Missing training dataset");
+			System.exit(-1);
+		}
+		if (args.length < 4) {
+			System.err.println("Error: Missing test dataset");
+			System.exit(-1);
+		}
+		if (args.length < 5) {
+			System.err.println("Error: Missing class index");
+			System.exit(-1);
+		}
+
+		/* Load the datasets */
+		int classIndex = -1;
+		try {
+			classIndex = Integer.parseInt(args[4]);
+		} catch (NumberFormatException e) {
+			System.err.println("Error: " + args[4] + " is not a correct class index");
+			System.exit(-1);
+		}
+		try {
+			trainingData = DatasetLoader.load(new File(args[2]), classIndex);
+		} catch (IOException e) {
+			System.err.println("Error: Couldn't open dataset file: " + args[2]);
+			System.exit(-1);
+		}
+		try {
+			testData = DatasetLoader.load(new File(args[3]), classIndex);
+		} catch (IOException e) {
+			System.err.println("Error: Couldn't open dataset file: " + args[3]);
+			System.exit(-1);
+		}
+
+		/* Parse the rest of arguments */
+		applyLDA = false;
+		classifierName = naiveBayesClassifierArg;
+		boolean anyMetric = false;
+		String archiveFile = null;
+		for (int i = 5; i < args.length; i++) {
+			String arg = args[i].trim();
+			String lower = arg.toLowerCase();
+			int metric = Arrays.asList(METRICS).indexOf(lower);
+
+			if (metric >= 0) {
+				metrics[metric] = true;
+				anyMetric = true;
+			} else if (lower.equals(applyLDAArg)) {
+				applyLDA = true;
+			} else if (lower.equals(naiveBayesClassifierArg) || lower.equals(knnClassifierArg)) {
+				classifierName = lower;
+			} else if (lower.equals(svmClassifierArg)) {
+				classifierName = lower;
+				readSVMParams();
+			} else if (lower.startsWith(labelArg)) {
+				label = arg.substring(labelArg.length());
+			} else if (lower.startsWith(archiveArg)) {
+				archiveFile = arg.substring(archiveArg.length());
+			} else if (lower.startsWith(threadsArg)) {
+				try {
+					nThreads = Integer.parseInt(arg.substring(threadsArg.length()));
+				} catch (NumberFormatException e) {
+					nThreads = 0;
+				}
+				if (nThreads < 1) {
+					System.err.println("Error: Invalid number of threads: " + arg);
+					System.exit(-1);
+				}
+			} else {
+				System.err.println("Error: Invalid argument: " + args[i]);
+				System.exit(-1);
+			}
+		}
+
+		if (!anyMetric)
+			metrics[KAPPA] = true;
+
+		if ((metrics[SENS] || metrics[SPEC]) && label == null) {
+			System.err.println("Error: Missing class label for sens or spec");
+			System.exit(-1);
+		}
+
+		readFront(args[1], bitVectorIndividuals, trainingData.noAttributes());
+
+		/* Open the archive, whose context depends on the datasets and the options */
+		if (archiveFile != null) {
+			try {
+				archive = new FSSubsetEvaluationArchive(new File(archiveFile));
+				StringBuilder configuration = new StringBuilder("FSBatchValidator");
+				configuration.append(" test=" + FSSubsetEvaluationArchive.fingerprint(new File(args[3])));
+				configuration.append(" class-index=" + classIndex + " classifier=" + classifierName);
+				if (classifierName.equals(svmClassifierArg))
+					configuration.append(" C=" + svmC + " gamma=" + svmGamma);
+				configuration.append(" applylda=" + applyLDA + " label=" + label);
+				configuration.append(" metrics=" + Arrays.toString(metrics));
+				/* Keep apart the error rates archived with other definitions */
+				if (metrics[ERROR] || metrics[XVAL])
+					configuration.append(" error-rate=one-vs-all");
+				long trainingFingerprint = FSSubsetEvaluationArchive.fingerprint(new File(args[2]));
+				archiveContext = FSSubsetEvaluationArchive.context(trainingFingerprint, configuration.toString());
+			} catch (IOException e) {
+				System.err.println("Error: Couldn't open the archive file: " + archiveFile + ": " + e.getMessage());
+				System.exit(-1);
+			}
+		}
+	}
+
+	/**
+	 * Read C and gamma for the SVM classifier
+	 */
+	private static void readSVMParams() {
+		try {
+			Scanner input = new Scanner(new File(svmParamsFileName));
+
+			// skip the header line
+			input.nextLine();
+
+			if (input.hasNext())
+				svmC = Double.parseDouble(input.next());
+			else {
+				System.err.println("Error: Missing C parameter in " + svmParamsFileName);
+				System.exit(-1);
+			}
+
+			if (input.hasNext())
+				svmGamma = Double.parseDouble(input.next());
+			else {
+				System.err.println("Error: Missing gamma parameter in " + svmParamsFileName);
+				System.exit(-1);
+			}
+
+			input.close();
+		} catch (FileNotFoundException e) {
+			System.err.println("Error: " + svmParamsFileName + " file not found");
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Read the different solutions of a front file. Lines that do not begin with
+	 * a genome (such as subpopulation headers) are skipped
+	 *
+	 * @param fileName             Path to the front file
+	 * @param bitVectorIndividuals True for bitvector individuals, false for
+	 *                             subset individuals
+	 * @param nFeatures            Number of features of the datasets
+	 */
+	private static void readFront(String fileName, boolean bitVectorIndividuals, int nFeatures) {
+		Set<String> seen = new HashSet<String>();
+
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(fileName));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				int tab = line.indexOf('\t');
+				String individual = tab < 0 ? line : line.substring(0, tab);
+
+				DecodeReturn d = new DecodeReturn(individual);
+				Code.decode(d);
+				if (individual.isEmpty() || d.type != DecodeReturn.T_INTEGER)
+					continue;
+
+				/* Read in the genes */
+				int genomeLength = (int) d.l;
+				int[] features = new int[genomeLength];
+				int n = 0;
+				for (int i = 0; i < genomeLength; i++) {
+					Code.decode(d);
+					if (bitVectorIndividuals) {
+						if (d.l != 0)
+							features[n++] = i;
+					} else
+						features[n++] = (int) d.l;
+				}
+				features = Arrays.copyOf(features, n);
+				Arrays.sort(features);
+
+				if (n == 0 || !seen.add(Arrays.toString(features)))
+					continue;
+
+				for (int feature : features)
+					if (feature < 0 || feature >= nFeatures) {
+						System.err.println("Error: Feature index " + feature + " is not in the range [0.."
+								+ (nFeatures - 1) + "]");
+						System.exit(-1);
+					}
+
+				solutions.add(features);
+				objectives.add(tab < 0 ? "" : line.substring(tab + 1).trim());
+			}
+			reader.close();
+		} catch (IOException e) {
+			System.err.println("Error: Couldn't open the front file: " + fileName);
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Construct a new classifier
+	 *
+	 * @return The classifier
+	 */
+	private static Classifier newClassifier() {
+		if (classifierName.equals(knnClassifierArg)) {
+			int k = (int) Math.round(Math.sqrt(trainingData.size()));
+			if ((k & 1) == 0)
+				k++;
+			return new FastKNearestNeighbors(k);
+		} else if (classifierName.equals(svmClassifierArg)) {
+			LibSVM classifier = new LibSVM();
+			svm_parameter SVMparams = classifier.getParameters();
+			SVMparams.kernel_type = svm_parameter.RBF;
+			SVMparams.C = svmC;
+			SVMparams.gamma = svmGamma;
+			classifier.setParameters(SVMparams);
+			return classifier;
+		}
+		return new NaiveBayes();
+	}
+
+	/**
+	 * Obtain the requested metrics for a solution
+	 *
+	 * @param features The selected features
+	 * @return The metrics, in the same order as the table columns
+	 */
+	private static double[] validate(int[] features) {
+		boolean[] mask = new boolean[trainingData.noAttributes()];
+		for (int feature : features)
+			mask[feature] = true;
+
+		Dataset training = MoreDatasetTools.project(trainingData, mask);
+		Dataset test = MoreDatasetTools.project(testData, mask);
+
+		if (applyLDA) {
+			RealMatrix proj = MoreDatasetTools.directLDA(training);
+			training = MoreDatasetTools.project(training, proj);
+			test = MoreDatasetTools.project(test, proj);
+		}
+
+		double[] values = new double[2 * METRICS.length];
+		int n = 0;
+
+		if (metrics[KAPPA] || metrics[ERROR] || metrics[SENS] || metrics[SPEC]) {
+			Classifier classifier = newClassifier();
+			classifier.buildClassifier(training);
+
+			/*
+			 * Each dataset is predicted only once for all the metrics. The solutions
+			 * are already validated in parallel
+			 */
+			Object[] trainingClasses = PerformanceIndexes.classValues(training);
+			Object[] testClasses = PerformanceIndexes.classValues(test);
+			int[][] trainingMatrix = PerformanceIndexes.confusionMatrix(classifier, training, trainingClasses);
+			int[][] testMatrix = PerformanceIndexes.confusionMatrix(classifier, test, testClasses);
+
+			if (metrics[KAPPA]) {
+				values[n++] = PerformanceIndexes.kappa(trainingMatrix);
+				values[n++] = PerformanceIndexes.kappa(testMatrix);
+			}
+			if (metrics[ERROR]) {
+				// the same one against all definition used by xval
+				values[n++] = PerformanceIndexes.errorRate(trainingMatrix);
+				values[n++] = PerformanceIndexes.errorRate(testMatrix);
+			}
+			if (metrics[SENS]) {
+				values[n++] = PerformanceIndexes.sensitivity(trainingMatrix,
+						PerformanceIndexes.classIndex(trainingClasses, label));
+				values[n++] = PerformanceIndexes.sensitivity(testMatrix, PerformanceIndexes.classIndex(testClasses, label));
+			}
+			if (metrics[SPEC]) {
+				values[n++] = PerformanceIndexes.specificity(trainingMatrix,
+						PerformanceIndexes.classIndex(trainingClasses, label));
+				values[n++] = PerformanceIndexes.specificity(testMatrix, PerformanceIndexes.classIndex(testClasses, label));
+			}
+		}
+
+		if (metrics[XVAL]) {
+			CrossValidation cv = new CrossValidation(newClassifier());
+			values[n++] = PerformanceIndexes.errorRate(cv.crossValidation(training, N_FOLDS));
+		}
+
+		return Arrays.copyOf(values, n);
+	}
+
+	/**
+	 * Obtain the requested metrics for a solution from the archive, validating
+	 * and archiving it if it is not archived yet
+	 *
+	 * @param features The selected features
+	 * @return The metrics, in the same order as the table columns
+	 * @throws IOException If the archive can not be accessed
+	 */
+	private static double[] archivedValidate(int[] features) throws IOException {
+		if (archive == null)
+			return validate(features);
+
+		TreeSet<Integer> subset = new TreeSet<Integer>();
+		for (int feature : features)
+			subset.add(feature);
+
+		double[] values = archive.get(archiveContext, subset);
+		if (values == null) {
+			values = validate(features);
+			archive.put(archiveContext, subset, values);
+		}
+		return values;
+	}
+
+	/**
+	 * Validate all the solutions in parallel
+	 */
+	private static void validateAll() {
+		results = new double[solutions.size()][];
+		final AtomicInteger next = new AtomicInteger();
+		final Throwable[] failure = new Throwable[1];
+
+		Thread[] threads = new Thread[Math.max(1, Math.min(nThreads, solutions.size()))];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						int s;
+						while ((s = next.getAndIncrement()) < solutions.size())
+							results[s] = archivedValidate(solutions.get(s));
+					} catch (Throwable e) {
+						synchronized (failure) {
+							if (failure[0] == null)
+								failure[0] = e;
+						}
+						next.set(solutions.size());
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				System.err.println("Error: Interrupted while validating");
+				System.exit(-1);
+			}
+		}
+
+		if (failure[0] != null) {
+			System.err.println("Error: Validation failed: " + failure[0]);
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Print the results table
+	 */
+	private static void writeResults() {
+		StringBuilder header = new StringBuilder();
+		int nObjectives = objectives.isEmpty() || objectives.get(0).isEmpty() ? 0
+				: objectives.get(0).split("\\s+").length;
+		for (int o = 0; o < nObjectives; o++)
+			header.append("Obj" + o + "\t");
+		for (int m = 0; m < METRICS.length; m++)
+			if (metrics[m])
+				for (String column : METRIC_HEADERS[m])
+					header.append(column + "\t");
+		header.append("nFeats\tFeatures");
+		System.out.println(header);
+
+		for (int s = 0; s < solutions.size(); s++) {
+			StringBuilder line = new StringBuilder();
+			if (nObjectives > 0)
+				line.append(objectives.get(s).replaceAll("\\s+", "\t") + "\t");
+			for (double value : results[s])
+				line.append(String.format("%.6f\t", value));
+			line.append(solutions.get(s).length + "\t");
+			for (int f = 0; f < solutions.get(s).length; f++)
+				line.append((f > 0 ? " " : "") + solutions.get(s)[f]);
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * Validate all the solutions of a Pareto front at once
+	 * <p>
+	 * <b>Expected args:</b>
+	 * <ol>
+	 * <li>Individual representation: "bitvector" or "subset"</li>
+	 * <li>Path to the front file</li>
+	 * <li>Path to the training dataset</li>
+	 * <li>Path to the test dataset</li>
+	 * <li>Class column index</li>
+	 * </ol>
+	 * <p>
+	 * <b>Optional args:</b>
+	 * <ul>
+	 * <li>applylda: If this flag appears, LDA is applied to the selected features
+	 * of the dataset before classifying</li>
+	 * <li>classifier: Possible values are knn, nbc and svm. If omitted, nbc is used
+	 * by default</li>
+	 * <li>metrics: Any of kappa (training and test Kappa indices), error (training
+	 * and test error rates), sens (training and test sensitivities), spec
+	 * (training and test specificities) and xval (10-fold cross-validation error
+	 * on the training dataset). Both error and xval are the one against all error
+	 * rates averaged over the classes. If omitted, kappa is used by default</li>
+	 * <li>label=<i>value</i>: The class label for sens and spec</li>
+	 * <li>threads=<i>n</i>: Number of threads. If omitted, as many threads as
+	 * available processors are used</li>
+	 * <li>archive=<i>file</i>: Evaluation archive where the metrics of the
+	 * solutions are stored, so that they are not validated again by later
+	 * invocations with the same datasets and options</li>
+	 * </ul>
+	 * <p>
+	 * Notes:
+	 * <ul>
+	 * <li>For knn: <i>k</i> is set as sqrt(num_samples) if knn is selected</li>
+	 * <li>For svm: a RBF kernel is assumed and <i>C</i> and <i>gamma</i> are read
+	 * from a file named "svm_params.data"</li>
+	 * </ul>
+	 *
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		/*
+		 * Sets the locale to English, in order to use dots instead of commas for
+		 * decimal numbers
+		 */
+		Locale.setDefault(new Locale("en", "US"));
+
+		readParams(args);
+		validateAll();
+		writeResults();
+	}
+}
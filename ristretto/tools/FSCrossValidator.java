@@ -33,16 +33,16 @@ import java.util.Scanner;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.classification.FastKNearestNeighbors;
 import ristretto.jmltools.classification.NaiveBayes;
 import ristretto.jmltools.classification.evaluation.PerformanceIndexes;
+import ristretto.jmltools.data.DatasetLoader;
 import libsvm.LibSVM;
 import libsvm.svm_parameter;
 import net.sf.javaml.classification.Classifier;
-import net.sf.javaml.classification.KNearestNeighbors;
 import net.sf.javaml.classification.evaluation.CrossValidation;
 import net.sf.javaml.core.Dataset;
 import net.sf.javaml.core.DefaultDataset;
-import net.sf.javaml.tools.data.FileHandler;
 
 /**
  * Test the results of a Feature Selector via cross-validation
@@ -117,7 +117,7 @@ public class FSCrossValidator {
 		try {
 			int classIndex = Integer.parseInt(args[1]);
 
-			originalData = FileHandler.loadDataset(new File(args[0]), classIndex, "\\s+");
+			originalData = DatasetLoader.load(new File(args[0]), classIndex);
 		} catch (NumberFormatException e) {
 			System.err.println("Error: " + args[1] + " is not a correct class index");
 			System.exit(-1);
@@ -160,7 +160,7 @@ public class FSCrossValidator {
 					int k = (int) Math.round(Math.sqrt(originalData.size()));
 					if ((k & 1) == 0)
 						k++;
-					classifier = new KNearestNeighbors(k);
+					classifier = new FastKNearestNeighbors(k);
 				} else if (args[i].toLowerCase().trim().compareTo(svmClassifierArg) == 0) {
 					try {
 
@@ -33,15 +33,15 @@ import java.util.Scanner;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.classification.FastKNearestNeighbors;
 import ristretto.jmltools.classification.NaiveBayes;
 import ristretto.jmltools.classification.evaluation.PerformanceIndexes;
+import ristretto.jmltools.data.DatasetLoader;
 import libsvm.LibSVM;
 import libsvm.svm_parameter;
 import net.sf.javaml.classification.Classifier;
-import net.sf.javaml.classification.KNearestNeighbors;
 import net.sf.javaml.core.Dataset;
 import net.sf.javaml.core.DefaultDataset;
-import net.sf.javaml.tools.data.FileHandler;
 
 /**
  * Obtain the training and test error rates of the results of a Feature Selector
@@ -123,7 +123,7 @@ public class FSErrorRateValidator {
 		int classIndex = -1;
 		try {
 			classIndex = Integer.parseInt(args[2]);
-			originalTrainingData = FileHandler.loadDataset(new File(args[0]), classIndex, "\\s+");
+			originalTrainingData = DatasetLoader.load(new File(args[0]), classIndex);
 		} catch (NumberFormatException e) {
 			System.err.println("Error: " + args[2] + " is not a correct class index");
 			System.exit(-1);
@@ -132,7 +132,7 @@ public class FSErrorRateValidator {
 			System.exit(-1);
 		}
 		try {
-			originalTestData = FileHandler.loadDataset(new File(args[1]), classIndex, "\\s+");
+			originalTestData = DatasetLoader.load(new File(args[1]), classIndex);
 		} catch (IOException e) {
 			System.err.println("Error: Couldn't open dataset file: " + args[1]);
 			System.exit(-1);
@@ -173,7 +173,7 @@ public class FSErrorRateValidator {
 					int k = (int) Math.round(Math.sqrt(originalTrainingData.size()));
 					if ((k & 1) == 0)
 						k++;
-					classifier = new KNearestNeighbors(k);
+					classifier = new FastKNearestNeighbors(k);
 				} else if (args[i].toLowerCase().trim().compareTo(svmClassifierArg) == 0) {
 					try {
 
@@ -269,8 +269,16 @@ public class FSErrorRateValidator {
 
 		classifier.buildClassifier(finalTrainingData);
 
-		double errorTraining = PerformanceIndexes.errorRate(classifier, finalTrainingData);
-		double errorTest = PerformanceIndexes.errorRate(classifier, finalTestData);
+		/* Each dataset is predicted once, in parallel */
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		Object[] trainingClasses = PerformanceIndexes.classValues(finalTrainingData);
+		Object[] testClasses = PerformanceIndexes.classValues(finalTestData);
+		int[][] trainingMatrix = PerformanceIndexes.confusionMatrix(classifier, finalTrainingData, trainingClasses,
+				nThreads);
+		int[][] testMatrix = PerformanceIndexes.confusionMatrix(classifier, finalTestData, testClasses, nThreads);
+
+		double errorTraining = PerformanceIndexes.errorRate(trainingMatrix);
+		double errorTest = PerformanceIndexes.errorRate(testMatrix);
 
 		if (verbose) {
 			System.out.printf("\nKappa Training: %.6f\n", errorTraining);
@@ -0,0 +1,466 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.tools;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyze the Pareto fronts of many experiments at once. It replaces running
+ * {@link ristretto.tools.FSParetoFrontAnalyzer} for each experiment, then
+ * {@link ristretto.tools.FSRelevancesAnalyzer} and
+ * {@link ristretto.tools.FSRanker} over the results.
+ *
+ * <p>
+ * The front files are processed in parallel. Each thread counts the occurrences
+ * of the features in its fronts with primitive counters sized by the number of
+ * features, and the partial counters are merged at the end. As the Makefiles
+ * do with <tt>sort | uniq</tt>, repeated lines of a front are only counted
+ * once. The following files are written to the output directory:
+ *
+ * <ul>
+ * <li><tt>occurrences.data</tt>: Number of occurrences of each feature in all
+ * the fronts, and its frequency (occurrences divided by the total number of
+ * solutions)</li>
+ * <li><tt>relevances.data</tt>: Relevance of each feature in each front, sorted
+ * in ascending order for each feature, as FSRelevancesAnalyzer does</li>
+ * <li><tt>relevance.data</tt>: Mean relevance of each feature over all the
+ * fronts</li>
+ * <li><tt>ranking.data</tt>: Rank of each feature according to its mean
+ * relevance, as FSRanker does</li>
+ * <li><tt>spearman.data</tt>: Spearman stability score of the rankings of the
+ * fronts, as FSStabilitySpearmanScorer does (only for more than one front)</li>
+ * </ul>
+ *
+ * <p>
+ * The rankings are computed in-process with {@link FSRanker#rank(double[])}.
+ *
+ * @author Jesús González
+ */
+public class FSFrontArchiveAnalyzer {
+
+	/* Optional arguments */
+	private static String threadsArg = "threads=";
+
+	/* Individual types */
+	private static String bitVectorType = "bitvector";
+	private static String subsetType = "subset";
+
+	/* Output files */
+	private static String occurrencesFileName = "occurrences.data";
+	private static String relevancesFileName = "relevances.data";
+	private static String relevanceFileName = "relevance.data";
+	private static String rankingFileName = "ranking.data";
+	private static String spearmanFileName = "spearman.data";
+
+	/**
+	 * True if solutions are represented with a bitvector, false if a subset of
+	 * features is used
+	 */
+	private static boolean bitVectorIndividuals;
+
+	/** Number of features */
+	private static int nFeatures;
+
+	/** Output directory */
+	private static File outputDir;
+
+	/** Front files */
+	private static List<String> frontFiles = new ArrayList<String>();
+
+	/** Number of threads */
+	private static int nThreads = Runtime.getRuntime().availableProcessors();
+
+	/** Number of occurrences of each feature in each front */
+	private static int[][] frontOccurrences;
+
+	/** Number of different solutions in each front */
+	private static int[] frontSolutions;
+
+	/** Number of occurrences of each feature in all the fronts */
+	private static long[] occurrences;
+
+	/** Number of solutions in all the fronts */
+	private static long nSolutions;
+
+	/**
+	 * Read the parameters from the command-line
+	 * <p>
+	 * <b>Expected args:</b>
+	 * <ol>
+	 * <li>Individual representation: "bitvector" or "subset"</li>
+	 * <li>Number of features in the dataset</li>
+	 * <li>Output directory</li>
+	 * <li>Paths to the front files of different experiments</li>
+	 * </ol>
+	 * <b>Optional args:</b>
+	 * <ul>
+	 * <li>threads=<i>n</i>: Number of threads. If omitted, as many threads as
+	 * available processors are used</li>
+	 * </ul>
+	 *
+	 * @param args Command line arguments
+	 */
+	private static void readParams(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Error: Missing individual type");
+			System.exit(-1);
+		}
+		if (args[0].equalsIgnoreCase(bitVectorType))
+			bitVectorIndividuals = true;
+		else if (args[0].equalsIgnoreCase(subsetType))
+			bitVectorIndividuals = false;
+		else {
+			System.err.println(
+					"Error: the first argument should be the individual type, bitvector or subset are the only allowed types");
+			System.exit(-1);
+		}
+
+		if (args.length < 2) {
+			System.err.println("Error: The second argument should be the number of features in the dataset");
+			System.exit(-1);
+		}
+		try {
+			nFeatures = Integer.parseInt(args[1]);
+		} catch (NumberFormatException e) {
+			nFeatures = -1;
+		}
+		if (nFeatures < 1) {
+			System.err.println("Error: " + args[1] + " is not a correct number of features");
+			System.exit(-1);
+		}
+
+		if (args.length < 3) {
+			System.err.println("Error: Missing output directory");
+			System.exit(-1);
+		}
+		outputDir = new File(args[2]);
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("Error: Couldn't create the output directory: " + args[2]);
+			System.exit(-1);
+		}
+
+		for (int i = 3; i < args.length; i++) {
+			if (args[i].startsWith(threadsArg)) {
+				try {
+					nThreads = Integer.parseInt(args[i].substring(threadsArg.length()));
+				} catch (NumberFormatException e) {
+					nThreads = 0;
+				}
+				if (nThreads < 1) {
+					System.err.println("Error: Invalid number of threads: " + args[i]);
+					System.exit(-1);
+				}
+			} else
+				frontFiles.add(args[i]);
+		}
+
+		if (frontFiles.isEmpty()) {
+			System.err.println("Error: Missing front files");
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Analyze all the front files in parallel
+	 */
+	private static void makeAnalysis() {
+		final int nFronts = frontFiles.size();
+		frontOccurrences = new int[nFronts][];
+		frontSolutions = new int[nFronts];
+
+		final AtomicInteger next = new AtomicInteger();
+		Thread[] threads = new Thread[Math.min(nThreads, nFronts)];
+		final long[][] partialOccurrences = new long[threads.length][];
+		final long[] partialSolutions = new long[threads.length];
+
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					long[] counters = new long[nFeatures];
+					long solutions = 0;
+					int f;
+					while ((f = next.getAndIncrement()) < nFronts) {
+						String frontFile = frontFiles.get(f);
+						try {
+							int[] counts = new int[nFeatures];
+							frontSolutions[f] = analyzeFront(new File(frontFile), counts);
+							frontOccurrences[f] = counts;
+							for (int i = 0; i < nFeatures; i++)
+								counters[i] += counts[i];
+							solutions += frontSolutions[f];
+						} catch (IOException e) {
+							System.err.println("Error: Couldn't read the front file: " + frontFile + " ("
+									+ e.getMessage() + ")");
+							System.exit(-1);
+						}
+					}
+					partialOccurrences[thread] = counters;
+					partialSolutions[thread] = solutions;
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				System.err.println("Error: Interrupted");
+				System.exit(-1);
+			}
+		}
+
+		/* Merge the partial results */
+		occurrences = new long[nFeatures];
+		for (int t = 0; t < threads.length; t++) {
+			for (int i = 0; i < nFeatures; i++)
+				occurrences[i] += partialOccurrences[t][i];
+			nSolutions += partialSolutions[t];
+		}
+	}
+
+	/**
+	 * Count the occurrences of each feature in a front file. Lines that do not
+	 * begin with a genome (such as subpopulation headers) and repeated lines are
+	 * skipped
+	 *
+	 * @param file   The front file
+	 * @param counts Number of occurrences of each feature
+	 * @return The number of different solutions in the front
+	 * @throws IOException If the file can not be read or contains a wrong
+	 *                     feature
+	 */
+	private static int analyzeFront(File file, int[] counts) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("File too large");
+			ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int limit = bytes.limit();
+
+			Set<String> seen = new HashSet<String>();
+			int[] pos = new int[1];
+			int solutions = 0;
+			int start = 0;
+
+			while (start < limit) {
+				int end = start;
+				while (end < limit && bytes.get(end) != '\n')
+					end++;
+
+				/* Lines are compared without their trailing whitespaces */
+				int last = end;
+				while (last > start && bytes.get(last - 1) <= ' ')
+					last--;
+
+				pos[0] = start;
+				int genomeLength = parseInt(bytes, pos, last);
+				if (genomeLength >= 0 && seen.add(line(bytes, start, last))) {
+					solutions++;
+					if (bitVectorIndividuals) {
+						for (int i = 0; i < genomeLength && pos[0] < last; i++, pos[0]++)
+							if (bytes.get(pos[0]) == 'T') {
+								if (i >= counts.length)
+									throw new IOException("Feature " + i + " out of range");
+								counts[i]++;
+							}
+					} else {
+						for (int i = 0; i < genomeLength; i++) {
+							int feature = parseInt(bytes, pos, last);
+							if (feature < 0 || feature >= counts.length)
+								throw new IOException("Wrong feature in line: " + line(bytes, start, last));
+							counts[feature]++;
+						}
+					}
+				}
+
+				start = end + 1;
+			}
+
+			return solutions;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Parse an integer encoded by ECJ's Code ("i" + value + "|")
+	 *
+	 * @param bytes The bytes
+	 * @param pos   Position of the integer, updated to the following byte
+	 * @param end   Last byte that can be read (exclusive)
+	 * @return The integer, or -1 if there is not a valid integer
+	 */
+	private static int parseInt(ByteBuffer bytes, int[] pos, int end) {
+		int p = pos[0];
+		if (p >= end || bytes.get(p) != 'i')
+			return -1;
+
+		long value = 0;
+		p++;
+		int first = p;
+		while (p < end && bytes.get(p) >= '0' && bytes.get(p) <= '9' && value <= Integer.MAX_VALUE)
+			value = value * 10 + (bytes.get(p++) - '0');
+		if (p == first || p >= end || bytes.get(p) != '|' || value > Integer.MAX_VALUE)
+			return -1;
+
+		pos[0] = p + 1;
+		return (int) value;
+	}
+
+	/**
+	 * Return a line as a String
+	 *
+	 * @param bytes The bytes
+	 * @param start First byte of the line
+	 * @param end   Last byte of the line (exclusive)
+	 */
+	private static String line(ByteBuffer bytes, int start, int end) {
+		byte[] line = new byte[end - start];
+		for (int i = 0; i < line.length; i++)
+			line[i] = bytes.get(start + i);
+		return new String(line);
+	}
+
+	/**
+	 * Write the results of the analysis
+	 */
+	private static void writeResults() {
+		int nFronts = frontFiles.size();
+		double[] meanRelevance = new double[nFeatures];
+		double[] relevances = new double[nFronts];
+
+		try {
+			/* Occurrences */
+			PrintWriter out = new PrintWriter(new File(outputDir, occurrencesFileName));
+			out.println("Feature\tOccurrences\tFrequency");
+			for (int i = 0; i < nFeatures; i++)
+				out.println(i + "\t" + occurrences[i] + "\t"
+						+ (nSolutions == 0 ? 0.0 : (double) occurrences[i] / nSolutions));
+			out.close();
+
+			/* Relevances of each front, sorted for each feature */
+			out = new PrintWriter(new File(outputDir, relevancesFileName));
+			StringBuilder line = new StringBuilder("Feature");
+			for (int f = 0; f < nFronts; f++)
+				line.append("\tValue" + f);
+			out.println(line);
+			for (int i = 0; i < nFeatures; i++) {
+				for (int f = 0; f < nFronts; f++) {
+					relevances[f] = frontSolutions[f] == 0 ? 0.0
+							: (double) frontOccurrences[f][i] / frontSolutions[f];
+					meanRelevance[i] += relevances[f];
+				}
+				meanRelevance[i] /= nFronts;
+
+				Arrays.sort(relevances);
+				line.setLength(0);
+				line.append(i);
+				for (double relevance : relevances)
+					line.append("\t" + relevance);
+				out.println(line);
+			}
+			out.close();
+
+			/* Mean relevance */
+			out = new PrintWriter(new File(outputDir, relevanceFileName));
+			out.println("Feature\tRelevance");
+			for (int i = 0; i < nFeatures; i++)
+				out.println(i + "\t" + meanRelevance[i]);
+			out.close();
+
+			/* Ranking */
+			double[] ranks = FSRanker.rank(meanRelevance);
+			out = new PrintWriter(new File(outputDir, rankingFileName));
+			out.println("Feature\tRank");
+			for (int i = 0; i < nFeatures; i++)
+				out.println(i + "\t" + ranks[i]);
+			out.close();
+
+			/* Stability of the rankings of the fronts */
+			if (nFronts > 1) {
+				double[][] frontRanks = new double[nFronts][];
+				double[] frontRelevance = new double[nFeatures];
+				for (int f = 0; f < nFronts; f++) {
+					for (int i = 0; i < nFeatures; i++)
+						frontRelevance[i] = frontSolutions[f] == 0 ? 0.0
+								: (double) frontOccurrences[f][i] / frontSolutions[f];
+					frontRanks[f] = FSRanker.rank(frontRelevance);
+				}
+
+				out = new PrintWriter(new File(outputDir, spearmanFileName));
+				out.println(FSStabilitySpearmanScorer.score(FSStabilitySpearmanScorer.spearmanMatrix(frontRanks, nThreads)));
+				out.close();
+			}
+		} catch (FileNotFoundException e) {
+			System.err.println("Error: Couldn't write the results: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Analyze the Pareto fronts of many experiments at once
+	 * <p>
+	 * <b>Expected args:</b>
+	 * <ol>
+	 * <li>Individual representation: "bitvector" or "subset"</li>
+	 * <li>Number of features in the dataset</li>
+	 * <li>Output directory</li>
+	 * <li>Paths to the front files of different experiments</li>
+	 * </ol>
+	 * <b>Optional args:</b>
+	 * <ul>
+	 * <li>threads=<i>n</i>: Number of threads. If omitted, as many threads as
+	 * available processors are used</li>
+	 * </ul>
+	 *
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		/*
+		 * Sets the locale to English, in order to use dots instead of commas for
+		 * decimal numbers
+		 */
+		Locale.setDefault(new Locale("en", "US"));
+
+		readParams(args);
+		makeAnalysis();
+		writeResults();
+	}
+}
@@ -23,12 +23,9 @@
 
 package ristretto.tools;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
-import java.util.Arrays;
 import java.util.Locale;
-import java.util.Scanner;
-import java.util.Comparator;
 
 /**
  * Translate a relevances file into a ranks file [1]
@@ -45,95 +42,23 @@ import java.util.Comparator;
  * </tr>
  * </table>
  *
+ * <p>
+ * The ranking is also available as a library method,
+ * {@link #rank(double[])}, which works over primitive arrays, so that other
+ * tools can rank relevances in-process.
+ *
  * @author Jesús González
  */
 public class FSRanker {
 
-	/**
-	 * Allow the comparison of two features in terms of their relevance 
-	 * @author Jesús González
-	 */
-	static class RankedFeature implements Comparable<RankedFeature> {
-		/** Feature index */
-		public int feature;
-		
-		/** Relevance */
-		public double relevance;
-		
-		/** Rank */
-		public double rank;
-
-		/**
-		 * Default constructor
-		 */
-		public RankedFeature() {
-			this.feature = 0;
-			this.relevance = 0;
-			this.rank = 0;
-		}
-
-		/**
-		 * Constructor
-		 * 
-		 * @param feature
-		 *            A feature index
-		 */
-		public RankedFeature(int feature) {
-			this();
-			this.feature = feature;
-		}
-
-		/**
-		 * Constructor
-		 * 
-		 * @param feature
-		 *            A feature index
-		 * @param relevance
-		 *            Its relevance
-		 */
-		public RankedFeature(int feature, double relevance) {
-			this(feature);
-			this.relevance = relevance;
-		}
-
-		/**
-		 * Compare with other ranked feature
-		 * @param other The other ranked feature
-		 * @return this.feature - other.feature
-		 */
-		@Override
-		public int compareTo(RankedFeature other) {
-			return this.feature - other.feature;
-		}
-
-		/**
-		 * Comparator of two ranked features
-		 */
-		public static Comparator<RankedFeature> RelevanceComparator = new Comparator<RankedFeature>() {
-
-			/**
-			 * Compare two ranked features in terms of theur relevance
-			 * @param rf1 The first ranked feature
-			 * @param rf2 The second ranked feature
-			 * @return rf2.relevance - rf1.relevance
-			 */
-			public int compare(RankedFeature rf1, RankedFeature rf2) {
-				double diff = rf2.relevance - rf1.relevance; 
-				if (diff < 0) return -1;
-				else if (diff > 0) return 1;
-				else return 0;
-			}
-		};
-	}
-
 	/** Number of features */
 	static int nFeatures;
 
-	/** All the features */
-	static RankedFeature[] featureSet;
+	/** Relevance of each feature */
+	static double[] relevance;
 
-	/** Scanner for relevance files */
-	static Scanner scanner;
+	/** Rank of each feature */
+	static double[] ranks;
 
 	/**
 	 * Read the parameters from the command-line
@@ -171,81 +96,106 @@ public class FSRanker {
 			System.exit(-1);
 		}
 
-		featureSet = new RankedFeature[nFeatures];
-		for (int i = 0; i < nFeatures; i++)
-			featureSet[i] = new RankedFeature(i);
-
 		String relevanceFile = args[1];
 		try {
-			scanner = new Scanner(Paths.get(relevanceFile));
-
-			// The first line is a header
-			if (!(scanner.hasNext() && scanner.next().equalsIgnoreCase("feature")))
-				System.err.println("Error: Missing header in " + relevanceFile);
-
-			if (!(scanner.hasNext() && scanner.next().equalsIgnoreCase("relevance")))
-				System.err.println("Error: Missing header in " + relevanceFile);
-
-			while (scanner.hasNext()) {
-				/* Obtains the next feature */
-				int feature = scanner.nextInt();
-				double relevance = scanner.nextDouble();
-				featureSet[feature] = new RankedFeature(feature, relevance);
-
-				/* Skips the rest of the line */
-				scanner.nextLine();
-			}
-
-			scanner.close();
+			relevance = FeatureValuesFile.read(new File(relevanceFile), "relevance", nFeatures);
 		} catch (IOException e) {
-			System.err.println("Error: Couldn't open the relevance file: " + relevanceFile);
+			System.err.println("Error: Couldn't read the relevance file: " + relevanceFile + " (" + e.getMessage()
+					+ ")");
 			System.exit(-1);
 		}
 	}
 
 	/**
-	 * Rank the features
+	 * Rank the features by decreasing relevance. The first rank is 0, and tied
+	 * features get the mean of their ranks. An index permutation is sorted
+	 * instead of objects, so no object is created per feature
+	 *
+	 * @param relevance The relevance of each feature
+	 * @return The rank of each feature
 	 */
-	private static void rank() {
-
-		Arrays.sort(featureSet, RankedFeature.RelevanceComparator);
-		
-		int index=0;
-		
-		while (index<nFeatures){
+	public static double[] rank(double[] relevance) {
+		int n = relevance.length;
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		mergeSort(order, new int[n], 0, n, relevance);
+
+		double[] ranks = new double[n];
+		int index = 0;
+		while (index < n) {
 			int begin = index;
-			double relevance = featureSet[begin].relevance;
-			double rank = index;
+			double value = relevance[order[begin]];
 
 			index++;
-			while (index<nFeatures) {
-				double nextRelevance = featureSet[index].relevance;
-				if (nextRelevance == relevance) {
-					rank += index;
-					index++;
-				}
-				else {
-					break;
+			while (index < n && relevance[order[index]] == value)
+				index++;
+
+			// mean of the ranks begin, ..., index - 1
+			double rank = (begin + index - 1) / 2.0;
+			for (int j = begin; j < index; j++)
+				ranks[order[j]] = rank;
+		}
+
+		return ranks;
+	}
+
+	/**
+	 * Stable merge sort of a range of feature indices by decreasing relevance
+	 *
+	 * @param order     The feature indices
+	 * @param buffer    Scratch buffer
+	 * @param from      First index of the range
+	 * @param to        Last index of the range (exclusive)
+	 * @param relevance The relevance of each feature
+	 */
+	private static void mergeSort(int[] order, int[] buffer, int from, int to, double[] relevance) {
+		if (to - from < 16) {
+			// insertion sort for small ranges
+			for (int i = from + 1; i < to; i++) {
+				int current = order[i];
+				int j = i - 1;
+				while (j >= from && relevance[order[j]] < relevance[current]) {
+					order[j + 1] = order[j];
+					j--;
 				}
+				order[j + 1] = current;
 			}
-			rank /= (index-begin);
-			
-			for (int j=begin ; j<index ; j++)
-				featureSet[j].rank = rank;
+			return;
 		}
+
+		int mid = (from + to) >>> 1;
+		mergeSort(order, buffer, from, mid, relevance);
+		mergeSort(order, buffer, mid, to, relevance);
+
+		// already in order
+		if (relevance[order[mid - 1]] >= relevance[order[mid]])
+			return;
+
+		System.arraycopy(order, from, buffer, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to)
+			order[k++] = relevance[buffer[j]] > relevance[buffer[i]] ? buffer[j++] : buffer[i++];
+		while (i < mid)
+			order[k++] = buffer[i++];
+		while (j < to)
+			order[k++] = buffer[j++];
 	}
 
 	/**
 	 * Print the results
 	 */
 	private static void writeResults() {
-
-		Arrays.sort(featureSet);
-		
-		System.out.println("Feature\tRank");
+		StringBuilder out = new StringBuilder("Feature\tRank\n");
 		for (int i = 0; i < nFeatures; i++) {
-			System.out.println(featureSet[i].feature + "\t" + featureSet[i].rank);
+			out.append(i).append('\t').append(ranks[i]).append('\n');
+			if (out.length() > 1 << 16) {
+				System.out.print(out);
+				out.setLength(0);
+			}
 		}
+		System.out.print(out);
+		System.out.flush();
 	}
 
 	/**
@@ -264,7 +214,7 @@ public class FSRanker {
 		 */
 		Locale.setDefault(new Locale("en", "US"));
 		readParams(args);
-		rank();
+		ranks = rank(relevance);
 		writeResults();
 	}
 
@@ -34,7 +34,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 
 /**
- * Gather the relevances from several experiments
+ * Gather the relevances from several experiments. With the <tt>ranks</tt>
+ * option, the features of each experiment are ranked in-process with
+ * {@link ristretto.tools.FSRanker#rank(double[])} and their ranks are gathered
+ * instead
  * 
  * @author Jesús González
  */
@@ -48,24 +51,44 @@ public class FSRelevancesAnalyzer {
 	/** Maximum number of relevance values for a feature */
 	static int maxValues;
 
+	/** Whether the ranks of the features are gathered instead of their relevances */
+	static boolean ranks;
+
+	/* Optional arguments */
+	private static String ranksArg = "ranks";
+
 	/**
 	 * Make the analysis of the relevance files
 	 * 
 	 * @param args Paths to several relevance files (from different experiments over
-	 *             the same dataset)
+	 *             the same dataset), and optionally <tt>ranks</tt> to gather the
+	 *             ranks of the features
 	 */
 	private static void makeAnalysis(String[] args) {
+		ArrayList<String> relevanceFiles = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.equalsIgnoreCase(ranksArg))
+				ranks = true;
+			else
+				relevanceFiles.add(arg);
+		}
+
 		/*
 		 * The arguments should be relevance files from different experiments
 		 */
-		if (args.length < 1) {
+		if (relevanceFiles.isEmpty()) {
 			System.err.println("Error: Missing relevance files");
 			System.exit(-1);
 		}
 
 		maxValues = 0;
 
-		for (String relevanceFile : args) {
+		/* Relevances of each experiment, to be ranked */
+		ArrayList<TreeMap<Integer, Double>> experiments = new ArrayList<TreeMap<Integer, Double>>();
+		int nFeatures = 0;
+
+		for (String relevanceFile : relevanceFiles) {
+			TreeMap<Integer, Double> experiment = new TreeMap<Integer, Double>();
 			try {
 				scanner = new Scanner(Paths.get(relevanceFile));
 
@@ -80,12 +103,11 @@ public class FSRelevancesAnalyzer {
 					/* Obtains the next feature */
 					int feature = scanner.nextInt();
 					double relevance = scanner.nextDouble();
-					ArrayList<Double> relevances = combinedRelevances.get(feature);
-					if (relevances == null)
-						relevances = new ArrayList<Double>();
-					relevances.add(relevance);
-					combinedRelevances.put(feature, relevances);
-					maxValues = Math.max(maxValues, relevances.size());
+					if (ranks) {
+						experiment.put(feature, relevance);
+						nFeatures = Math.max(nFeatures, feature + 1);
+					} else
+						add(feature, relevance);
 
 					/* Skips the rest of the line */
 					scanner.nextLine();
@@ -97,7 +119,37 @@ public class FSRelevancesAnalyzer {
 				System.err.println("Error: Couldn't open the relevance file: " + relevanceFile);
 				System.exit(-1);
 			}
+			if (ranks)
+				experiments.add(experiment);
+		}
+
+		/* Missing features get a 0 relevance, as in FSRanker */
+		if (ranks) {
+			for (TreeMap<Integer, Double> experiment : experiments) {
+				double[] relevance = new double[nFeatures];
+				for (Map.Entry<Integer, Double> entry : experiment.entrySet())
+					relevance[entry.getKey()] = entry.getValue();
+				double[] rank = FSRanker.rank(relevance);
+				for (int feature = 0; feature < nFeatures; feature++)
+					add(feature, rank[feature]);
+			}
+		}
+	}
+
+	/**
+	 * Add a value obtained for a feature
+	 * 
+	 * @param feature The feature
+	 * @param value   Its value
+	 */
+	private static void add(int feature, double value) {
+		ArrayList<Double> values = combinedRelevances.get(feature);
+		if (values == null) {
+			values = new ArrayList<Double>();
+			combinedRelevances.put(feature, values);
 		}
+		values.add(value);
+		maxValues = Math.max(maxValues, values.size());
 	}
 
 	/**
@@ -129,7 +181,8 @@ public class FSRelevancesAnalyzer {
 	 * Gather the relevances from several experiments
 	 * 
 	 * @param args Paths to several relevance files (from different experiments over
-	 *             the same dataset)
+	 *             the same dataset), and optionally <tt>ranks</tt> to gather the
+	 *             ranks of the features
 	 */
 	public static void main(String[] args) {
 		/*
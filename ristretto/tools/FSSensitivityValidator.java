@@ -35,13 +35,13 @@ import java.util.Locale;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.classification.FastKNearestNeighbors;
 import ristretto.jmltools.classification.NaiveBayes;
 import ristretto.jmltools.classification.evaluation.PerformanceIndexes;
+import ristretto.jmltools.data.DatasetLoader;
 import net.sf.javaml.classification.Classifier;
-import net.sf.javaml.classification.KNearestNeighbors;
 import net.sf.javaml.core.Dataset;
 import net.sf.javaml.core.DefaultDataset;
-import net.sf.javaml.tools.data.FileHandler;
 
 /**
  * Obtain the training and test sensitivities of the results of a Feature Selector
@@ -129,7 +129,7 @@ public class FSSensitivityValidator {
 		int classIndex = -1;
 		try {
 			classIndex = Integer.parseInt(args[2]);
-			originalTrainingData = FileHandler.loadDataset(new File(args[0]), classIndex, "\\s+");
+			originalTrainingData = DatasetLoader.load(new File(args[0]), classIndex);
 		} catch (NumberFormatException e) {
 			System.err.println("Error: " + args[2] + " is not a correct class index");
 			System.exit(-1);
@@ -138,7 +138,7 @@ public class FSSensitivityValidator {
 			System.exit(-1);
 		}
 		try {
-			originalTestData = FileHandler.loadDataset(new File(args[1]), classIndex, "\\s+");
+			originalTestData = DatasetLoader.load(new File(args[1]), classIndex);
 		} catch (IOException e) {
 			System.err.println("Error: Couldn't open dataset file: " + args[1]);
 			System.exit(-1);
@@ -182,7 +182,7 @@ public class FSSensitivityValidator {
 					int k = (int) Math.round(Math.sqrt(originalTrainingData.size()));
 					if ((k & 1) == 0)
 						k++;
-					classifier = new KNearestNeighbors(k);
+					classifier = new FastKNearestNeighbors(k);
 				} else {
 					System.err.println("Error: Invalid argument: " + args[i]);
 					System.exit(-1);
@@ -243,8 +243,17 @@ public class FSSensitivityValidator {
 
 		classifier.buildClassifier(finalTrainingData);
 
-		double sensTraining = PerformanceIndexes.sensitivity(classifier, finalTrainingData, label);
-		double sensTest = PerformanceIndexes.sensitivity(classifier, finalTestData, label);
+		/* Each dataset is predicted once, in parallel */
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		Object[] trainingClasses = PerformanceIndexes.classValues(finalTrainingData);
+		Object[] testClasses = PerformanceIndexes.classValues(finalTestData);
+		int[][] trainingMatrix = PerformanceIndexes.confusionMatrix(classifier, finalTrainingData, trainingClasses,
+				nThreads);
+		int[][] testMatrix = PerformanceIndexes.confusionMatrix(classifier, finalTestData, testClasses, nThreads);
+
+		double sensTraining = PerformanceIndexes.sensitivity(trainingMatrix,
+				PerformanceIndexes.classIndex(trainingClasses, label));
+		double sensTest = PerformanceIndexes.sensitivity(testMatrix, PerformanceIndexes.classIndex(testClasses, label));
 
 		if (verbose) {
 			System.out.printf("\nSensitivity Training: %.6f\n", sensTraining);
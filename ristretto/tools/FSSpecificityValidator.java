@@ -31,13 +31,13 @@ import java.util.Locale;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.classification.FastKNearestNeighbors;
 import ristretto.jmltools.classification.NaiveBayes;
 import ristretto.jmltools.classification.evaluation.PerformanceIndexes;
+import ristretto.jmltools.data.DatasetLoader;
 import net.sf.javaml.classification.Classifier;
-import net.sf.javaml.classification.KNearestNeighbors;
 import net.sf.javaml.core.Dataset;
 import net.sf.javaml.core.DefaultDataset;
-import net.sf.javaml.tools.data.FileHandler;
 
 /**
  * Obtain the training and test specificities of the results of a Feature Selector
@@ -125,7 +125,7 @@ public class FSSpecificityValidator {
 		int classIndex = -1;
 		try {
 			classIndex = Integer.parseInt(args[2]);
-			originalTrainingData = FileHandler.loadDataset(new File(args[0]), classIndex, "\\s+");
+			originalTrainingData = DatasetLoader.load(new File(args[0]), classIndex);
 		} catch (NumberFormatException e) {
 			System.err.println("Error: " + args[2] + " is not a correct class index");
 			System.exit(-1);
@@ -134,7 +134,7 @@ public class FSSpecificityValidator {
 			System.exit(-1);
 		}
 		try {
-			originalTestData = FileHandler.loadDataset(new File(args[1]), classIndex, "\\s+");
+			originalTestData = DatasetLoader.load(new File(args[1]), classIndex);
 		} catch (IOException e) {
 			System.err.println("Error: Couldn't open dataset file: " + args[1]);
 			System.exit(-1);
@@ -178,7 +178,7 @@ public class FSSpecificityValidator {
 					int k = (int) Math.round(Math.sqrt(originalTrainingData.size()));
 					if ((k & 1) == 0)
 						k++;
-					classifier = new KNearestNeighbors(k);
+					classifier = new FastKNearestNeighbors(k);
 				} else {
 					System.err.println("Error: Invalid argument: " + args[i]);
 					System.exit(-1);
@@ -239,8 +239,17 @@ public class FSSpecificityValidator {
 
 		classifier.buildClassifier(finalTrainingData);
 
-		double specTraining = PerformanceIndexes.specificity(classifier, finalTrainingData, label);
-		double specTest = PerformanceIndexes.specificity(classifier, finalTestData, label);
+		/* Each dataset is predicted once, in parallel */
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		Object[] trainingClasses = PerformanceIndexes.classValues(finalTrainingData);
+		Object[] testClasses = PerformanceIndexes.classValues(finalTestData);
+		int[][] trainingMatrix = PerformanceIndexes.confusionMatrix(classifier, finalTrainingData, trainingClasses,
+				nThreads);
+		int[][] testMatrix = PerformanceIndexes.confusionMatrix(classifier, finalTestData, testClasses, nThreads);
+
+		double specTraining = PerformanceIndexes.specificity(trainingMatrix,
+				PerformanceIndexes.classIndex(trainingClasses, label));
+		double specTest = PerformanceIndexes.specificity(testMatrix, PerformanceIndexes.classIndex(testClasses, label));
 
 		if (verbose) {
 			System.out.printf("\nSpecificity Training: %.6f\n", specTraining);
@@ -23,23 +23,53 @@
 
 package ristretto.tools;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
-import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Computes the Spearman score achieved by a set of experiments
+ *
+ * <p>
+ * The rankings are stored experiment after experiment, and the Spearman index
+ * of all the pairs of experiments is computed in parallel, by blocks of
+ * experiments and features, so that the rankings of each block are reused
+ * while they are in cache. The whole matrix of pairwise indices can also be
+ * written to a file. Relevance files can also be given instead of ranking
+ * files, and then they are ranked in-process with
+ * {@link ristretto.tools.FSRanker#rank(double[])}.
  * 
  * @author Jesús González
  */
 public class FSStabilitySpearmanScorer {
 	private static int nFeatures;
-	private static int nExperiments;
 	private static double[][] rankings;
 
-	/* Scanner for ranking files */
-	private static Scanner scanner;
+	/* Optional arguments */
+	private static String matrixArg = "matrix=";
+	private static String threadsArg = "threads=";
+	private static String relevancesArg = "relevances";
+
+	/* Whether the files contain relevances instead of ranks */
+	private static boolean relevances;
+
+	/* File for the pairwise Spearman matrix */
+	private static String matrixFileName;
+
+	/* Number of threads */
+	private static int nThreads = Runtime.getRuntime().availableProcessors();
+
+	/* Number of experiments of each block */
+	private static final int EXPERIMENTS_BLOCK = 16;
+
+	/* Number of features of each block */
+	private static final int FEATURES_BLOCK = 4096;
 
 	/**
 	 * Read the parameters from the command-line
@@ -49,6 +79,14 @@ public class FSStabilitySpearmanScorer {
 	 * <li>Number of features in the dataset</li>
 	 * <li>Paths to ranking files from different experiments
 	 * </ol>
+	 * <b>Optional args:</b>
+	 * <ul>
+	 * <li>matrix=<i>file</i>: Write the pairwise Spearman matrix to a file</li>
+	 * <li>threads=<i>n</i>: Number of threads. If omitted, as many threads as
+	 * available processors are used</li>
+	 * <li>relevances: The files are relevance files, to be ranked as FSRanker
+	 * does</li>
+	 * </ul>
 	 *
 	 * @param args Command line arguments
 	 */
@@ -56,20 +94,11 @@ public class FSStabilitySpearmanScorer {
 		/*
 		 * The first argument should be the number of features in the dataset
 		 */
-		/* The first argument is expected to be the path to the dataset */
 		if (args.length < 1) {
 			System.err.println("Error: The first argument should be the number of features in the dataset");
 			System.exit(-1);
 		}
 
-		/*
-		 * The remaining arguments should be ranking files from different experiments
-		 */
-		if (args.length < 2) {
-			System.err.println("Error: Missing ranking files");
-			System.exit(-1);
-		}
-
 		try {
 			nFeatures = Integer.parseInt(args[0]);
 		} catch (NumberFormatException e) {
@@ -77,70 +106,189 @@ public class FSStabilitySpearmanScorer {
 			System.exit(-1);
 		}
 
-		nExperiments = args.length - 1;
-		rankings = new double[nFeatures][nExperiments];
-
+		/*
+		 * The remaining arguments should be ranking files from different experiments
+		 */
+		final List<String> rankingFiles = new ArrayList<String>();
 		for (int i = 1; i < args.length; i++) {
-			String rankingFile = args[i];
-			try {
-				scanner = new Scanner(Paths.get(rankingFile));
-
-				// The first line is a header
-				if (!(scanner.hasNext() && scanner.next().equalsIgnoreCase("feature")))
-					System.err.println("Error: Missing header in " + rankingFile);
-
-				if (!(scanner.hasNext() && scanner.next().equalsIgnoreCase("rank")))
-					System.err.println("Error: Missing header in " + rankingFile);
+			if (args[i].startsWith(matrixArg))
+				matrixFileName = args[i].substring(matrixArg.length());
+			else if (args[i].startsWith(threadsArg)) {
+				try {
+					nThreads = Integer.parseInt(args[i].substring(threadsArg.length()));
+				} catch (NumberFormatException e) {
+					nThreads = 0;
+				}
+				if (nThreads < 1) {
+					System.err.println("Error: Invalid number of threads: " + args[i]);
+					System.exit(-1);
+				}
+			} else if (args[i].equalsIgnoreCase(relevancesArg))
+				relevances = true;
+			else
+				rankingFiles.add(args[i]);
+		}
 
-				while (scanner.hasNext()) {
-					/* Obtains the next feature */
-					int feature = scanner.nextInt();
-					double rank = scanner.nextDouble();
-					rankings[feature][i - 1] = rank;
+		if (rankingFiles.isEmpty()) {
+			System.err.println("Error: Missing ranking files");
+			System.exit(-1);
+		}
 
-					/* Skips the rest of the line */
-					scanner.nextLine();
+		/* Read the ranking files in parallel */
+		rankings = new double[rankingFiles.size()][];
+		final AtomicInteger next = new AtomicInteger();
+		Thread[] threads = new Thread[Math.min(nThreads, rankingFiles.size())];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					int e;
+					while ((e = next.getAndIncrement()) < rankingFiles.size()) {
+						String rankingFile = rankingFiles.get(e);
+						try {
+							if (relevances)
+								rankings[e] = FSRanker.rank(
+										FeatureValuesFile.read(new File(rankingFile), "relevance", nFeatures));
+							else
+								rankings[e] = FeatureValuesFile.read(new File(rankingFile), "rank", nFeatures);
+						} catch (IOException ex) {
+							System.err.println("Error: Couldn't read the ranking file: " + rankingFile + " ("
+									+ ex.getMessage() + ")");
+							System.exit(-1);
+						}
+					}
 				}
+			};
+			threads[t].start();
+		}
+		join(threads);
+	}
 
-				scanner.close();
-			} catch (IOException e) {
-				System.err.println("Error: Couldn't open the ranking file: " + rankingFile);
+	/**
+	 * Wait for some threads to finish
+	 *
+	 * @param threads The threads
+	 */
+	private static void join(Thread[] threads) {
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				System.err.println("Error: Interrupted");
 				System.exit(-1);
 			}
 		}
 	}
 
 	/**
-	 * Computes the Spearman correlation index for a couple of experiments
-	 * 
-	 * @param i Index of the first experiment
-	 * @param j Index of the second experiment
+	 * Computes the Spearman correlation index for all the pairs of experiments
+	 *
+	 * @param rankings The rank of each feature in each experiment, stored
+	 *                 experiment after experiment
+	 * @param nThreads Number of threads
+	 * @return A symmetric matrix with the Spearman correlation index of each pair
+	 *         of experiments
 	 */
-	private static double spearmanIndex(int i, int j) {
-		double acc = 0;
-		double nFeatures2 = nFeatures * nFeatures;
+	public static double[][] spearmanMatrix(final double[][] rankings, int nThreads) {
+		final int nExperiments = rankings.length;
+		final int nFeatures = nExperiments == 0 ? 0 : rankings[0].length;
+		final double[][] matrix = new double[nExperiments][nExperiments];
+		final double norm = 6.0 / (nFeatures * ((double) nFeatures * nFeatures - 1));
+
+		/* Pairs of blocks of experiments */
+		int nBlocks = (nExperiments + EXPERIMENTS_BLOCK - 1) / EXPERIMENTS_BLOCK;
+		final int[] firstBlock = new int[nBlocks * (nBlocks + 1) / 2];
+		final int[] secondBlock = new int[firstBlock.length];
+		for (int bi = 0, task = 0; bi < nBlocks; bi++)
+			for (int bj = bi; bj < nBlocks; bj++, task++) {
+				firstBlock[task] = bi;
+				secondBlock[task] = bj;
+			}
+
+		final AtomicInteger next = new AtomicInteger();
+		Thread[] threads = new Thread[Math.max(1, Math.min(nThreads, firstBlock.length))];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					double[][] acc = new double[EXPERIMENTS_BLOCK][EXPERIMENTS_BLOCK];
+					int task;
+					while ((task = next.getAndIncrement()) < firstBlock.length) {
+						int i0 = firstBlock[task] * EXPERIMENTS_BLOCK;
+						int i1 = Math.min(i0 + EXPERIMENTS_BLOCK, nExperiments);
+						int j0 = secondBlock[task] * EXPERIMENTS_BLOCK;
+						int j1 = Math.min(j0 + EXPERIMENTS_BLOCK, nExperiments);
+
+						for (double[] row : acc)
+							Arrays.fill(row, 0);
+
+						/* Sum of the squared rank differences, by blocks of features */
+						for (int f0 = 0; f0 < nFeatures; f0 += FEATURES_BLOCK) {
+							int f1 = Math.min(f0 + FEATURES_BLOCK, nFeatures);
+							for (int i = i0; i < i1; i++) {
+								double[] ri = rankings[i];
+								for (int j = Math.max(j0, i + 1); j < j1; j++) {
+									double[] rj = rankings[j];
+									double sum = 0;
+									for (int f = f0; f < f1; f++) {
+										double diff = ri[f] - rj[f];
+										sum += diff * diff;
+									}
+									acc[i - i0][j - j0] += sum;
+								}
+							}
+						}
 
-		for (int k = 0; k < nFeatures; k++) {
-			double diff = rankings[k][i] - rankings[k][j];
-			acc += (diff * diff);
+						for (int i = i0; i < i1; i++) {
+							matrix[i][i] = 1;
+							for (int j = Math.max(j0, i + 1); j < j1; j++)
+								matrix[i][j] = matrix[j][i] = 1 - norm * acc[i - i0][j - j0];
+						}
+					}
+				}
+			};
+			threads[t].start();
 		}
+		join(threads);
 
-		return 1 - (6 * acc / (nFeatures * (nFeatures2 - 1)));
+		return matrix;
 	}
 
 	/**
-	 * Return the Spearman score achieved by a set of experiments
+	 * Return the Spearman score achieved by a set of experiments, i.e. the mean
+	 * of the Spearman index of all the pairs of experiments
+	 *
+	 * @param matrix The pairwise Spearman matrix
 	 */
-	private static double computeScore() {
+	public static double score(double[][] matrix) {
+		int nExperiments = matrix.length;
 		double acc = 0;
-		for (int i = 0; i < nExperiments - 1; i++) {
-			for (int j = i + 1; j < nExperiments; j++) {
-				acc += spearmanIndex(i, j);
+		for (int i = 0; i < nExperiments - 1; i++)
+			for (int j = i + 1; j < nExperiments; j++)
+				acc += matrix[i][j];
 
+		return (2 * acc) / (nExperiments * (nExperiments - 1));
+	}
+
+	/**
+	 * Write the pairwise Spearman matrix, a row per experiment, in the same order
+	 * as the ranking files
+	 *
+	 * @param matrix The pairwise Spearman matrix
+	 */
+	private static void writeMatrix(double[][] matrix) {
+		try {
+			PrintWriter out = new PrintWriter(matrixFileName);
+			StringBuilder line = new StringBuilder();
+			for (double[] row : matrix) {
+				line.setLength(0);
+				for (int j = 0; j < row.length; j++)
+					line.append(j > 0 ? "\t" : "").append(row[j]);
+				out.println(line);
 			}
+			out.close();
+		} catch (FileNotFoundException e) {
+			System.err.println("Error: Couldn't write the matrix file: " + matrixFileName);
+			System.exit(-1);
 		}
-
-		return (2 * acc) / (nExperiments * (nExperiments - 1));
 	}
 
 	/**
@@ -151,6 +299,14 @@ public class FSStabilitySpearmanScorer {
 	 * <li>Number of features in the dataset</li>
 	 * <li>Paths to ranking files from different experiments
 	 * </ol>
+	 * <b>Optional args:</b>
+	 * <ul>
+	 * <li>matrix=<i>file</i>: Write the pairwise Spearman matrix to a file</li>
+	 * <li>threads=<i>n</i>: Number of threads. If omitted, as many threads as
+	 * available processors are used</li>
+	 * <li>relevances: The files are relevance files, to be ranked as FSRanker
+	 * does</li>
+	 * </ul>
 	 *
 	 * @param args Command line arguments
 	 */
@@ -161,6 +317,10 @@ public class FSStabilitySpearmanScorer {
 		 */
 		Locale.setDefault(new Locale("en", "US"));
 		readParams(args);
-		System.out.println(computeScore());
+
+		double[][] matrix = spearmanMatrix(rankings, nThreads);
+		if (matrixFileName != null)
+			writeMatrix(matrix);
+		System.out.println(score(matrix));
 	}
 }
@@ -0,0 +1,199 @@
+/**
+ * This file is part of Ristretto.
+ *
+ * Ristretto is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Ristretto is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Ristretto. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * This work was supported by project TIN2015-67020-P (Spanish "Ministerio de
+ * Economía y Competitividad"), and by the European Regional Development Fund
+ * (ERDF).
+ *
+ * Copyright (c) 2016, EFFICOMP
+ */
+
+package ristretto.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ristretto.jmltools.data.TextDatasetParser;
+
+/**
+ * Fast reader for the files with a value per feature used by the tools, such
+ * as relevance files (with header <tt>Feature Relevance</tt>) or ranking files
+ * (with header <tt>Feature Rank</tt>). Each line after the header begins with a
+ * feature index and its value. Any other column is ignored.
+ *
+ * <p>
+ * The file is memory-mapped and parsed byte by byte, without Scanner or
+ * intermediate Strings.
+ *
+ * @author Jesús González
+ */
+public class FeatureValuesFile {
+
+	/**
+	 * Read a file with a value per feature
+	 *
+	 * @param file      The file
+	 * @param valueName Name of the value column in the header (e.g. "rank")
+	 * @param nFeatures Number of features in the dataset
+	 * @return The value of each feature. Missing features get a 0 value
+	 * @throws IOException If the file can not be read, its header is missing or
+	 *                     it contains a wrong feature index
+	 */
+	public static double[] read(File file, String valueName, int nFeatures) throws IOException {
+		double[] values = new double[nFeatures];
+		read(file, valueName, values);
+		return values;
+	}
+
+	/**
+	 * Read a file with a value per feature into an existing array
+	 *
+	 * @param file      The file
+	 * @param valueName Name of the value column in the header (e.g. "rank")
+	 * @param values    The value of each feature. Missing features are left
+	 *                  untouched
+	 * @throws IOException If the file can not be read, its header is missing or
+	 *                     it contains a wrong feature index
+	 */
+	public static void read(File file, String valueName, double[] values) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("File too large: " + file);
+			ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int limit = bytes.limit();
+
+			/* The first line is a header */
+			int[] token = new int[2];
+			if (!nextToken(bytes, 0, token) || !tokenEquals(bytes, token, "feature")
+					|| !nextToken(bytes, token[1], token) || !tokenEquals(bytes, token, valueName))
+				throw new IOException("Missing header in " + file);
+			int pos = skipLine(bytes, token[1]);
+
+			/* Empty lines are skipped along with the whitespaces */
+			while (pos < limit && nextToken(bytes, pos, token)) {
+
+				int feature = parseInt(bytes, token[0], token[1]);
+				if (feature < 0 || feature >= values.length)
+					throw new IOException("Wrong feature index in " + file);
+
+				// the value must be in the same line as the feature index
+				int end = lineEnd(bytes, token[1]);
+				if (!nextToken(bytes, token[1], token) || token[0] > end)
+					throw new IOException("Missing " + valueName + " of feature " + feature + " in " + file);
+				values[feature] = TextDatasetParser.parseDouble(bytes, token[0], token[1]);
+
+				/* Skips the rest of the line */
+				pos = skipLine(bytes, token[1]);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Find the next token from a position
+	 *
+	 * @param bytes The bytes
+	 * @param pos   The position
+	 * @param token Filled with the first and last (exclusive) bytes of the token
+	 * @return True if a token was found
+	 */
+	private static boolean nextToken(ByteBuffer bytes, int pos, int[] token) {
+		int limit = bytes.limit();
+		while (pos < limit && isSpace(bytes.get(pos)))
+			pos++;
+		if (pos >= limit)
+			return false;
+
+		token[0] = pos;
+		while (pos < limit && !isSpace(bytes.get(pos)))
+			pos++;
+		token[1] = pos;
+		return true;
+	}
+
+	/**
+	 * Return the position of the end of the line containing a position
+	 *
+	 * @param bytes The bytes
+	 * @param pos   The position
+	 */
+	private static int lineEnd(ByteBuffer bytes, int pos) {
+		int limit = bytes.limit();
+		while (pos < limit && bytes.get(pos) != '\n')
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * Return the position of the beginning of the line following a position
+	 *
+	 * @param bytes The bytes
+	 * @param pos   The position
+	 */
+	private static int skipLine(ByteBuffer bytes, int pos) {
+		return lineEnd(bytes, pos) + 1;
+	}
+
+	/**
+	 * Compare a token with a word, ignoring case
+	 *
+	 * @param bytes The bytes
+	 * @param token First and last (exclusive) bytes of the token
+	 * @param word  The word
+	 */
+	private static boolean tokenEquals(ByteBuffer bytes, int[] token, String word) {
+		if (token[1] - token[0] != word.length())
+			return false;
+		for (int i = 0; i < word.length(); i++)
+			if (Character.toLowerCase((char) bytes.get(token[0] + i)) != Character.toLowerCase(word.charAt(i)))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Parse a non-negative integer
+	 *
+	 * @param bytes The bytes
+	 * @param start First byte of the integer
+	 * @param end   Last byte of the integer (exclusive)
+	 * @return The integer, or -1 if the bytes are not a valid integer
+	 */
+	private static int parseInt(ByteBuffer bytes, int start, int end) {
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			byte b = bytes.get(i);
+			if (b < '0' || b > '9' || value > Integer.MAX_VALUE)
+				return -1;
+			value = value * 10 + (b - '0');
+		}
+		return start < end && value <= Integer.MAX_VALUE ? (int) value : -1;
+	}
+
+	/**
+	 * Return true if a byte is a whitespace
+	 *
+	 * @param b The byte
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+}
@@ -29,10 +29,10 @@ import java.io.PrintStream;
 import java.util.Locale;
 
 import ristretto.jmltools.MoreDatasetTools;
+import ristretto.jmltools.data.DatasetLoader;
 import net.sf.javaml.core.Dataset;
 import net.sf.javaml.core.DefaultDataset;
 import net.sf.javaml.core.Instance;
-import net.sf.javaml.tools.data.FileHandler;
 
 /**
  * Append some random features to a training dataset, and also to a test dataset
@@ -118,7 +118,7 @@ public class RandomFeatureAdder {
 		/* Loads the training dataset */
 		trainingData = new DefaultDataset();
 		try {
-			trainingData = FileHandler.loadDataset(new File(trainingFileName), classIndex, "\\s+");
+			trainingData = DatasetLoader.load(new File(trainingFileName), classIndex);
 		} catch (IOException e) {
 			System.err.println("Error: Couldn't open the training dataset file: " + trainingFileName);
 			System.exit(-1);
@@ -128,7 +128,7 @@ public class RandomFeatureAdder {
 		if (testFileName != null) {
 			testData = new DefaultDataset();
 			try {
-				testData = FileHandler.loadDataset(new File(testFileName), classIndex, "\\s+");
+				testData = DatasetLoader.load(new File(testFileName), classIndex);
 			} catch (IOException e) {
 				System.err.println("Error: Couldn't open the test dataset file: " + testFileName);
 				System.exit(-1);
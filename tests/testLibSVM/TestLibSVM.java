@@ -114,7 +114,7 @@ public class TestLibSVM extends FSSubsetProblem {
 		svm.setParameters(SVMparams);
 
 		/* Split the dataset into training and validation datasets */
-		Dataset training = data.copy();
+		Dataset training = columns.toDataset();
 		Dataset validation = MoreDatasetTools.split(training, validationProp);
 		svm.buildClassifier(training);
 